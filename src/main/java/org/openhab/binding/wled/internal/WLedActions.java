@@ -12,6 +12,8 @@
  */
 package org.openhab.binding.wled.internal;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.core.thing.binding.ThingActions;
@@ -52,6 +54,79 @@ public class WLedActions implements ThingActions {
         }
     }
 
+    @RuleAction(label = "Send Frame", description = "Stream a colour for each LED over UDP")
+    public void sendFrame(
+            @ActionInput(name = "colours", label = "Colours", description = "A comma separated list of hex colours, one for each LED, like FF0000,00FF00") @Nullable String colours) {
+        WLedHandler localHandler = handler;
+        if (colours == null || localHandler == null) {
+            return;
+        }
+        try {
+            localHandler.sendFrame(WLedRealtimeSender.parseColours(colours));
+        } catch (NumberFormatException e) {
+            logger.warn("The sendFrame action was given colours that are not hex:{}", colours);
+        }
+    }
+
+    @RuleAction(label = "Send Gradient", description = "Stream a fade from one colour to another across the LEDs over UDP")
+    public void sendGradient(
+            @ActionInput(name = "startColour", label = "Start Colour", description = "The hex colour of the first LED, like FF0000") @Nullable String startColour,
+            @ActionInput(name = "endColour", label = "End Colour", description = "The hex colour of the last LED, like 0000FF") @Nullable String endColour) {
+        WLedHandler localHandler = handler;
+        if (startColour == null || endColour == null || localHandler == null) {
+            return;
+        }
+        try {
+            localHandler.sendGradient(WLedRealtimeSender.parseColour(startColour),
+                    WLedRealtimeSender.parseColour(endColour));
+        } catch (NumberFormatException e) {
+            logger.warn("The sendGradient action was given colours that are not hex:{} {}", startColour, endColour);
+        }
+    }
+
+    @RuleAction(label = "Stop Realtime", description = "Stop streaming frames, so the WLED goes back to what it was doing")
+    public void stopRealtime() {
+        WLedHandler localHandler = handler;
+        if (localHandler != null) {
+            localHandler.stopRealtime();
+        }
+    }
+
+    @RuleAction(label = "Backup", description = "Save the presets and config of the WLED to the userdata folder")
+    public void backup() {
+        WLedHandler localHandler = handler;
+        if (localHandler != null) {
+            report(localHandler, "backup", localHandler.getBackup().backup());
+        }
+    }
+
+    @RuleAction(label = "Restore", description = "Put back the presets and config from the last backup")
+    public void restore() {
+        WLedHandler localHandler = handler;
+        if (localHandler != null) {
+            report(localHandler, "restore", localHandler.getBackup().restore());
+        }
+    }
+
+    @RuleAction(label = "Rollout Presets", description = "Add a library of presets to the WLED, replacing any with the same number")
+    public void rolloutPresets(
+            @ActionInput(name = "file", label = "Preset File", description = "A presets.json file, relative to the userdata/wled folder") @Nullable String file) {
+        WLedHandler localHandler = handler;
+        if (file != null && localHandler != null) {
+            report(localHandler, "preset rollout", localHandler.getBackup().rollout(WLedBackup.resolve(file)));
+        }
+    }
+
+    private void report(WLedHandler localHandler, String operation, CompletableFuture<String> result) {
+        result.whenComplete((message, error) -> {
+            if (error != null) {
+                logger.warn("WLED {} {} failed:{}", localHandler.getThing().getUID(), operation, error.getMessage());
+            } else {
+                logger.info("WLED {} {} finished, {}", localHandler.getThing().getUID(), operation, message);
+            }
+        });
+    }
+
     public static void savePreset(@Nullable ThingActions actions, int presetNumber) {
         if (actions instanceof WLedActions) {
             ((WLedActions) actions).savePreset(presetNumber);
@@ -59,4 +134,53 @@ public class WLedActions implements ThingActions {
             throw new IllegalArgumentException("Instance is not a WLED class.");
         }
     }
+
+    public static void sendFrame(@Nullable ThingActions actions, @Nullable String colours) {
+        if (actions instanceof WLedActions) {
+            ((WLedActions) actions).sendFrame(colours);
+        } else {
+            throw new IllegalArgumentException("Instance is not a WLED class.");
+        }
+    }
+
+    public static void sendGradient(@Nullable ThingActions actions, @Nullable String startColour,
+            @Nullable String endColour) {
+        if (actions instanceof WLedActions) {
+            ((WLedActions) actions).sendGradient(startColour, endColour);
+        } else {
+            throw new IllegalArgumentException("Instance is not a WLED class.");
+        }
+    }
+
+    public static void stopRealtime(@Nullable ThingActions actions) {
+        if (actions instanceof WLedActions) {
+            ((WLedActions) actions).stopRealtime();
+        } else {
+            throw new IllegalArgumentException("Instance is not a WLED class.");
+        }
+    }
+
+    public static void backup(@Nullable ThingActions actions) {
+        if (actions instanceof WLedActions) {
+            ((WLedActions) actions).backup();
+        } else {
+            throw new IllegalArgumentException("Instance is not a WLED class.");
+        }
+    }
+
+    public static void restore(@Nullable ThingActions actions) {
+        if (actions instanceof WLedActions) {
+            ((WLedActions) actions).restore();
+        } else {
+            throw new IllegalArgumentException("Instance is not a WLED class.");
+        }
+    }
+
+    public static void rolloutPresets(@Nullable ThingActions actions, @Nullable String file) {
+        if (actions instanceof WLedActions) {
+            ((WLedActions) actions).rolloutPresets(file);
+        } else {
+            throw new IllegalArgumentException("Instance is not a WLED class.");
+        }
+    }
 }
@@ -0,0 +1,415 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.openhab.binding.wled.internal.WLedBindingConstants.BINDING_ID;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentProvider;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.client.util.MultiPartContentProvider;
+import org.eclipse.jetty.client.util.PathContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.openhab.core.OpenHAB;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The {@link WLedBackup} downloads the presets.json and cfg.json files of a WLED into the userdata folder, and puts
+ * them back or rolls out a library of presets. Files are streamed straight to and from disk, and a file is only
+ * uploaded when it differs from what the WLED already has, so the flash of the ESP is not rewritten for nothing.
+ * Downloads, compares and merges read and write files, so they run on the I/O pool and not on the threads of the
+ * HTTP client. An upload leaves the HTTP client to read the file as it sends, so the WLED gets a Content-Length.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedBackup {
+    public static final String PRESETS = "presets.json";
+    public static final String CONFIG = "cfg.json";
+    private static final long TIMEOUT_SECONDS = 20;
+    private final Gson gson = new Gson();
+    private final HttpClient httpClient;
+    private final Executor ioExecutor;
+    private final String address;
+    private final Path folder;
+
+    public WLedBackup(HttpClient httpClient, Executor ioExecutor, String address, String thingId) {
+        this.httpClient = httpClient;
+        this.ioExecutor = ioExecutor;
+        this.address = address;
+        this.folder = resolve("backup").resolve(thingId);
+    }
+
+    /**
+     * @param file an absolute path, or a path relative to the userdata/wled folder.
+     */
+    public static Path resolve(String file) {
+        return Paths.get(OpenHAB.getUserDataFolder(), BINDING_ID).resolve(file);
+    }
+
+    public CompletableFuture<String> backup() {
+        return download(PRESETS, folder.resolve(PRESETS))
+                .thenCompose(presets -> download(CONFIG, folder.resolve(CONFIG)))
+                .thenApply(config -> "saved to " + folder);
+    }
+
+    /**
+     * Puts back the presets and config from the last backup, skipping any file the WLED already has.
+     */
+    public CompletableFuture<String> restore() {
+        Path presets = folder.resolve(PRESETS);
+        Path config = folder.resolve(CONFIG);
+        if (!Files.isReadable(presets) || !Files.isReadable(config)) {
+            return failed("no backup found in " + folder);
+        }
+        return restoreFile(PRESETS, presets, this::upload).thenCompose(
+                presetResult -> restoreFile(CONFIG, config, this::postConfig).thenApply(configResult -> PRESETS + " "
+                        + presetResult + ", " + CONFIG + " " + configResult));
+    }
+
+    /**
+     * Adds the presets in the library to the presets of the WLED, replacing any with the same number, and uploads the
+     * result only if any preset changed.
+     */
+    public CompletableFuture<String> rollout(Path library) {
+        Map<String, JsonElement> libraryPresets;
+        try {
+            libraryPresets = readPresets(library);
+        } catch (IOException | IllegalStateException | JsonParseException e) {
+            return failed("could not read " + library + ":" + e.getMessage());
+        }
+        Path current = temporaryFile(PRESETS);
+        Path merged = folder.resolve("merged-" + PRESETS);
+        return download(PRESETS, current).thenCompose(path -> {
+            int changed;
+            try {
+                changed = mergePresets(current, libraryPresets, merged);
+            } catch (IOException | IllegalStateException | JsonParseException e) {
+                return failed("could not merge the presets:" + e.getMessage());
+            }
+            if (changed == 0) {
+                return CompletableFuture.completedFuture("all presets already match");
+            }
+            return upload(PRESETS, merged).thenApply(done -> changed + " presets changed");
+        }).whenComplete((result, error) -> {
+            deleteQuietly(current);
+            deleteQuietly(merged);
+        });
+    }
+
+    private CompletableFuture<String> restoreFile(String name, Path backup, Uploader uploader) {
+        Path current = temporaryFile(name);
+        return download(name, current).thenCompose(path -> {
+            try {
+                if (sameJson(current, backup)) {
+                    return CompletableFuture.completedFuture("unchanged");
+                }
+            } catch (IOException | IllegalStateException e) {
+                // upload the backup when the current file can not be compared
+            }
+            return uploader.upload(name, backup).thenApply(done -> "restored");
+        }).whenComplete((result, error) -> deleteQuietly(current));
+    }
+
+    @FunctionalInterface
+    private interface Uploader {
+        CompletableFuture<Void> upload(String name, Path file);
+    }
+
+    /**
+     * Streams the file to disk on the I/O pool as it arrives, so it never has to be held in memory. The file only
+     * replaces the target once it has all arrived.
+     */
+    private CompletableFuture<Path> download(String name, Path target) {
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        InputStreamResponseListener listener = new InputStreamResponseListener();
+        httpClient.newRequest(address + "/" + name).timeout(TIMEOUT_SECONDS, TimeUnit.SECONDS).send(listener);
+        ioExecutor.execute(() -> {
+            try {
+                future.complete(save(name, listener, target));
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private Path save(String name, InputStreamResponseListener listener, Path target) throws IOException {
+        Response response;
+        try {
+            response = listener.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for " + name);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IOException(name + " could not be downloaded:" + e.getMessage());
+        }
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        try (InputStream content = listener.getInputStream()) {
+            if (response.getStatus() != 200) {
+                throw new IOException(name + " returned " + response.getStatus());
+            }
+            Files.createDirectories(target.getParent());
+            Files.copy(content, part, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            deleteQuietly(part);
+            throw e;
+        }
+        return target;
+    }
+
+    /**
+     * Uploads a file with the WLED file editor, which writes it to flash in one go.
+     */
+    private CompletableFuture<Void> upload(String name, Path file) {
+        MultiPartContentProvider multiPart = new MultiPartContentProvider();
+        try {
+            multiPart.addFilePart("data", "/" + name, new PathContentProvider(file), null);
+        } catch (IOException e) {
+            return failed(e.getMessage());
+        }
+        multiPart.close();
+        return send("/upload", multiPart, null);
+    }
+
+    private CompletableFuture<Void> postConfig(String name, Path file) {
+        try {
+            return send("/json/cfg", new PathContentProvider(file), "application/json");
+        } catch (IOException e) {
+            return failed(e.getMessage());
+        }
+    }
+
+    private CompletableFuture<Void> send(String url, ContentProvider content, @Nullable String contentType) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        httpClient.newRequest(address + url).method(HttpMethod.POST).content(content, contentType)
+                .timeout(TIMEOUT_SECONDS, TimeUnit.SECONDS).send(result -> {
+                    if (result.isFailed()) {
+                        future.completeExceptionally(result.getFailure());
+                    } else if (result.getResponse().getStatus() != 200) {
+                        future.completeExceptionally(
+                                new IOException(url + " returned " + result.getResponse().getStatus()));
+                    } else {
+                        future.complete(null);
+                    }
+                });
+        return future;
+    }
+
+    /**
+     * Walks both files a token at a time, so neither is held in memory. Whitespace does not count, but the order of the
+     * keys does, which at worst uploads a file that only had its keys moved around.
+     */
+    private static boolean sameJson(Path first, Path second) throws IOException {
+        try (Reader firstFile = Files.newBufferedReader(first, StandardCharsets.UTF_8);
+                JsonReader firstReader = new JsonReader(firstFile);
+                Reader secondFile = Files.newBufferedReader(second, StandardCharsets.UTF_8);
+                JsonReader secondReader = new JsonReader(secondFile)) {
+            while (true) {
+                JsonToken token = firstReader.peek();
+                if (token != secondReader.peek()) {
+                    return false;
+                }
+                switch (token) {
+                    case BEGIN_ARRAY:
+                        firstReader.beginArray();
+                        secondReader.beginArray();
+                        break;
+                    case END_ARRAY:
+                        firstReader.endArray();
+                        secondReader.endArray();
+                        break;
+                    case BEGIN_OBJECT:
+                        firstReader.beginObject();
+                        secondReader.beginObject();
+                        break;
+                    case END_OBJECT:
+                        firstReader.endObject();
+                        secondReader.endObject();
+                        break;
+                    case NAME:
+                        if (!firstReader.nextName().equals(secondReader.nextName())) {
+                            return false;
+                        }
+                        break;
+                    case STRING:
+                    case NUMBER:
+                        if (!firstReader.nextString().equals(secondReader.nextString())) {
+                            return false;
+                        }
+                        break;
+                    case BOOLEAN:
+                        if (firstReader.nextBoolean() != secondReader.nextBoolean()) {
+                            return false;
+                        }
+                        break;
+                    case NULL:
+                        firstReader.nextNull();
+                        secondReader.nextNull();
+                        break;
+                    case END_DOCUMENT:
+                        return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the presets of a library one at a time, which is the only file that is held in memory, as each of its
+     * presets has to be put in its place in the presets of the WLED.
+     *
+     * @return the presets ordered by number, which is how WLED lists them.
+     */
+    private Map<String, JsonElement> readPresets(Path file) throws IOException {
+        Map<String, JsonElement> presets = new TreeMap<>(WLedBackup::comparePresetIds);
+        try (Reader fileReader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                JsonReader reader = new JsonReader(fileReader)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                presets.put(reader.nextName(), gson.fromJson(reader, JsonElement.class));
+            }
+            reader.endObject();
+        }
+        return presets;
+    }
+
+    /**
+     * Streams the presets of the WLED into the target one preset at a time, putting the library presets in their place
+     * by number. A library preset that comes before a preset of the WLED is written as soon as it is passed, so it
+     * still ends up in the right place when the presets of the WLED are not in order.
+     *
+     * @return how many presets the library added or changed.
+     */
+    private int mergePresets(Path current, Map<String, JsonElement> library, Path target) throws IOException {
+        Iterator<Map.Entry<String, JsonElement>> libraryPresets = library.entrySet().iterator();
+        Map.Entry<String, JsonElement> next = libraryPresets.hasNext() ? libraryPresets.next() : null;
+        Map<String, JsonElement> written = new HashMap<>();
+        int changed = 0;
+        try (Reader fileReader = Files.newBufferedReader(current, StandardCharsets.UTF_8);
+                JsonReader reader = new JsonReader(fileReader);
+                Writer fileWriter = Files.newBufferedWriter(target, StandardCharsets.UTF_8);
+                JsonWriter writer = new JsonWriter(fileWriter)) {
+            reader.beginObject();
+            writer.beginObject();
+            while (reader.hasNext()) {
+                String id = reader.nextName();
+                JsonElement preset = gson.fromJson(reader, JsonElement.class);
+                JsonElement replacement = written.remove(id);
+                if (replacement != null) {
+                    if (replacement.equals(preset)) {
+                        changed--; // it was counted as new when it was written
+                    }
+                    continue;
+                }
+                while (next != null && comparePresetIds(next.getKey(), id) < 0) {
+                    writer.name(next.getKey());
+                    gson.toJson(next.getValue(), writer);
+                    written.put(next.getKey(), next.getValue());
+                    changed++;
+                    next = libraryPresets.hasNext() ? libraryPresets.next() : null;
+                }
+                if (next != null && next.getKey().equals(id)) {
+                    if (!next.getValue().equals(preset)) {
+                        changed++;
+                    }
+                    preset = next.getValue();
+                    next = libraryPresets.hasNext() ? libraryPresets.next() : null;
+                }
+                writer.name(id);
+                gson.toJson(preset, writer);
+            }
+            while (next != null) {
+                writer.name(next.getKey());
+                gson.toJson(next.getValue(), writer);
+                changed++;
+                next = libraryPresets.hasNext() ? libraryPresets.next() : null;
+            }
+            reader.endObject();
+            writer.endObject();
+        }
+        return changed;
+    }
+
+    /**
+     * Numbered presets come first in number order, then any other keys in text order, so the order stays the same
+     * whichever way round two keys are compared.
+     */
+    static int comparePresetIds(String first, String second) {
+        Integer firstNumber = presetNumber(first);
+        Integer secondNumber = presetNumber(second);
+        if (firstNumber != null && secondNumber != null) {
+            int byNumber = Integer.compare(firstNumber, secondNumber);
+            return byNumber != 0 ? byNumber : first.compareTo(second);
+        } else if (firstNumber != null) {
+            return -1;
+        } else if (secondNumber != null) {
+            return 1;
+        }
+        return first.compareTo(second);
+    }
+
+    private static @Nullable Integer presetNumber(String id) {
+        try {
+            return Integer.valueOf(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Path temporaryFile(String name) {
+        return folder.resolve("current-" + name);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // only a temporary file, it gets replaced next time
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(@Nullable String reason) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(new IOException(reason));
+        return future;
+    }
+}
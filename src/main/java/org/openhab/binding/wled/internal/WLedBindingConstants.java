@@ -15,6 +15,8 @@ package org.openhab.binding.wled.internal;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
@@ -33,13 +35,27 @@ public class WLedBindingConstants {
 
     // List of all Thing Type UIDs
     public static final ThingTypeUID THING_TYPE_WLED = new ThingTypeUID(BINDING_ID, "wled");
+    public static final ThingTypeUID THING_TYPE_GROUP = new ThingTypeUID(BINDING_ID, "group");
     public static final Set<ThingTypeUID> SUPPORTED_THING_TYPES = new HashSet<ThingTypeUID>(
-            Arrays.asList(THING_TYPE_WLED));
+            Arrays.asList(THING_TYPE_WLED, THING_TYPE_GROUP));
 
     // Configs
     public static final String CONFIG_ADDRESS = "address";
     public static final String CONFIG_POLL_TIME = "pollTime";
     public static final String CONFIG_SAT_THRESHOLD = "saturationThreshold";
+    public static final String CONFIG_WEBSOCKET = "websocket";
+    public static final String CONFIG_COALESCE_TIME = "coalesceTime";
+    public static final String CONFIG_JSON_API = "jsonApi";
+    public static final String CONFIG_REALTIME_PROTOCOL = "realtimeProtocol";
+    public static final String CONFIG_REALTIME_FPS = "realtimeFps";
+    public static final String CONFIG_FAILURE_THRESHOLD = "failureThreshold";
+    public static final String CONFIG_OFFLINE_COMMANDS = "offlineCommands";
+    public static final String CONFIG_PREVIEW_BUCKETS = "previewBuckets";
+    public static final String CONFIG_PREVIEW_TIME = "previewTime";
+    public static final String CONFIG_WHITE_TEMPERATURE = "whiteTemperature";
+    public static final String CONFIG_MAX_CONCURRENT = "maxConcurrent";
+    public static final String CONFIG_MEMBER_TIMEOUT = "memberTimeout";
+    public static final String CONFIG_SCAN_RANGES = "scanRanges";
 
     // Channels
     public static final String CHANNEL_MASTER_CONTROLS = "masterControls";
@@ -56,4 +72,17 @@ public class WLedBindingConstants {
     public static final String CHANNEL_SPEED = "speed";
     public static final String CHANNEL_INTENSITY = "intensity";
     public static final String CHANNEL_SLEEP = "sleep";
+    public static final String CHANNEL_PREVIEW = "preview";
+    public static final String CHANNEL_COLOR_TEMPERATURE = "colorTemperature";
+    public static final String CHANNEL_SEGMENT_PREFIX = "segment";
+
+    // Channel types that get created for each segment, with their item type and label
+    public static final Map<String, String[]> SEGMENT_CHANNEL_TYPES = new LinkedHashMap<>();
+    static {
+        SEGMENT_CHANNEL_TYPES.put(CHANNEL_PRIMARY_COLOR, new String[] { "Color", "Color" });
+        SEGMENT_CHANNEL_TYPES.put(CHANNEL_FX, new String[] { "String", "Effect" });
+        SEGMENT_CHANNEL_TYPES.put(CHANNEL_PALETTES, new String[] { "String", "Palette" });
+        SEGMENT_CHANNEL_TYPES.put(CHANNEL_SPEED, new String[] { "Dimmer", "FX Speed" });
+        SEGMENT_CHANNEL_TYPES.put(CHANNEL_INTENSITY, new String[] { "Dimmer", "FX Intensity" });
+    }
 }
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import java.util.function.LongSupplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link WLedCircuitBreaker} opens after a number of requests in a row have failed, so further requests to a WLED
+ * that is unplugged fail straight away instead of each waiting for the timeout. While open, a single probe is allowed
+ * through each time the backoff runs out, and the backoff doubles every time the probe fails.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedCircuitBreaker {
+    private static final long MIN_OPEN_MS = 5000;
+    private static final long MAX_OPEN_MS = 60000;
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final LongSupplier clock;
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openTime = MIN_OPEN_MS;
+    private long openUntil = 0;
+
+    /**
+     * @param failureThreshold how many failures in a row open the breaker, or 0 to never open it.
+     */
+    public WLedCircuitBreaker(int failureThreshold) {
+        this(failureThreshold, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock the time in milliseconds, which tests can move on without waiting.
+     */
+    WLedCircuitBreaker(int failureThreshold, LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.clock = clock;
+    }
+
+    /**
+     * @return true if a request may be sent, which when open is the probe that checks if the WLED is back.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        long now = clock.getAsLong();
+        if (now < openUntil) {
+            return false;
+        }
+        // the probe gets the same backoff, so a probe that never returns does not block the next one forever
+        state = State.HALF_OPEN;
+        openUntil = now + openTime;
+        return true;
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    /**
+     * @return true if the breaker was open and has now closed again.
+     */
+    public synchronized boolean recordSuccess() {
+        boolean recovered = state != State.CLOSED;
+        state = State.CLOSED;
+        failures = 0;
+        openTime = MIN_OPEN_MS;
+        return recovered;
+    }
+
+    /**
+     * @return true if this failure opened the breaker.
+     */
+    public synchronized boolean recordFailure() {
+        if (state != State.CLOSED) {
+            openTime = Math.min(openTime * 2, MAX_OPEN_MS);
+            state = State.OPEN;
+            openUntil = clock.getAsLong() + openTime;
+            return false;
+        }
+        if (failureThreshold <= 0 || ++failures < failureThreshold) {
+            return false;
+        }
+        state = State.OPEN;
+        openUntil = clock.getAsLong() + openTime;
+        return true;
+    }
+}
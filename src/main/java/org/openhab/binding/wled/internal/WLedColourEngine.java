@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.HSBType;
+import org.openhab.core.library.types.PercentType;
+
+/**
+ * The {@link WLedColourEngine} converts between the HSB colours openHAB uses and the RGB or RGBW bytes WLED uses with
+ * lookup tables, instead of the BigDecimal maths in {@link HSBType}. For RGBW strings it moves as much of a colour as
+ * it can onto the white LEDs, allowing for the colour temperature of those LEDs.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedColourEngine {
+    private static final int HUE_STEPS = 3600;
+    private static final int COLDEST_KELVIN = 6500;
+    private static final int WARMEST_KELVIN = 2700;
+    private static final int[] HUE_TO_RGB = new int[HUE_STEPS];
+    private static final int[] BYTE_TO_PERCENT = new int[256];
+    private static final int[] TEMPERATURE_TO_RGB = new int[101];
+    private static final PercentType[] PERCENTS = new PercentType[101];
+    private static final DecimalType[] HUES = new DecimalType[360];
+    private final int[][] toWhite = new int[3][256];
+    private final int[][] fromWhite = new int[3][256];
+
+    static {
+        for (int step = 0; step < HUE_STEPS; step++) {
+            HUE_TO_RGB[step] = hueToRgb(step * 360.0 / HUE_STEPS);
+        }
+        for (int value = 0; value < 256; value++) {
+            BYTE_TO_PERCENT[value] = (value * 100 + 127) / 255;
+        }
+        for (int percent = 0; percent <= 100; percent++) {
+            PERCENTS[percent] = new PercentType(percent);
+            TEMPERATURE_TO_RGB[percent] = kelvinToRgb(
+                    COLDEST_KELVIN - percent * (COLDEST_KELVIN - WARMEST_KELVIN) / 100);
+        }
+        for (int hue = 0; hue < 360; hue++) {
+            HUES[hue] = new DecimalType(hue);
+        }
+    }
+
+    /**
+     * @param whiteTemperature the colour temperature of the white LEDs in Kelvin, or 0 to treat them as pure white.
+     */
+    public WLedColourEngine(int whiteTemperature) {
+        int whiteRgb = whiteTemperature > 0 ? kelvinToRgb(whiteTemperature) : 0xFFFFFF;
+        for (int channel = 0; channel < 3; channel++) {
+            int white = whiteRgb >> (16 - channel * 8) & 0xFF;
+            for (int value = 0; value < 256; value++) {
+                toWhite[channel][value] = white == 0 ? 255 : Math.min(255, (value * 255 + white / 2) / white);
+                fromWhite[channel][value] = (value * white + 127) / 255;
+            }
+        }
+    }
+
+    /**
+     * @return the colour as 0xRRGGBB, including its brightness.
+     */
+    public static int toRgb(HSBType hsb) {
+        double hue = hsb.getHue().doubleValue();
+        double saturation = hsb.getSaturation().doubleValue() / 100;
+        double brightness = hsb.getBrightness().doubleValue() / 100;
+        int step = (int) Math.round(hue * HUE_STEPS / 360) % HUE_STEPS;
+        int full = HUE_TO_RGB[step < 0 ? 0 : step];
+        return scale(full >> 16 & 0xFF, saturation, brightness) << 16
+                | scale(full >> 8 & 0xFF, saturation, brightness) << 8 | scale(full & 0xFF, saturation, brightness);
+    }
+
+    private static int scale(int value, double saturation, double brightness) {
+        return (int) Math.round((value + (255 - value) * (1 - saturation)) * brightness);
+    }
+
+    /**
+     * @return the colour as an HSBType made from cached whole number parts.
+     */
+    public static HSBType toHsb(int red, int green, int blue) {
+        int max = Math.max(red, Math.max(green, blue));
+        int min = Math.min(red, Math.min(green, blue));
+        int delta = max - min;
+        int hue = 0;
+        if (delta > 0) {
+            int scaledHue;
+            if (max == red) {
+                scaledHue = (green - blue) * 60;
+            } else if (max == green) {
+                scaledHue = (blue - red) * 60 + 120 * delta;
+            } else {
+                scaledHue = (red - green) * 60 + 240 * delta;
+            }
+            hue = Math.floorMod(Math.round((float) scaledHue / delta), 360);
+        }
+        int saturation = max == 0 ? 0 : (delta * 100 + max / 2) / max;
+        return new HSBType(HUES[hue], PERCENTS[saturation], PERCENTS[BYTE_TO_PERCENT[max]]);
+    }
+
+    /**
+     * Moves the part of the colour that the white LEDs can make onto them.
+     *
+     * @param rgb as 0xRRGGBB
+     * @return the colour as 0xWWRRGGBB
+     */
+    public int extractWhite(int rgb) {
+        int red = rgb >> 16 & 0xFF;
+        int green = rgb >> 8 & 0xFF;
+        int blue = rgb & 0xFF;
+        int white = Math.min(toWhite[0][red], Math.min(toWhite[1][green], toWhite[2][blue]));
+        red = Math.max(0, red - fromWhite[0][white]);
+        green = Math.max(0, green - fromWhite[1][white]);
+        blue = Math.max(0, blue - fromWhite[2][white]);
+        return white << 24 | red << 16 | green << 8 | blue;
+    }
+
+    /**
+     * @param percent 0 for the coldest white of 6500K, up to 100 for the warmest of 2700K.
+     * @return the colour as 0xRRGGBB
+     */
+    public static int colourTemperatureToRgb(PercentType percent) {
+        int index = Math.max(0, Math.min(100, (int) Math.round(percent.doubleValue())));
+        return TEMPERATURE_TO_RGB[index];
+    }
+
+    private static int hueToRgb(double hue) {
+        double sector = hue / 60;
+        int index = (int) sector;
+        int rising = (int) Math.round((sector - index) * 255);
+        int falling = 255 - rising;
+        switch (index) {
+            case 0:
+                return 0xFF0000 | rising << 8;
+            case 1:
+                return falling << 16 | 0xFF00;
+            case 2:
+                return 0xFF00 | rising;
+            case 3:
+                return falling << 8 | 0xFF;
+            case 4:
+                return rising << 16 | 0xFF;
+            default:
+                return 0xFF0000 | falling;
+        }
+    }
+
+    /**
+     * An approximation of the colour of a black body at this temperature, which is close enough for white LEDs.
+     *
+     * @return the colour as 0xRRGGBB
+     */
+    static int kelvinToRgb(int kelvin) {
+        double temperature = kelvin / 100.0;
+        double red;
+        double green;
+        double blue;
+        if (temperature <= 66) {
+            red = 255;
+            green = 99.4708025861 * Math.log(temperature) - 161.1195681661;
+            blue = temperature <= 19 ? 0 : 138.5177312231 * Math.log(temperature - 10) - 305.0447927307;
+        } else {
+            red = 329.698727446 * Math.pow(temperature - 60, -0.1332047592);
+            green = 288.1221695283 * Math.pow(temperature - 60, -0.0755148492);
+            blue = 255;
+        }
+        return clamp(red) << 16 | clamp(green) << 8 | clamp(blue);
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
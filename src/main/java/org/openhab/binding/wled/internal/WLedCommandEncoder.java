@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.HSBType;
+import org.openhab.core.library.types.IncreaseDecreaseType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.library.types.PercentType;
+import org.openhab.core.types.Command;
+
+/**
+ * The {@link WLedCommandEncoder} builds the /win commands that get sent to a WLED in a buffer that is reused for every
+ * command, using lookup tables to turn percentages into the 0-255 values WLED uses and colours into hex. Every value
+ * is a whole number, which both the /win and JSON APIs expect. An encoder is not thread safe.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedCommandEncoder {
+    public static final int UNSUPPORTED = -1;
+    private static final int STEP = 15; // 255 divided by 15 = 17 levels, the same as the masterControls channel
+    private static final int[] PERCENT_TO_BYTE = new int[101];
+    private static final char[] HEX_PAIRS = new char[512];
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private final StringBuilder buffer = new StringBuilder(96);
+
+    static {
+        for (int percent = 0; percent <= 100; percent++) {
+            PERCENT_TO_BYTE[percent] = (percent * 255 + 50) / 100;
+        }
+        for (int value = 0; value < 256; value++) {
+            HEX_PAIRS[value * 2] = HEX_DIGITS[value >> 4];
+            HEX_PAIRS[value * 2 + 1] = HEX_DIGITS[value & 0xF];
+        }
+    }
+
+    /**
+     * Clears the buffer and starts a new /win command.
+     */
+    public WLedCommandEncoder win() {
+        buffer.setLength(0);
+        buffer.append("/win");
+        return this;
+    }
+
+    public WLedCommandEncoder add(String key, int value) {
+        buffer.append('&').append(key).append('=').append(value);
+        return this;
+    }
+
+    /**
+     * Adds a parameter that has no value, like ND.
+     */
+    public WLedCommandEncoder add(String key) {
+        buffer.append('&').append(key);
+        return this;
+    }
+
+    /**
+     * Adds a colour as the letter h followed by RRGGBB.
+     */
+    public WLedCommandEncoder addColour(String key, int rgb) {
+        buffer.append('&').append(key).append("=h");
+        appendHex(buffer, rgb);
+        return this;
+    }
+
+    /**
+     * Adds a colour with white as the letter h followed by WWRRGGBB.
+     */
+    public WLedCommandEncoder addColour(String key, int white, int rgb) {
+        buffer.append('&').append(key).append("=h");
+        appendByte(buffer, white);
+        appendHex(buffer, rgb);
+        return this;
+    }
+
+    public String toUrl() {
+        return buffer.toString();
+    }
+
+    /**
+     * @return the colour as the letter h followed by RRGGBB.
+     */
+    public static String toHex(int rgb) {
+        StringBuilder hex = new StringBuilder(7);
+        hex.append('h');
+        appendHex(hex, rgb);
+        return hex.toString();
+    }
+
+    private static void appendHex(StringBuilder builder, int rgb) {
+        appendByte(builder, rgb >> 16);
+        appendByte(builder, rgb >> 8);
+        appendByte(builder, rgb);
+    }
+
+    private static void appendByte(StringBuilder builder, int value) {
+        int index = (value & 0xFF) * 2;
+        builder.append(HEX_PAIRS[index]).append(HEX_PAIRS[index + 1]);
+    }
+
+    /**
+     * @return the 0-100 percentage scaled to the 0-255 that WLED uses, rounded to the nearest whole number.
+     */
+    public static int toByte(PercentType percent) {
+        return percentToByte(percent.doubleValue());
+    }
+
+    private static int percentToByte(double value) {
+        int whole = (int) value;
+        if (whole == value && whole >= 0 && whole <= 100) {
+            return PERCENT_TO_BYTE[whole];
+        }
+        return Math.max(0, Math.min(255, (int) Math.round(value * 255 / 100)));
+    }
+
+    /**
+     * @return an ON/OFF, colour, percent or number command scaled to the 0-255 that WLED uses, where a number is
+     *         treated as a percentage, or {@link #UNSUPPORTED} for any other command.
+     */
+    public static int toByte(Command command) {
+        if (command instanceof HSBType) {
+            return toByte(((HSBType) command).getBrightness());
+        } else if (command instanceof PercentType) {
+            return toByte((PercentType) command);
+        } else if (command instanceof DecimalType) {
+            return percentToByte(((DecimalType) command).doubleValue());
+        } else if (command instanceof OnOffType) {
+            return OnOffType.ON.equals(command) ? 255 : 0;
+        }
+        return UNSUPPORTED;
+    }
+
+    /**
+     * The same as {@link #toByte(Command)}, but INCREASE and DECREASE step the current value up or down.
+     *
+     * @param current the 0-255 value the WLED last reported, or -1 if it is not known yet.
+     */
+    public static int toByte(Command command, int current) {
+        if (command instanceof IncreaseDecreaseType) {
+            int value = Math.max(0, current);
+            if (IncreaseDecreaseType.INCREASE.equals(command)) {
+                return Math.min(255, value + STEP);
+            }
+            return Math.max(0, value - STEP);
+        }
+        return toByte(command);
+    }
+
+    /**
+     * @return a percent command scaled from 0.5 seconds to 1 minute, in milliseconds.
+     */
+    public static int toDuration(Command command) {
+        if (command instanceof PercentType) {
+            return (int) Math.round(((PercentType) command).doubleValue() * 600) + 500;
+        } else if (OnOffType.ON.equals(command)) {
+            return 255;
+        }
+        return 0;
+    }
+}
@@ -21,7 +21,20 @@ import org.eclipse.jdt.annotation.NonNullByDefault;
  */
 @NonNullByDefault
 public class WLedConfiguration {
+    public static final String DROP = "drop";
+    public static final String REPLAY = "replay";
+
     public String address = "";
     public int pollTime;
     public int saturationThreshold;
+    public boolean websocket = true;
+    public int coalesceTime = 50;
+    public boolean jsonApi = true;
+    public String realtimeProtocol = "DDP";
+    public int realtimeFps = 30;
+    public int failureThreshold = 3;
+    public String offlineCommands = DROP;
+    public int previewBuckets = 16;
+    public int previewTime = 1000;
+    public int whiteTemperature = 0;
 }
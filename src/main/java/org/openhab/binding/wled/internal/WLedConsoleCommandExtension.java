@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.openhab.binding.wled.internal.WLedBindingConstants.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.common.ThreadPoolManager;
+import org.openhab.core.io.console.Console;
+import org.openhab.core.io.console.extensions.AbstractConsoleCommandExtension;
+import org.openhab.core.io.console.extensions.ConsoleCommandExtension;
+import org.openhab.core.thing.Thing;
+import org.openhab.core.thing.ThingRegistry;
+import org.openhab.core.thing.ThingUID;
+import org.openhab.core.thing.binding.ThingHandler;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * The {@link WLedConsoleCommandExtension} adds the wled commands to the openHAB console.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+@Component(service = ConsoleCommandExtension.class)
+public class WLedConsoleCommandExtension extends AbstractConsoleCommandExtension {
+    private static final String METRICS = "metrics";
+    private static final String GROUPS = "groups";
+    private static final String BACKUP = "backup";
+    private static final String RESTORE = "restore";
+    private static final String ROLLOUT = "rollout";
+    private static final String PLAY = "play";
+    private static final String STOP = "stop";
+    private static final int MAX_CONCURRENT = 8;
+    private static final long FLEET_TIMEOUT_MINUTES = 5;
+    private final ThingRegistry thingRegistry;
+    private final ScheduledExecutorService scheduler = ThreadPoolManager.getScheduledPool(BINDING_ID);
+    private @Nullable WLedTimeline playing;
+
+    @Activate
+    public WLedConsoleCommandExtension(@Reference ThingRegistry thingRegistry) {
+        super(BINDING_ID, "Interact with the WLED binding.");
+        this.thingRegistry = thingRegistry;
+    }
+
+    @Override
+    public void execute(String[] args, Console console) {
+        if (args.length == 1 && METRICS.equals(args[0])) {
+            printMetrics(console);
+        } else if (args.length == 2 && METRICS.equals(args[0])) {
+            printMetrics(console, args[1]);
+        } else if (args.length == 1 && GROUPS.equals(args[0])) {
+            printGroups(console);
+        } else if (args.length == 1 && BACKUP.equals(args[0])) {
+            runOnAll(console, handler -> handler.getBackup().backup());
+        } else if (args.length == 1 && RESTORE.equals(args[0])) {
+            runOnAll(console, handler -> handler.getBackup().restore());
+        } else if (args.length == 2 && ROLLOUT.equals(args[0])) {
+            Path library = WLedBackup.resolve(args[1]);
+            runOnAll(console, handler -> handler.getBackup().rollout(library));
+        } else if (args.length == 2 && PLAY.equals(args[0])) {
+            play(console, WLedBackup.resolve(args[1]));
+        } else if (args.length == 1 && STOP.equals(args[0])) {
+            stop(console);
+        } else {
+            printUsage(console);
+        }
+    }
+
+    private void printUsage(Console console) {
+        for (String usage : getUsages()) {
+            console.printUsage(usage);
+        }
+    }
+
+    @Override
+    public List<String> getUsages() {
+        return Arrays.asList(buildCommandUsage(METRICS, "list the request metrics of every WLED, slowest first"),
+                buildCommandUsage(METRICS + " <thingId>", "show every request metric of one WLED"),
+                buildCommandUsage(GROUPS, "show how long each WLED of every group took to reply to its last command"),
+                buildCommandUsage(BACKUP, "save the presets and config of every WLED to userdata/wled/backup"),
+                buildCommandUsage(RESTORE, "put back the presets and config of every WLED from its last backup"),
+                buildCommandUsage(ROLLOUT + " <file>", "add the presets in the file to every WLED"),
+                buildCommandUsage(PLAY + " <file>", "play a scene timeline and show how closely it kept time"),
+                buildCommandUsage(STOP, "stop the scene timeline that is playing"));
+    }
+
+    private List<WLedHandler> getHandlers() {
+        List<WLedHandler> handlers = new ArrayList<>();
+        for (Thing thing : thingRegistry.getAll()) {
+            ThingHandler handler = thing.getHandler();
+            if (handler instanceof WLedHandler) {
+                handlers.add((WLedHandler) handler);
+            }
+        }
+        return handlers;
+    }
+
+    /**
+     * Returns as soon as the scene is scheduled on the binding scheduler, and prints how closely it kept time once it
+     * has finished. Playing a scene stops the one that was playing.
+     */
+    private void play(Console console, Path file) {
+        WLedTimeline timeline;
+        try {
+            timeline = WLedTimeline.load(file, this::resolveHandlers);
+        } catch (IOException e) {
+            console.println("Could not load the scene " + file + ":" + e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            WLedTimeline previous = playing;
+            if (previous != null) {
+                previous.stop();
+            }
+            playing = timeline;
+        }
+        console.println("Playing " + file + ", use wled " + STOP + " to stop it");
+        timeline.play(scheduler).whenComplete((summary, error) -> {
+            synchronized (this) {
+                if (playing == timeline) {
+                    playing = null;
+                }
+            }
+            synchronized (console) {
+                console.println(error != null ? "The scene failed:" + error.getMessage() : summary);
+            }
+        });
+    }
+
+    private void stop(Console console) {
+        WLedTimeline timeline;
+        synchronized (this) {
+            timeline = playing;
+            playing = null;
+        }
+        if (timeline == null || !timeline.stop()) {
+            console.println("No scene is playing");
+        }
+    }
+
+    private List<WLedHandler> resolveHandlers(String thingUID) {
+        Thing thing;
+        try {
+            thing = thingRegistry.get(new ThingUID(thingUID));
+        } catch (IllegalArgumentException e) {
+            return Collections.emptyList();
+        }
+        ThingHandler handler = thing == null ? null : thing.getHandler();
+        if (handler instanceof WLedHandler) {
+            return Collections.singletonList((WLedHandler) handler);
+        } else if (handler instanceof WLedGroupHandler) {
+            return ((WLedGroupHandler) handler).getMembers();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Runs the operation on every WLED, with no more than MAX_CONCURRENT running at once, and waits for them all to
+     * finish.
+     */
+    private void runOnAll(Console console, Function<WLedHandler, CompletableFuture<String>> operation) {
+        Deque<WLedHandler> waiting = new ArrayDeque<>(getHandlers());
+        CountDownLatch finished = new CountDownLatch(waiting.size());
+        long startTime = System.nanoTime();
+        for (int index = 0; index < MAX_CONCURRENT; index++) {
+            runNext(console, waiting, finished, operation);
+        }
+        try {
+            if (!finished.await(FLEET_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                console.println("Gave up waiting for " + finished.getCount() + " WLEDs");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        console.println(
+                String.format("Finished in %d ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+    }
+
+    private void runNext(Console console, Deque<WLedHandler> waiting, CountDownLatch finished,
+            Function<WLedHandler, CompletableFuture<String>> operation) {
+        WLedHandler handler;
+        synchronized (waiting) {
+            handler = waiting.poll();
+        }
+        if (handler == null) {
+            return;
+        }
+        String id = handler.getThing().getUID().getId();
+        operation.apply(handler).whenComplete((message, error) -> {
+            synchronized (console) {
+                console.println(id + ": " + (error != null ? "FAILED " + error.getMessage() : message));
+            }
+            finished.countDown();
+            runNext(console, waiting, finished, operation);
+        });
+    }
+
+    private void printMetrics(Console console) {
+        List<WLedHandler> handlers = getHandlers();
+        handlers.sort(Comparator.comparingLong((WLedHandler handler) -> handler.getMetrics().getAverageLatency())
+                .reversed());
+        console.println(String.format("%-30s %-8s %9s %8s %8s %8s %8s %10s", "Thing", "Status", "Requests",
+                "Failed", "Avg ms", "P95 ms", "Max ms", "Last state"));
+        long requests = 0;
+        long failures = 0;
+        long suppressed = 0;
+        for (WLedHandler handler : handlers) {
+            WLedMetrics metrics = handler.getMetrics();
+            long p95 = metrics.getLatencyPercentile(95);
+            long sinceState = metrics.getSecondsSinceGoodState();
+            console.println(String.format("%-30s %-8s %9d %8d %8d %8s %8d %10s", handler.getThing().getUID().getId(),
+                    handler.getThing().getStatus(), metrics.getRequests(), metrics.getFailures(),
+                    metrics.getAverageLatency(), p95 == -1 ? ">2500" : "<=" + p95, metrics.getMaxLatency(),
+                    sinceState == -1 ? "never" : sinceState + "s ago"));
+            requests += metrics.getRequests();
+            failures += metrics.getFailures();
+            suppressed += metrics.getSuppressedUpdates();
+        }
+        console.println(String.format("%d WLEDs, %d requests, %d failed, %d updates of unchanged channels skipped",
+                handlers.size(), requests, failures, suppressed));
+    }
+
+    private void printGroups(Console console) {
+        for (Thing thing : thingRegistry.getAll()) {
+            ThingHandler handler = thing.getHandler();
+            if (handler instanceof WLedGroupHandler) {
+                WLedGroupHandler group = (WLedGroupHandler) handler;
+                String lastCommand = group.getLastCommand();
+                console.println(thing.getUID().getId() + ": "
+                        + (lastCommand.isEmpty() ? "no command has been sent yet" : lastCommand));
+                for (String member : group.getLastCommandMembers()) {
+                    console.println("  " + member);
+                }
+            }
+        }
+    }
+
+    private void printMetrics(Console console, String thingId) {
+        for (WLedHandler handler : getHandlers()) {
+            if (handler.getThing().getUID().getId().equals(thingId)
+                    || handler.getThing().getUID().getAsString().equals(thingId)) {
+                for (Map.Entry<String, String> line : handler.getMetrics().describe().entrySet()) {
+                    console.println(String.format("%-16s %s", line.getKey() + ":", line.getValue()));
+                }
+                return;
+            }
+        }
+        console.println("There is no WLED with the Thing ID " + thingId);
+    }
+}
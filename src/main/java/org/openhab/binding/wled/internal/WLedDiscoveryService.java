@@ -15,6 +15,9 @@ package org.openhab.binding.wled.internal;
 
 import static org.openhab.binding.wled.internal.WLedBindingConstants.*;
 
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.util.Collections;
 import java.util.Set;
 
 import javax.jmdns.ServiceInfo;
@@ -24,6 +27,7 @@ import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.core.config.discovery.DiscoveryResult;
 import org.openhab.core.config.discovery.DiscoveryResultBuilder;
 import org.openhab.core.config.discovery.mdns.MDNSDiscoveryParticipant;
+import org.openhab.core.thing.Thing;
 import org.openhab.core.thing.ThingTypeUID;
 import org.openhab.core.thing.ThingUID;
 import org.osgi.service.component.annotations.Component;
@@ -40,23 +44,43 @@ import org.slf4j.LoggerFactory;
 public class WLedDiscoveryService implements MDNSDiscoveryParticipant {
     private final Logger logger = LoggerFactory.getLogger(WLedDiscoveryService.class);
 
+    /**
+     * An IPv4 address is used when the WLED has one, as that is what the WLED web page and app show. An IPv6 address
+     * has to be in brackets to be used in a URL.
+     */
     @Override
     public @Nullable DiscoveryResult createResult(ServiceInfo service) {
-        String name = service.getName().toLowerCase();
-        if (!name.equals("wled")) {
-            return null;
-        }
-        String address[] = service.getURLs();
-        if ((address == null) || address.length < 1) {
+        String host;
+        Inet4Address[] ipv4Addresses = service.getInet4Addresses();
+        Inet6Address[] ipv6Addresses = service.getInet6Addresses();
+        if (ipv4Addresses.length > 0) {
+            host = ipv4Addresses[0].getHostAddress();
+        } else if (ipv6Addresses.length > 0) {
+            host = "[" + ipv6Addresses[0].getHostAddress() + "]";
+        } else {
             logger.debug("WLED discovered with empty IP address-{}", service);
             return null;
         }
-        logger.info("WLED discovered at {}", address[0]);
-        ThingTypeUID thingtypeuid = new ThingTypeUID("wled", "wled");
-        ThingUID thingUID = new ThingUID(thingtypeuid,
-                address[0].substring(7, address[0].length() - 3).replace(".", "-"));
-        return DiscoveryResultBuilder.create(thingUID).withProperty(CONFIG_ADDRESS, address[0])
-                .withLabel("WLED @" + address[0]).build();
+        String url = "http://" + host + ":" + service.getPort();
+        logger.debug("WLED {} discovered at {}", service.getName(), url);
+        return createResult(url, service.getPropertyString("mac"), service.getName());
+    }
+
+    /**
+     * The Thing UID is made from the MAC address when it is known, so a WLED keeps the same Thing when its IP changes
+     * and is found only once by both mDNS and the network scan.
+     */
+    static DiscoveryResult createResult(String url, @Nullable String mac, String name) {
+        String label = "WLED " + name + " @" + url;
+        if (mac == null || mac.isEmpty()) {
+            ThingUID thingUID = new ThingUID(THING_TYPE_WLED, url.replaceFirst("^http://", "").replaceFirst(":80$", "")
+                    .replaceAll("[\\[\\]]", "").replaceAll("[^A-Za-z0-9_-]", "-"));
+            return DiscoveryResultBuilder.create(thingUID).withProperty(CONFIG_ADDRESS, url).withLabel(label).build();
+        }
+        String macAddress = mac.toLowerCase().replaceAll("[^0-9a-f]", "");
+        return DiscoveryResultBuilder.create(new ThingUID(THING_TYPE_WLED, macAddress))
+                .withProperty(CONFIG_ADDRESS, url).withProperty(Thing.PROPERTY_MAC_ADDRESS, macAddress)
+                .withRepresentationProperty(Thing.PROPERTY_MAC_ADDRESS).withLabel(label).build();
     }
 
     @Override
@@ -66,11 +90,15 @@ public class WLedDiscoveryService implements MDNSDiscoveryParticipant {
 
     @Override
     public Set<ThingTypeUID> getSupportedThingTypeUIDs() {
-        return SUPPORTED_THING_TYPES;
+        return Collections.singleton(THING_TYPE_WLED);
     }
 
+    /**
+     * Browsing _wled._tcp finds a WLED whatever it has been named. Firmware that only advertises _http._tcp is left to
+     * the network scan, as browsing both would find every other WLED twice, once by its MAC and once by its address.
+     */
     @Override
     public String getServiceType() {
-        return "_http._tcp.local.";
+        return "_wled._tcp.local.";
     }
 }
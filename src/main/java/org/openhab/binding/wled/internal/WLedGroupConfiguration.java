@@ -0,0 +1,26 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link WLedGroupConfiguration} class contains fields mapping the group bridge configuration parameters.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedGroupConfiguration {
+    public int maxConcurrent = 10;
+    public int memberTimeout = 5000;
+}
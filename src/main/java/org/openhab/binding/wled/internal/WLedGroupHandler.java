@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.core.thing.Bridge;
+import org.openhab.core.thing.ChannelUID;
+import org.openhab.core.thing.Thing;
+import org.openhab.core.thing.ThingStatus;
+import org.openhab.core.thing.binding.BaseBridgeHandler;
+import org.openhab.core.thing.binding.ThingHandler;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.RefreshType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link WLedGroupHandler} is a bridge that has the same channels as a single WLED, and passes each command on to
+ * every WLED that uses it as their bridge. The commands are handed to the members at the same time, up to the
+ * maxConcurrent limit, so the last WLED changes at about the same time as the first.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedGroupHandler extends BaseBridgeHandler {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final ScheduledExecutorService bindingScheduler;
+    private WLedGroupConfiguration config = new WLedGroupConfiguration();
+    // kept in memory only, as a Thing property would cause a ThingUpdatedEvent and a storage write per command
+    private volatile String lastCommand = "";
+    private volatile List<String> lastCommandMembers = Collections.emptyList();
+
+    public WLedGroupHandler(Bridge bridge, ScheduledExecutorService bindingScheduler) {
+        super(bridge);
+        this.bindingScheduler = bindingScheduler;
+    }
+
+    @Override
+    public void initialize() {
+        config = getConfigAs(WLedGroupConfiguration.class);
+        updateStatus(ThingStatus.ONLINE);
+    }
+
+    @Override
+    public void handleCommand(ChannelUID channelUID, Command command) {
+        if (command instanceof RefreshType) {
+            return;
+        }
+        List<WLedHandler> members = getMembers();
+        if (members.isEmpty()) {
+            logger.debug("WLED group {} has no members to send {} to", getThing().getUID(), command);
+            return;
+        }
+        new FanOut(channelUID.getId(), command, members).start();
+    }
+
+    /**
+     * @return the handlers of every WLED that uses this group as its bridge.
+     */
+    public List<WLedHandler> getMembers() {
+        List<WLedHandler> members = new ArrayList<>();
+        for (Thing thing : getThing().getThings()) {
+            ThingHandler handler = thing.getHandler();
+            if (handler instanceof WLedHandler) {
+                members.add((WLedHandler) handler);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * @return how many WLEDs replied to the last command and how long it took, or an empty String before the first
+     *         command.
+     */
+    public String getLastCommand() {
+        return lastCommand;
+    }
+
+    /**
+     * @return how long each WLED took to reply to the last command, in the order they finished.
+     */
+    public List<String> getLastCommandMembers() {
+        return lastCommandMembers;
+    }
+
+    /**
+     * Sends one command to every member, starting the next member as soon as one finishes or times out.
+     */
+    private class FanOut {
+        private final String channelId;
+        private final Command command;
+        private final Deque<WLedHandler> waiting;
+        private final int total;
+        private final long startTime = System.nanoTime();
+        private final List<String> results = new ArrayList<>();
+        private int finished = 0;
+        private int failed = 0;
+
+        private FanOut(String channelId, Command command, List<WLedHandler> members) {
+            this.channelId = channelId;
+            this.command = command;
+            this.waiting = new ArrayDeque<>(members);
+            this.total = members.size();
+        }
+
+        private void start() {
+            int limit = Math.max(1, config.maxConcurrent);
+            for (int index = 0; index < limit; index++) {
+                sendNext();
+            }
+        }
+
+        private void sendNext() {
+            WLedHandler member;
+            synchronized (this) {
+                member = waiting.poll();
+            }
+            if (member == null) {
+                return;
+            }
+            long memberStart = System.nanoTime();
+            AtomicBoolean done = new AtomicBoolean();
+            ScheduledFuture<?> timeout = bindingScheduler.schedule(() -> {
+                if (done.compareAndSet(false, true)) {
+                    finish(member, memberStart, false);
+                }
+            }, config.memberTimeout, TimeUnit.MILLISECONDS);
+            try {
+                member.handleCommand(new ChannelUID(member.getThing().getUID(), channelId), command, success -> {
+                    if (done.compareAndSet(false, true)) {
+                        timeout.cancel(false);
+                        finish(member, memberStart, success);
+                    }
+                });
+            } catch (RuntimeException e) {
+                logger.debug("WLED {} could not handle the group command:{}", member.getThing().getUID(),
+                        e.getMessage());
+            }
+        }
+
+        private void finish(WLedHandler member, long memberStart, boolean success) {
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - memberStart);
+            boolean allFinished;
+            synchronized (this) {
+                results.add(member.getThing().getUID().getId() + (success ? " OK " : " FAILED ") + latency + " ms");
+                if (!success) {
+                    failed++;
+                }
+                allFinished = ++finished == total;
+            }
+            logger.trace("WLED {} finished the group command in {} ms, success={}", member.getThing().getUID(),
+                    latency, success);
+            if (allFinished) {
+                report();
+            } else {
+                sendNext();
+            }
+        }
+
+        private void report() {
+            long totalTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            String summary = String.format("%d of %d WLEDs replied in %d ms", total - failed, total, totalTime);
+            List<String> members;
+            synchronized (this) {
+                members = Collections.unmodifiableList(new ArrayList<>(results));
+            }
+            logger.debug("WLED group {} sent {} to {}: {}", getThing().getUID(), command, channelId, summary);
+            logger.trace("WLED group {} members: {}", getThing().getUID(), String.join(", ", members));
+            lastCommandMembers = members;
+            lastCommand = summary;
+        }
+    }
+}
@@ -14,37 +14,60 @@ package org.openhab.binding.wled.internal;
 
 import static org.openhab.binding.wled.internal.WLedBindingConstants.*;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.StringContentProvider;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.openhab.core.common.ThreadPoolManager;
 import org.openhab.core.library.types.HSBType;
 import org.openhab.core.library.types.IncreaseDecreaseType;
 import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.library.types.PercentType;
 import org.openhab.core.library.types.StringType;
+import org.openhab.core.thing.Channel;
 import org.openhab.core.thing.ChannelUID;
 import org.openhab.core.thing.Thing;
 import org.openhab.core.thing.ThingStatus;
 import org.openhab.core.thing.ThingStatusDetail;
+import org.openhab.core.thing.ThingStatusInfo;
 import org.openhab.core.thing.binding.BaseThingHandler;
 import org.openhab.core.thing.binding.ThingHandlerService;
+import org.openhab.core.thing.binding.builder.ChannelBuilder;
+import org.openhab.core.thing.binding.builder.ThingBuilder;
+import org.openhab.core.thing.type.ChannelTypeUID;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.RefreshType;
 import org.openhab.core.types.StateOption;
@@ -60,392 +83,1501 @@ import org.slf4j.LoggerFactory;
 
 @NonNullByDefault
 public class WLedHandler extends BaseThingHandler {
+    private static final int MAX_QUEUED_REQUESTS = 20;
+    private static final long FAST_POLL_MS = 1000;
+    private static final long MAX_OFFLINE_POLL_MS = 60000;
+    private static final long PREVIEW_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(5);
+    private static final String PREVIEW_URL = "/json/live";
+    private static final long SNAPSHOT_SAVE_NS = TimeUnit.MINUTES.toNanos(5);
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final HttpClient httpClient;
+    private final HttpClient bulkHttpClient;
+    private final WebSocketClient webSocketClient;
     private final WledDynamicStateDescriptionProvider stateDescriptionProvider;
+    private final WLedWebSocket webSocket = new WLedWebSocket(this);
+    private @Nullable Future<Session> webSocketFuture = null;
+    private final Deque<QueuedRequest> requestQueue = new ArrayDeque<>();
+    private final Deque<QueuedRequest> commandQueue = new ArrayDeque<>();
+    private final Deque<QueuedRequest> replayQueue = new ArrayDeque<>();
+    private WLedCircuitBreaker circuitBreaker = new WLedCircuitBreaker(0);
+    private boolean requestInFlight = false;
+    private boolean commandInFlight = false;
+    private boolean pollPending = false;
+    private @Nullable Request requestSent = null;
+    private final List<SendListener> sendListeners = new ArrayList<>();
+    private final WLedMetrics metrics = new WLedMetrics();
+    private final Map<String, String> pendingParameters = new LinkedHashMap<>();
+    private final Map<Integer, Map<String, String>> pendingSegments = new TreeMap<>();
+    private int pendingCommands = 0;
+    private @Nullable ScheduledFuture<?> flushFuture = null;
+    private final ScheduledExecutorService bindingScheduler;
+    // DNS lookups and file writes can block, so they are kept off the pools that poll and stream frames
+    private final ExecutorService ioExecutor = ThreadPoolManager.getPool(BINDING_ID + "-io");
+    private final ScheduledExecutorService realtimeScheduler = ThreadPoolManager
+            .getScheduledPool(BINDING_ID + "-realtime");
+    private final AtomicBoolean notifierLookup = new AtomicBoolean();
+    private final Object pollLock = new Object();
     private @Nullable ScheduledFuture<?> pollingFuture = null;
-    private ScheduledExecutorService threadPool = Executors.newScheduledThreadPool(1);
-    private BigDecimal masterBrightness = new BigDecimal(0);
-    private HSBType primaryColor = new HSBType();
-    private BigDecimal primaryWhite = new BigDecimal(0);
-    private HSBType secondaryColor = new HSBType();
-    private BigDecimal secondaryWhite = new BigDecimal(0);
-    private boolean hasWhite = false;
+    private volatile boolean polling = false;
+    private long pollDelay = FAST_POLL_MS;
+    private @Nullable ScheduledFuture<?> previewFuture = null;
+    private WLedPreview preview = new WLedPreview(16);
+    private volatile long previewRequested = 0;
+    private final WLedCommandEncoder encoder = new WLedCommandEncoder();
+    private volatile int masterBrightness = 0;
+    private volatile HSBType primaryColor = new HSBType();
+    private volatile HSBType secondaryColor = new HSBType();
+    private volatile boolean hasWhite = false;
+    private final WLedOptionsCache optionsCache;
+    private final WLedNotifierListener notifierListener;
+    private boolean notifierRegistered = false;
+    private volatile boolean receivingNotifications = false;
+    private final WLedWarmStart warmStart;
+    private volatile boolean warmingUp = false;
+    private boolean snapshotChanged = false;
+    private long snapshotSaved = 0;
+    private volatile String firmware = "";
+    private int ledCount = 0;
+    private @Nullable WLedRealtimeSender realtimeSender = null;
+    private List<StateOption> fxOptions = new ArrayList<>();
+    private List<StateOption> palleteOptions = new ArrayList<>();
+    private WLedColourEngine colourEngine = new WLedColourEngine(0);
+    private final Object stateLock = new Object(); // held from parsing a reply until lastState holds what was published
+    private final WLedState state = new WLedState();
+    private final WLedState lastState = new WLedState();
+    private final WLedState snapshot = new WLedState();
+    private boolean publishAll = true;
+    private boolean stateChanged = false;
     private WLedConfiguration config;
+    // starts as the jsonApi config, and is turned off if the firmware turns out to be too old for the JSON API
+    private volatile boolean jsonApi = true;
 
-    public WLedHandler(Thing thing, HttpClient httpClient,
+    public WLedHandler(Thing thing, HttpClient httpClient, HttpClient bulkHttpClient, WebSocketClient webSocketClient,
+            ScheduledExecutorService bindingScheduler, WLedOptionsCache optionsCache,
+            WLedNotifierListener notifierListener, WLedWarmStart warmStart,
             WledDynamicStateDescriptionProvider stateDescriptionProvider) {
         super(thing);
+        this.bindingScheduler = bindingScheduler;
+        this.optionsCache = optionsCache;
+        this.notifierListener = notifierListener;
+        this.warmStart = warmStart;
         this.httpClient = httpClient;
+        this.bulkHttpClient = bulkHttpClient;
+        this.webSocketClient = webSocketClient;
         this.stateDescriptionProvider = stateDescriptionProvider;
         config = getConfigAs(WLedConfiguration.class);
     }
 
+    /**
+     * Queues a GET request to the WLED. Requests are sent one at a time without blocking the caller, so a slow or
+     * unreachable WLED can not hold up the framework threads.
+     */
     void sendGetRequest(String url) {
+        queueRequest(new QueuedRequest(url, null, false));
+    }
+
+    /**
+     * Queues a POST of JSON to the WLED, see {@link #sendGetRequest}.
+     */
+    void sendPostRequest(String url, String json) {
+        queueRequest(new QueuedRequest(url, json, false));
+    }
+
+    /**
+     * Builds a POST of the JSON to /json/state that is not sent until the caller is ready, which lets a timeline
+     * encode every request before it starts. These skip the request queue and use their own connection, so they go
+     * out at the moment they are sent, even while a poll is waiting for its reply.
+     */
+    Request createStateRequest(String json) {
+        Request request = bulkHttpClient.newRequest(config.address + "/json/state");
+        request.method(HttpMethod.POST);
+        request.timeout(3, TimeUnit.SECONDS);
+        request.content(new StringContentProvider(json), "application/json");
+        return request;
+    }
+
+    /**
+     * Polls the state, unless the circuit breaker is open and it is not yet time to probe the WLED again.
+     */
+    private void sendPoll() {
+        if (!circuitBreaker.allowRequest()) {
+            logger.trace("Skipping the poll as the WLED is not reachable");
+            return;
+        }
+        queueRequest(new QueuedRequest(jsonApi ? "/json/state" : "/win", null, true));
+    }
+
+    /**
+     * Commands go in their own queue that is always sent before any polls, so a user's command never waits behind a
+     * slow poll. Every command replies with the new state, so a poll is skipped while a command is waiting to be sent
+     * or for its reply, and only one poll is ever queued or in flight, so any REFRESH or poll that arrives while one
+     * is pending shares its reply.
+     */
+    private void queueRequest(QueuedRequest queuedRequest) {
+        synchronized (requestQueue) {
+            if (!polling) {
+                logger.debug("Not sending as the handler is disposed:{}", queuedRequest.url);
+                for (SendListener sendListener : sendListeners) {
+                    sendListener.failed = true;
+                }
+                return;
+            }
+            if (!queuedRequest.poll && circuitBreaker.isOpen()) {
+                // fail fast instead of waiting for the timeout of a WLED that is known to be unreachable
+                holdOrDrop(queuedRequest);
+                for (SendListener sendListener : sendListeners) {
+                    sendListener.failed = true;
+                }
+                return;
+            }
+            if (queuedRequest.poll) {
+                if (pollPending || commandInFlight || !commandQueue.isEmpty()) {
+                    logger.trace("Skipping the poll as a pending reply will hold the state");
+                    return;
+                }
+                pollPending = true;
+            }
+            Deque<QueuedRequest> queue = queuedRequest.command ? commandQueue : requestQueue;
+            if (queue.size() >= MAX_QUEUED_REQUESTS) {
+                QueuedRequest dropped = queue.poll();
+                if (dropped != null) {
+                    logger.debug("WLED request queue is full, dropping:{}", dropped.url);
+                    if (dropped.poll) {
+                        pollPending = false;
+                    }
+                }
+            }
+            queue.add(queuedRequest);
+            if (requestInFlight) {
+                return;
+            }
+            requestInFlight = true;
+        }
+        sendNextRequest();
+    }
+
+    /**
+     * @return how many requests are waiting for the one in flight to finish.
+     */
+    int getQueuedRequests() {
+        synchronized (requestQueue) {
+            return commandQueue.size() + requestQueue.size();
+        }
+    }
+
+    /**
+     * Must be called while holding the requestQueue lock.
+     */
+    private void holdOrDrop(QueuedRequest queuedRequest) {
+        if (queuedRequest.command && WLedConfiguration.REPLAY.equals(config.offlineCommands)) {
+            if (replayQueue.size() >= MAX_QUEUED_REQUESTS) {
+                replayQueue.poll();
+            }
+            replayQueue.add(queuedRequest);
+            logger.debug("WLED is not reachable, holding the command to replay later:{}", queuedRequest.url);
+        } else {
+            logger.debug("WLED is not reachable, dropping:{}", queuedRequest.url);
+        }
+    }
+
+    private void sendNextRequest() {
+        QueuedRequest queuedRequest;
+        synchronized (requestQueue) {
+            queuedRequest = commandQueue.poll();
+            if (queuedRequest == null) {
+                queuedRequest = requestQueue.poll();
+            }
+            if (queuedRequest == null) {
+                requestInFlight = false;
+            }
+            commandInFlight = queuedRequest != null && queuedRequest.command;
+        }
+        if (queuedRequest == null) {
+            notifySendListeners();
+            return;
+        }
+        String url = queuedRequest.url;
+        String content = queuedRequest.content;
+        boolean poll = queuedRequest.poll;
         Request request = httpClient.newRequest(config.address + url);
         request.timeout(3, TimeUnit.SECONDS);
-        request.method(HttpMethod.GET);
         request.header(HttpHeader.ACCEPT_ENCODING, "gzip");
+        if (content == null) {
+            request.method(HttpMethod.GET);
+            logger.debug("Sending WLED GET:{}", url);
+        } else {
+            request.method(HttpMethod.POST);
+            request.content(new StringContentProvider(content), "application/json");
+            logger.debug("Sending WLED POST:{} {}", url, content);
+        }
+        synchronized (requestQueue) {
+            requestSent = request;
+        }
+        long startNanos = System.nanoTime();
+        request.send(new BufferingResponseListener() {
+            @Override
+            public void onComplete(@Nullable Result result) {
+                try {
+                    synchronized (requestQueue) {
+                        if (requestSent == request) {
+                            requestSent = null;
+                        }
+                    }
+                    if (!polling) {
+                        return; // the handler was disposed while this request was in flight
+                    }
+                    if (result != null) {
+                        if (result.isFailed()) {
+                            metrics.requestFailed(result.getFailure());
+                        } else {
+                            metrics.requestCompleted(startNanos, result.getResponse().getStatus(),
+                                    getContent().length);
+                        }
+                    }
+                    processResult(result, getContentAsString(), url);
+                } finally {
+                    if (poll) {
+                        synchronized (requestQueue) {
+                            pollPending = false;
+                        }
+                    }
+                    sendNextRequest();
+                }
+            }
+        });
+    }
+
+    /**
+     * Collects the parameters of commands that arrive within the coalesceTime of each other, so a burst of slider or
+     * colour wheel changes turns into a single request that only holds the latest value of each parameter.
+     */
+    void sendCommand(String url) {
+        pollSoon();
+        if (url.contains("~")) {
+            // relative changes like A=~15 can not be merged without losing steps
+            flushCommands();
+            sendGetRequest(url);
+            return;
+        }
+        synchronized (pendingParameters) {
+            for (String parameter : url.substring("/win&".length()).split("&")) {
+                int equalsIndex = parameter.indexOf('=');
+                String key = equalsIndex == -1 ? parameter : parameter.substring(0, equalsIndex);
+                pendingParameters.remove(key);
+                pendingParameters.put(key, parameter);
+            }
+            if (scheduleFlush()) {
+                return;
+            }
+        }
+        flushCommands();
+    }
+
+    /**
+     * Collects the commands for each segment, so changes to several segments can be sent as one seg array.
+     */
+    private void sendSegmentCommand(int segment, String parameter) {
+        if (!jsonApi) {
+            logger.warn("Segments can only be controlled over the JSON API, which is turned off or not on this WLED.");
+            return;
+        }
+        pollSoon();
+        synchronized (pendingParameters) {
+            Map<String, String> parameters = pendingSegments.computeIfAbsent(segment, k -> new LinkedHashMap<>());
+            int equalsIndex = parameter.indexOf('=');
+            String key = equalsIndex == -1 ? parameter : parameter.substring(0, equalsIndex);
+            parameters.remove(key);
+            parameters.put(key, parameter);
+            if (scheduleFlush()) {
+                return;
+            }
+        }
+        flushCommands();
+    }
+
+    /**
+     * Must be called while holding the pendingParameters lock.
+     *
+     * @return true if the commands will be flushed once the coalesceTime is up.
+     */
+    private boolean scheduleFlush() {
+        pendingCommands++;
+        if (config.coalesceTime <= 0) {
+            return false;
+        }
+        if (flushFuture == null) {
+            flushFuture = bindingScheduler.schedule(this::flushCommands, config.coalesceTime, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
 
-        logger.debug("Sending WLED GET:{}", url);
-        String errorReason = "";
+    private void flushCommands() {
         try {
-            ContentResponse contentResponse = request.send();
-            if (contentResponse.getStatus() == 200) {
-                processState(contentResponse.getContentAsString());
+            sendPendingCommands();
+        } finally {
+            notifySendListeners();
+        }
+    }
+
+    private void sendPendingCommands() {
+        List<String> parameters;
+        Map<Integer, List<String>> segments = new TreeMap<>();
+        int commands;
+        synchronized (pendingParameters) {
+            flushFuture = null;
+            if (pendingParameters.isEmpty() && pendingSegments.isEmpty()) {
                 return;
-            } else {
-                errorReason = String.format("WLED request failed with %d: %s", contentResponse.getStatus(),
-                        contentResponse.getReason());
             }
-        } catch (TimeoutException e) {
-            errorReason = "TimeoutException: WLED was not reachable on your network";
-        } catch (ExecutionException e) {
-            errorReason = String.format("ExecutionException: %s", e.getMessage());
-        } catch (InterruptedException e) {
-            errorReason = String.format("InterruptedException: %s", e.getMessage());
+            parameters = new ArrayList<>(pendingParameters.values());
+            for (Map.Entry<Integer, Map<String, String>> segment : pendingSegments.entrySet()) {
+                segments.put(segment.getKey(), new ArrayList<>(segment.getValue().values()));
+            }
+            commands = pendingCommands;
+            pendingParameters.clear();
+            pendingSegments.clear();
+            pendingCommands = 0;
+        }
+        if (commands > 1) {
+            logger.debug("Merged {} commands into one WLED request, {} commands merged since startup", commands,
+                    metrics.commandsMerged(commands));
+        }
+        if (!segments.isEmpty()) {
+            String json;
+            synchronized (stateLock) {
+                json = WLedJsonCommand.encodeSegments(segments, lastState);
+            }
+            if (json != null) {
+                sendPostRequest("/json/state", json);
+            }
+        }
+        if (parameters.isEmpty()) {
+            return;
+        }
+        if (!jsonApi) {
+            sendGetRequest("/win&" + String.join("&", parameters));
+            return;
+        }
+        List<String> unsupported = new ArrayList<>();
+        String json;
+        synchronized (stateLock) {
+            json = WLedJsonCommand.encode(parameters, lastState, unsupported);
+        }
+        if (json != null) {
+            sendPostRequest("/json/state", json);
+        }
+        if (!unsupported.isEmpty()) {
+            sendGetRequest("/win&" + String.join("&", unsupported));
         }
-        updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, errorReason);
     }
 
-    private HSBType parseToHSBType(String message, String element) {
-        int startIndex = message.indexOf(element);
-        if (startIndex == -1) {
-            return new HSBType();
+    private void replayCommands() {
+        List<QueuedRequest> commands;
+        synchronized (requestQueue) {
+            commands = new ArrayList<>(replayQueue);
+            replayQueue.clear();
+        }
+        if (!commands.isEmpty()) {
+            logger.debug("WLED is reachable again, replaying {} commands", commands.size());
+        }
+        for (QueuedRequest command : commands) {
+            queueRequest(command);
+        }
+    }
+
+    /**
+     * Handles the command and then calls the listener once every command that has been handled so far has been sent
+     * and the WLED has replied, which lets a group know when each of its members has finished. The listener is
+     * registered before the command is handled, so it also hears about a request that fails or is dropped straight
+     * away.
+     *
+     * @param listener is given false if any request failed while waiting.
+     */
+    void handleCommand(ChannelUID channelUID, Command command, Consumer<Boolean> listener) {
+        SendListener sendListener = new SendListener(listener);
+        synchronized (requestQueue) {
+            sendListener.failed = !polling;
+            sendListeners.add(sendListener);
         }
-        int endIndex = message.indexOf("<", startIndex + element.length());
-        int r = 0, g = 0, b = 0;
         try {
-            r = Integer.parseInt(message.substring(startIndex + element.length(), endIndex));
-            // look for second element
-            startIndex = message.indexOf(element, endIndex);
-            if (startIndex == -1) {
-                return new HSBType();
-            }
-            endIndex = message.indexOf("<", startIndex + element.length());
-            g = Integer.parseInt(message.substring(startIndex + element.length(), endIndex));
-            // look for third element called <cl>
-            startIndex = message.indexOf(element, endIndex);
-            if (startIndex == -1) {
-                return new HSBType();
-            }
-            endIndex = message.indexOf("<", startIndex + element.length());
-            b = Integer.parseInt(message.substring(startIndex + element.length(), endIndex));
-        } catch (NumberFormatException e) {
-            logger.warn("NumberFormatException when parsing the WLED color fields.");
-        }
-        return HSBType.fromRGB(r, g, b);
-    }
-
-    private void parseColours(String message) {
-        primaryColor = parseToHSBType(message, "<cl>");
-        updateState(CHANNEL_PRIMARY_COLOR, primaryColor);
-        secondaryColor = parseToHSBType(message, "<cs>");
-        updateState(CHANNEL_SECONDARY_COLOR, secondaryColor);
+            handleCommand(channelUID, command);
+        } finally {
+            synchronized (requestQueue) {
+                sendListener.armed = true;
+            }
+            notifySendListeners();
+        }
+    }
+
+    private void notifySendListeners() {
+        synchronized (pendingParameters) {
+            if (flushFuture != null || !pendingParameters.isEmpty() || !pendingSegments.isEmpty()) {
+                return;
+            }
+        }
+        List<SendListener> listeners = new ArrayList<>();
+        synchronized (requestQueue) {
+            if (requestInFlight || sendListeners.isEmpty()) {
+                return;
+            }
+            for (Iterator<SendListener> iterator = sendListeners.iterator(); iterator.hasNext();) {
+                SendListener sendListener = iterator.next();
+                if (sendListener.armed) {
+                    listeners.add(sendListener);
+                    iterator.remove();
+                }
+            }
+        }
+        for (SendListener sendListener : listeners) {
+            sendListener.listener.accept(!sendListener.failed);
+        }
+    }
+
+    private void processResult(@Nullable Result result, @Nullable String content, String url) {
+        if (result == null) {
+            return;
+        }
+        if (PREVIEW_URL.equals(url)) {
+            previewRequested = 0;
+        }
+        if (warmingUp) {
+            warmingUp = false;
+            warmStart.finished(this);
+        }
+        String errorReason;
+        if (result.isFailed()) {
+            Throwable failure = result.getFailure();
+            if (failure instanceof TimeoutException) {
+                errorReason = "TimeoutException: WLED was not reachable on your network";
+            } else {
+                errorReason = String.format("%s: %s", failure.getClass().getSimpleName(), failure.getMessage());
+            }
+        } else if (result.getResponse().getStatus() == 200 && content != null) {
+            if (circuitBreaker.recordSuccess()) {
+                replayCommands();
+            }
+            if ("/json".equals(url)) {
+                scrapeChannelOptions(content);
+            } else if (PREVIEW_URL.equals(url)) {
+                processPreview(content);
+            } else if ("/json/info".equals(url)) {
+                processInfo(content);
+            } else if (url.startsWith("/json")) {
+                processJsonState(content);
+            } else {
+                processState(content);
+            }
+            return;
+        } else if (result.getResponse().getStatus() == 404
+                && (url.startsWith("/json/state") || "/json/info".equals(url))) {
+            // firmware before 0.8.4 has no JSON API at all
+            useWinApi("it has no " + url);
+            return;
+        } else {
+            errorReason = String.format("WLED request failed with %d: %s", result.getResponse().getStatus(),
+                    result.getResponse().getReason());
+        }
+        synchronized (requestQueue) {
+            for (SendListener sendListener : sendListeners) {
+                sendListener.failed = true;
+            }
+            if (circuitBreaker.recordFailure()) {
+                logger.debug("WLED failed {} requests in a row, failing fast until it replies again",
+                        config.failureThreshold);
+                QueuedRequest queuedRequest;
+                while ((queuedRequest = commandQueue.poll()) != null) {
+                    holdOrDrop(queuedRequest);
+                }
+                while ((queuedRequest = requestQueue.poll()) != null) {
+                    holdOrDrop(queuedRequest);
+                }
+                pollPending = false;
+            }
+        }
+        if (getThing().getStatus() != ThingStatus.REMOVING && getThing().getStatus() != ThingStatus.REMOVED) {
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, errorReason);
+        }
+    }
+
+    /**
+     * Only fetches the FX and palette names when this firmware has not been seen before.
+     */
+    private void processInfo(String message) {
         try {
-            primaryWhite = new BigDecimal(getValue(message, "<wv>", "<"));
-            if (primaryWhite.intValue() > -1) {
-                hasWhite = true;
-                updateState(CHANNEL_PRIMARY_WHITE,
-                        new PercentType(primaryWhite.divide(new BigDecimal(2.55), RoundingMode.HALF_UP)));
-                secondaryWhite = new BigDecimal(getValue(message, "<ws>", "<"));
-                updateState(CHANNEL_SECONDARY_WHITE,
-                        new PercentType(secondaryWhite.divide(new BigDecimal(2.55), RoundingMode.HALF_UP)));
+            WLedInfo info = WLedInfo.parse(message);
+            if (!info.hasJsonApi()) {
+                useWinApi("firmware " + info.version + " is older than 0.10");
+            }
+            firmware = info.getFirmware();
+            ledCount = info.ledCount;
+            if (!info.mac.isEmpty()) {
+                updateProperty(Thing.PROPERTY_MAC_ADDRESS, info.mac);
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            logger.debug("WLED sent info that could not be parsed:{}", e.getMessage());
+            firmware = "";
+        }
+        String infoFirmware = firmware;
+        if (infoFirmware.isEmpty()) {
+            sendGetRequest("/json");
+            return;
+        }
+        updateProperty(Thing.PROPERTY_FIRMWARE_VERSION, infoFirmware);
+        // the cache may read a file, so it is not read on the thread that delivered the reply
+        ioExecutor.execute(() -> {
+            WLedOptionsCache.Options options = optionsCache.get(infoFirmware);
+            if (options != null) {
+                logger.debug("Using the cached FX and palette names for firmware {}", infoFirmware);
+                setChannelOptions(options);
+            } else {
+                sendGetRequest("/json");
             }
-        } catch (NumberFormatException e) {
-            logger.warn("NumberFormatException when parsing the WLED colour and white fields.");
+        });
+    }
+
+    /**
+     * Falls back to the /win API for firmware that does not have the JSON API, even though the jsonApi config is on.
+     */
+    private void useWinApi(String reason) {
+        if (jsonApi) {
+            jsonApi = false;
+            logger.info("WLED {} is using the /win API, as {}", getThing().getUID(), reason);
+            pollSoon();
         }
     }
 
     private void scrapeChannelOptions(String message) {
+        WLedOptionsCache.Options options;
+        try {
+            options = WLedOptionsCache.parseOptions(message);
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("WLED sent FX and palette names that could not be parsed:{}", e.getMessage());
+            return;
+        }
+        String localFirmware = firmware;
+        if (!localFirmware.isEmpty()) {
+            ioExecutor.execute(() -> optionsCache.put(localFirmware, options));
+        }
+        setChannelOptions(options);
+    }
+
+    private void setChannelOptions(WLedOptionsCache.Options options) {
         List<StateOption> fxOptions = new ArrayList<>();
         List<StateOption> palleteOptions = new ArrayList<>();
         int counter = 0;
-        for (String value : (getValue(message, "\"effects\":[", "]").replace("\"", "")).split(",")) {
+        for (String value : options.effects) {
             fxOptions.add(new StateOption("" + counter++, value));
         }
-        stateDescriptionProvider.setStateOptions(new ChannelUID(getThing().getUID(), CHANNEL_FX), fxOptions);
         counter = 0;
-        for (String value : (getValue(message, "\"palettes\":[", "]").replace("\"", "")).split(",")) {
+        for (String value : options.palettes) {
             palleteOptions.add(new StateOption("" + counter++, value));
         }
-        stateDescriptionProvider.setStateOptions(new ChannelUID(getThing().getUID(), CHANNEL_PALETTES), palleteOptions);
+        this.fxOptions = fxOptions;
+        this.palleteOptions = palleteOptions;
+        updateChannelOptions();
+    }
+
+    private void updateChannelOptions() {
+        for (Channel channel : getThing().getChannels()) {
+            String channelId = channel.getUID().getIdWithoutGroup();
+            if (channelId.endsWith(CHANNEL_FX)) {
+                stateDescriptionProvider.setStateOptions(channel.getUID(), fxOptions);
+            } else if (channelId.endsWith(CHANNEL_PALETTES)) {
+                stateDescriptionProvider.setStateOptions(channel.getUID(), palleteOptions);
+            }
+        }
     }
 
     private void processState(String message) {
         logger.trace("WLED states are:{}", message);
         if (thing.getStatus() != ThingStatus.ONLINE) {
-            updateStatus(ThingStatus.ONLINE);
-            sendGetRequest("/json"); // fetch FX and Pallete names
+            goOnline();
+        }
+        synchronized (stateLock) {
+            long parseStart = System.nanoTime();
+            if (!state.parseXml(message)) {
+                logger.debug("WLED replied with a message that holds no state:{}", message);
+                return;
+            }
+            metrics.parsed(parseStart);
+            updateChannels();
         }
-        if (message.contains("\"effects\":[")) {// JSON API reply
-            scrapeChannelOptions(message);
+    }
+
+    /**
+     * Handles the JSON state that WLED replies with when using the JSON API, or pushes over the websocket each time its
+     * state changes.
+     */
+    void processJsonState(String message) {
+        logger.trace("WLED JSON states are:{}", message);
+        synchronized (stateLock) {
+            long parseStart = System.nanoTime();
+            state.copyFrom(lastState); // anything not in the message stays as it was
+            try {
+                if (!state.parseJson(message)) {
+                    return; // not a state message
+                }
+                metrics.parsed(parseStart);
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                logger.debug("WLED sent JSON that could not be parsed:{}", e.getMessage());
+                return;
+            }
+            if (thing.getStatus() != ThingStatus.ONLINE) {
+                goOnline();
+            }
+            updateChannels();
+        }
+    }
+
+    /**
+     * Handles a UDP sync notification that this WLED broadcast when its state changed, so the channels follow the
+     * WLED without sending it any requests. These are ignored until a poll has brought the Thing online, as the poll
+     * finds out if the WLED has white LEDs.
+     */
+    void processNotification(byte[] packet, int length) {
+        if (!polling || thing.getStatus() != ThingStatus.ONLINE) {
             return;
         }
-        if (message.contains("<ac>0</ac>")) {
-            updateState(CHANNEL_MASTER_CONTROLS, OnOffType.OFF);
-        } else {
-            masterBrightness = new BigDecimal(getValue(message, "<ac>", "<"));
-            updateState(CHANNEL_MASTER_CONTROLS,
-                    new PercentType(masterBrightness.divide(new BigDecimal(2.55), RoundingMode.HALF_UP)));
+        synchronized (stateLock) {
+            long parseStart = System.nanoTime();
+            state.copyFrom(lastState);
+            if (!state.parseNotifier(packet, length)) {
+                return;
+            }
+            metrics.parsed(parseStart);
+            if (!receivingNotifications) {
+                logger.debug("WLED {} sends sync notifications, polling will slow down", getThing().getUID());
+                receivingNotifications = true;
+            }
+            updateChannels();
         }
-        if (message.contains("<ix>0</ix>")) {
-            updateState(CHANNEL_INTENSITY, OnOffType.OFF);
-        } else {
-            BigDecimal bigTemp = new BigDecimal(getValue(message, "<ix>", "<")).divide(new BigDecimal(2.55),
-                    RoundingMode.HALF_UP);
-            updateState(CHANNEL_INTENSITY, new PercentType(bigTemp));
+    }
+
+    private void processPreview(String message) {
+        String colours = preview.update(message);
+        if (colours != null) {
+            updateState(CHANNEL_PREVIEW, new StringType(colours));
         }
-        if (message.contains("<cy>1</cy>")) {
-            updateState(CHANNEL_PRESET_CYCLE, OnOffType.ON);
-        } else {
-            updateState(CHANNEL_PRESET_CYCLE, OnOffType.OFF);
+    }
+
+    /**
+     * Fetches the live colours of the LEDs, but only while the preview channel is linked, and never while the last
+     * fetch is still waiting for its reply, so a slow WLED only ever has one preview request.
+     */
+    private void pollPreview() {
+        long requested = previewRequested;
+        if (requested != 0 && System.nanoTime() - requested < PREVIEW_TIMEOUT_NS) {
+            return;
         }
-        if (message.contains("<nl>1</nl>")) {
-            updateState(CHANNEL_SLEEP, OnOffType.ON);
-        } else {
-            updateState(CHANNEL_SLEEP, OnOffType.OFF);
+        if (thing.getStatus() != ThingStatus.ONLINE || !isLinked(CHANNEL_PREVIEW)) {
+            return;
         }
-        if (message.contains("<fx>")) {
-            updateState(CHANNEL_FX, new StringType(getValue(message, "<fx>", "<")));
+        previewRequested = System.nanoTime();
+        sendGetRequest(PREVIEW_URL);
+    }
+
+    private void goOnline() {
+        updateStatus(ThingStatus.ONLINE);
+        synchronized (stateLock) {
+            publishAll = true;
         }
-        if (message.contains("<sx>")) {
-            BigDecimal bigTemp = new BigDecimal(getValue(message, "<sx>", "<")).divide(new BigDecimal(2.55),
-                    RoundingMode.HALF_UP);
-            updateState(CHANNEL_SPEED, new PercentType(bigTemp));
+        sendGetRequest("/json/info"); // check the firmware before fetching FX and Pallete names
+    }
+
+    /**
+     * Only sends the channels whose raw value changed since the last time they were published, so polls that find
+     * nothing new do not flood the event bus. Must be called while holding stateLock.
+     */
+    private void updateChannels() {
+        if (state.masterBrightness != -1 && hasChanged(state.masterBrightness, lastState.masterBrightness)) {
+            masterBrightness = state.masterBrightness;
+            if (state.masterBrightness == 0) {
+                updateState(CHANNEL_MASTER_CONTROLS, OnOffType.OFF);
+            } else {
+                updateState(CHANNEL_MASTER_CONTROLS, toPercentType(state.masterBrightness));
+            }
         }
-        if (message.contains("<fp>")) {
-            updateState(CHANNEL_PALETTES, new StringType(getValue(message, "<fp>", "<")));
+        if (state.intensity != -1 && hasChanged(state.intensity, lastState.intensity)) {
+            if (state.intensity == 0) {
+                updateState(CHANNEL_INTENSITY, OnOffType.OFF);
+            } else {
+                updateState(CHANNEL_INTENSITY, toPercentType(state.intensity));
+            }
         }
-        parseColours(message);
+        if (state.presetCycle != -1 && hasChanged(state.presetCycle, lastState.presetCycle)) {
+            updateState(CHANNEL_PRESET_CYCLE, state.presetCycle == 1 ? OnOffType.ON : OnOffType.OFF);
+        }
+        if (state.sleep != -1 && hasChanged(state.sleep, lastState.sleep)) {
+            updateState(CHANNEL_SLEEP, state.sleep == 1 ? OnOffType.ON : OnOffType.OFF);
+        }
+        if (state.fx != -1 && hasChanged(state.fx, lastState.fx)) {
+            updateState(CHANNEL_FX, new StringType(Integer.toString(state.fx)));
+        }
+        if (state.speed != -1 && hasChanged(state.speed, lastState.speed)) {
+            updateState(CHANNEL_SPEED, toPercentType(state.speed));
+        }
+        if (state.palette != -1 && hasChanged(state.palette, lastState.palette)) {
+            updateState(CHANNEL_PALETTES, new StringType(Integer.toString(state.palette)));
+        }
+        if (hasChanged(rgbToInt(state.primary), rgbToInt(lastState.primary))) {
+            primaryColor = WLedColourEngine.toHsb(state.primary[0], state.primary[1], state.primary[2]);
+            updateState(CHANNEL_PRIMARY_COLOR, primaryColor);
+        }
+        if (hasChanged(rgbToInt(state.secondary), rgbToInt(lastState.secondary))) {
+            secondaryColor = WLedColourEngine.toHsb(state.secondary[0], state.secondary[1], state.secondary[2]);
+            updateState(CHANNEL_SECONDARY_COLOR, secondaryColor);
+        }
+        if (state.primaryWhite > -1) {
+            hasWhite = true;
+            if (hasChanged(state.primaryWhite, lastState.primaryWhite)) {
+                updateState(CHANNEL_PRIMARY_WHITE, toPercentType(state.primaryWhite));
+            }
+            if (state.secondaryWhite > -1 && hasChanged(state.secondaryWhite, lastState.secondaryWhite)) {
+                updateState(CHANNEL_SECONDARY_WHITE, toPercentType(state.secondaryWhite));
+            }
+        }
+        updateSegments();
+        publishAll = false;
+        lastState.copyFrom(state);
+        if (stateChanged) {
+            stateChanged = false;
+            snapshotChanged = true;
+            pollSoon();
+        }
+        logger.trace("WLED skipped {} updates of unchanged channels since startup", metrics.getSuppressedUpdates());
     }
 
-    void sendWhite() {
-        if (hasWhite) {
-            sendGetRequest("/win&TT=1000&FX=0&CY=0&CL=hFF000000" + "&A=" + masterBrightness);
-        } else {
-            sendGetRequest("/win&TT=1000&FX=0&CY=0&CL=hFFFFFF" + "&A=" + masterBrightness);
+    /**
+     * Segment channels are only created when the WLED has been split into more than one segment. Only the segments
+     * that changed get published.
+     */
+    private void updateSegments() {
+        boolean sameSegments = state.hasSameSegments(lastState);
+        if (!sameSegments) {
+            updateSegmentChannels();
+        }
+        if (state.segmentCount < 2) {
+            return;
+        }
+        for (int i = 0; i < state.segmentCount; i++) {
+            String prefix = CHANNEL_SEGMENT_PREFIX + state.segmentId[i] + "-";
+            int colour = state.segmentColour[i];
+            if (hasChanged(colour, sameSegments ? lastState.segmentColour[i] : -1)) {
+                updateState(prefix + CHANNEL_PRIMARY_COLOR,
+                        WLedColourEngine.toHsb(colour >> 16 & 0xFF, colour >> 8 & 0xFF, colour & 0xFF));
+            }
+            if (hasChanged(state.segmentFx[i], sameSegments ? lastState.segmentFx[i] : -2)) {
+                updateState(prefix + CHANNEL_FX, new StringType(Integer.toString(state.segmentFx[i])));
+            }
+            if (hasChanged(state.segmentPalette[i], sameSegments ? lastState.segmentPalette[i] : -2)) {
+                updateState(prefix + CHANNEL_PALETTES, new StringType(Integer.toString(state.segmentPalette[i])));
+            }
+            if (hasChanged(state.segmentSpeed[i], sameSegments ? lastState.segmentSpeed[i] : -2)) {
+                updateState(prefix + CHANNEL_SPEED, toPercentType(state.segmentSpeed[i]));
+            }
+            if (hasChanged(state.segmentIntensity[i], sameSegments ? lastState.segmentIntensity[i] : -2)) {
+                updateState(prefix + CHANNEL_INTENSITY, toPercentType(state.segmentIntensity[i]));
+            }
         }
     }
 
     /**
-     *
-     * @param hsb
-     * @return WLED needs the letter h followed by 2 digit HEX code for RRGGBB
+     * Adds a set of channels for each segment the WLED reports, and removes the channels of segments that are gone.
+     */
+    private void updateSegmentChannels() {
+        List<ChannelUID> wanted = new ArrayList<>();
+        if (state.segmentCount > 1) {
+            for (int i = 0; i < state.segmentCount; i++) {
+                for (String channelTypeId : SEGMENT_CHANNEL_TYPES.keySet()) {
+                    wanted.add(new ChannelUID(getThing().getUID(),
+                            CHANNEL_SEGMENT_PREFIX + state.segmentId[i] + "-" + channelTypeId));
+                }
+            }
+        }
+        List<ChannelUID> existing = new ArrayList<>();
+        for (Channel channel : getThing().getChannels()) {
+            if (channel.getUID().getId().startsWith(CHANNEL_SEGMENT_PREFIX)) {
+                existing.add(channel.getUID());
+            }
+        }
+        if (existing.equals(wanted)) {
+            return;
+        }
+        logger.debug("WLED now has {} segments, updating the segment channels", state.segmentCount);
+        ThingBuilder thingBuilder = editThing();
+        for (ChannelUID channelUID : existing) {
+            thingBuilder.withoutChannel(channelUID);
+        }
+        for (ChannelUID channelUID : wanted) {
+            String channelId = channelUID.getId();
+            String segment = channelId.substring(CHANNEL_SEGMENT_PREFIX.length(), channelId.indexOf('-'));
+            String channelTypeId = channelId.substring(channelId.indexOf('-') + 1);
+            String[] itemTypeAndLabel = SEGMENT_CHANNEL_TYPES.get(channelTypeId);
+            if (itemTypeAndLabel != null) {
+                thingBuilder.withChannel(ChannelBuilder.create(channelUID, itemTypeAndLabel[0])
+                        .withType(new ChannelTypeUID(BINDING_ID, channelTypeId))
+                        .withLabel("Segment " + segment + " " + itemTypeAndLabel[1]).build());
+            }
+        }
+        updateThing(thingBuilder.build());
+        updateChannelOptions();
+    }
+
+    private boolean hasChanged(int newValue, int oldValue) {
+        if (newValue != oldValue) {
+            stateChanged = true;
+            return true;
+        }
+        if (publishAll) {
+            return true;
+        }
+        metrics.updateSuppressed();
+        return false;
+    }
+
+    private static int rgbToInt(int[] rgb) {
+        return rgb[0] << 16 | rgb[1] << 8 | rgb[2];
+    }
+
+    /**
+     * @return the 0-255 value WLED uses scaled to 0-100, rounded to the nearest whole percent.
      */
-    private String createColorHex(HSBType hsb) {
-        String hex = Integer.toHexString(hsb.getRGB() & 0xffffff);
-        while (hex.length() < 6) {
-            hex = "0" + hex;
+    private static PercentType toPercentType(int value) {
+        return new PercentType((value * 100 + 127) / 255);
+    }
+
+    void sendWhite() {
+        String url;
+        synchronized (encoder) {
+            encoder.win().add("TT", 1000).add("FX", 0).add("CY", 0);
+            if (hasWhite) {
+                encoder.addColour("CL", 0xFF, 0);
+            } else {
+                encoder.addColour("CL", 0xFFFFFF);
+            }
+            url = encoder.add("A", masterBrightness).toUrl();
         }
-        return "h" + hex;
+        sendCommand(url);
     }
 
     @Override
     public void handleCommand(ChannelUID channelUID, Command command) {
         if (command instanceof RefreshType) {
+            synchronized (stateLock) {
+                publishAll = true;
+            }
             switch (channelUID.getId()) {
                 case CHANNEL_MASTER_CONTROLS:
-                    sendGetRequest("/win");
+                    sendPoll();
             }
             return;// no need to check for refresh below
         }
         logger.debug("command {} sent to {}", command, channelUID.getId());
-        switch (channelUID.getId()) {
+        if (channelUID.getId().startsWith(CHANNEL_SEGMENT_PREFIX)) {
+            handleSegmentCommand(channelUID.getId(), command);
+            return;
+        }
+        String url;
+        synchronized (encoder) {
+            url = encodeCommand(channelUID.getId(), command);
+        }
+        if (url != null) {
+            sendCommand(url);
+        }
+    }
+
+    /**
+     * Must be called while holding the encoder lock.
+     *
+     * @return the /win command to send, or null if the command does nothing on this channel.
+     */
+    private @Nullable String encodeCommand(String channelId, Command command) {
+        switch (channelId) {
             case CHANNEL_PRIMARY_WHITE:
-                if (command instanceof PercentType) {
-                    sendGetRequest("/win&W=" + new BigDecimal(command.toString()).multiply(new BigDecimal(2.55)));
-                }
-                break;
+                return encodeByte("W", command, getLastValue("W"));
             case CHANNEL_SECONDARY_WHITE:
-                if (command instanceof PercentType) {
-                    sendGetRequest("/win&W2=" + new BigDecimal(command.toString()).multiply(new BigDecimal(2.55)));
-                }
-                break;
+                return encodeByte("W2", command, getLastValue("W2"));
             case CHANNEL_MASTER_CONTROLS:
                 if (command instanceof OnOffType) {
                     if (OnOffType.OFF.equals(command)) {
-                        sendGetRequest("/win&TT=500&T=0");
-                    } else {
-                        sendGetRequest("/win&TT=2000&T=1");
+                        return encoder.win().add("TT", 500).add("T", 0).toUrl();
                     }
+                    return encoder.win().add("TT", 2000).add("T", 1).toUrl();
                 } else if (command instanceof IncreaseDecreaseType) {
                     if (IncreaseDecreaseType.INCREASE.equals(command)) {
-                        if (masterBrightness.intValue() < 240) {
-                            sendGetRequest("/win&TT=2000&A=~15"); // 255 divided by 15 = 17 levels
-                        } else {
-                            sendGetRequest("/win&TT=2000&A=255");
-                        }
-                    } else {
-                        if (masterBrightness.intValue() > 15) {
-                            sendGetRequest("/win&TT=2000&A=~-15");
-                        } else {
-                            sendGetRequest("/win&TT=2000&A=0");
+                        if (masterBrightness < 240) {
+                            return "/win&TT=2000&A=~15"; // 255 divided by 15 = 17 levels
                         }
+                        return encoder.win().add("TT", 2000).add("A", 255).toUrl();
                     }
+                    if (masterBrightness > 15) {
+                        return "/win&TT=2000&A=~-15";
+                    }
+                    return encoder.win().add("TT", 2000).add("A", 0).toUrl();
                 } else if (command instanceof HSBType) {
-                    if ((((HSBType) command).getBrightness()) == PercentType.ZERO) {
-                        sendGetRequest("/win&TT=500&T=0");
+                    HSBType hsb = (HSBType) command;
+                    if (PercentType.ZERO.equals(hsb.getBrightness())) {
+                        return encoder.win().add("TT", 500).add("T", 0).toUrl();
                     }
-                    masterBrightness = new BigDecimal((((HSBType) command).getBrightness()).toString())
-                            .multiply(new BigDecimal(2.55));
-                    primaryColor = new HSBType(command.toString());
-                    if (primaryColor.getSaturation().intValue() < config.saturationThreshold && hasWhite) {
-                        sendGetRequest("/win&TT=1000&FX=0&CY=0&CL=h000000&W=255" + "&A=" + masterBrightness);
-                    } else if (primaryColor.getSaturation().intValue() == 32 && primaryColor.getHue().intValue() == 36
-                            && hasWhite) {
-                        // Google sends this when it wants white
-                        sendGetRequest("/win&TT=1000&FX=0&CY=0&CL=h000000&W=255" + "&A=" + masterBrightness);
+                    masterBrightness = WLedCommandEncoder.toByte(hsb.getBrightness());
+                    primaryColor = hsb;
+                    encoder.win().add("TT", 1000).add("FX", 0).add("CY", 0);
+                    if (hasWhite && hsb.getSaturation().intValue() < config.saturationThreshold) {
+                        encoder.addColour("CL", 0xFF, 0);
                     } else {
-                        sendGetRequest(
-                                "/win&TT=1000&FX=0&CY=0&CL=" + createColorHex(primaryColor) + "&A=" + masterBrightness);
+                        addLightColour(WLedColourEngine.toRgb(hsb));
                     }
-                } else {// should only be PercentType left
-                    masterBrightness = new BigDecimal(command.toString()).multiply(new BigDecimal(2.55));
-                    sendGetRequest("/win&TT=2000&A=" + masterBrightness);
+                    return encoder.add("A", masterBrightness).toUrl();
+                } else if (command instanceof PercentType) {
+                    masterBrightness = WLedCommandEncoder.toByte(command);
+                    return encoder.win().add("TT", 2000).add("A", masterBrightness).toUrl();
                 }
-                return;
+                return null;
             case CHANNEL_PRIMARY_COLOR:
-                if (command instanceof OnOffType) {
-                    logger.info("OnOffType commands should use masterControls channel");
-                } else if (command instanceof HSBType) {
-                    primaryColor = new HSBType(command.toString());
-                    sendGetRequest("/win&CL=" + createColorHex(primaryColor));
-                } else if (command instanceof IncreaseDecreaseType) {
-                    logger.info("IncreaseDecrease commands should use masterControls channel");
-                } else {// Percentype
-                    primaryColor = new HSBType(primaryColor.getHue().toString() + ","
-                            + primaryColor.getSaturation().toString() + ",command");
-                    sendGetRequest("/win&CL=" + createColorHex(primaryColor));
+                if (command instanceof HSBType) {
+                    primaryColor = (HSBType) command;
+                } else if (command instanceof PercentType) {
+                    primaryColor = new HSBType(primaryColor.getHue(), primaryColor.getSaturation(),
+                            (PercentType) command);
+                } else {
+                    logger.info("OnOffType and IncreaseDecrease commands should use masterControls channel");
+                    return null;
                 }
-                return;
+                return encoder.win().addColour("CL", WLedColourEngine.toRgb(primaryColor)).toUrl();
             case CHANNEL_SECONDARY_COLOR:
-                if (command instanceof OnOffType) {
-                    logger.info("OnOffType commands should use masterControls channel");
-                } else if (command instanceof HSBType) {
-                    secondaryColor = new HSBType(command.toString());
-                    sendGetRequest("/win&C2=" + createColorHex(secondaryColor));
-                } else if (command instanceof IncreaseDecreaseType) {
-                    logger.info("IncreaseDecrease commands should use masterControls channel");
-                } else {// Percentype
-                    secondaryColor = new HSBType(secondaryColor.getHue().toString() + ","
-                            + secondaryColor.getSaturation().toString() + ",command");
-                    sendGetRequest("/win&C2=" + createColorHex(secondaryColor));
+                if (command instanceof HSBType) {
+                    secondaryColor = (HSBType) command;
+                } else if (command instanceof PercentType) {
+                    secondaryColor = new HSBType(secondaryColor.getHue(), secondaryColor.getSaturation(),
+                            (PercentType) command);
+                } else {
+                    logger.info("OnOffType and IncreaseDecrease commands should use masterControls channel");
+                    return null;
                 }
-                return;
+                return encoder.win().addColour("C2", WLedColourEngine.toRgb(secondaryColor)).toUrl();
+            case CHANNEL_COLOR_TEMPERATURE:
+                if (command instanceof PercentType) {
+                    encoder.win().add("TT", 1000).add("FX", 0).add("CY", 0);
+                    addLightColour(WLedColourEngine.colourTemperatureToRgb((PercentType) command));
+                    return encoder.toUrl();
+                }
+                return null;
             case CHANNEL_PALETTES:
-                sendGetRequest("/win&FP=" + command);
-                break;
+                return "/win&FP=" + command;
             case CHANNEL_FX:
-                sendGetRequest("/win&FX=" + command);
-                break;
+                return "/win&FX=" + command;
             case CHANNEL_SPEED:
-                BigDecimal bigTemp = new BigDecimal(command.toString());
-                if (OnOffType.OFF.equals(command)) {
-                    bigTemp = new BigDecimal(0);
-                } else if (OnOffType.ON.equals(command)) {
-                    bigTemp = new BigDecimal(255);
-                } else {
-                    bigTemp = new BigDecimal(command.toString()).multiply(new BigDecimal(2.55));
-                }
-                sendGetRequest("/win&SX=" + bigTemp);
-                break;
+                return encodeByte("SX", command, getLastValue("SX"));
             case CHANNEL_INTENSITY:
-                if (OnOffType.OFF.equals(command)) {
-                    bigTemp = new BigDecimal(0);
-                } else if (OnOffType.ON.equals(command)) {
-                    bigTemp = new BigDecimal(255);
-                } else {
-                    bigTemp = new BigDecimal(command.toString()).multiply(new BigDecimal(2.55));
-                }
-                sendGetRequest("/win&IX=" + bigTemp);
-                break;
+                return encodeByte("IX", command, getLastValue("IX"));
             case CHANNEL_SLEEP:
                 if (OnOffType.ON.equals(command)) {
-                    sendGetRequest("/win&ND");
-                } else {
-                    sendGetRequest("/win&NL=0");
+                    return "/win&ND";
                 }
-                break;
+                return "/win&NL=0";
             case CHANNEL_PRESETS:
-                sendGetRequest("/win&PL=" + command);
-                break;
+                return "/win&PL=" + command;
             case CHANNEL_PRESET_DURATION:
-                if (OnOffType.OFF.equals(command)) {
-                    bigTemp = new BigDecimal(0);
-                } else if (OnOffType.ON.equals(command)) {
-                    bigTemp = new BigDecimal(255);
-                } else {
-                    // scale from 0.5 seconds to 1 minute
-                    bigTemp = new BigDecimal(command.toString()).multiply(new BigDecimal(600)).add(new BigDecimal(500));
-                }
-                sendGetRequest("/win&PT=" + bigTemp);
-                break;
+                return encoder.win().add("PT", WLedCommandEncoder.toDuration(command)).toUrl();
             case CHANNEL_TRANS_TIME:
-                if (OnOffType.OFF.equals(command)) {
-                    bigTemp = new BigDecimal(0);
-                } else if (OnOffType.ON.equals(command)) {
-                    bigTemp = new BigDecimal(255);
-                } else {
-                    // scale from 0.5 seconds to 1 minute
-                    bigTemp = new BigDecimal(command.toString()).multiply(new BigDecimal(600)).add(new BigDecimal(500));
-                }
-                sendGetRequest("/win&TT=" + bigTemp);
-                break;
+                return encoder.win().add("TT", WLedCommandEncoder.toDuration(command)).toUrl();
             case CHANNEL_PRESET_CYCLE:
-                if (OnOffType.ON.equals(command)) {
-                    sendGetRequest("/win&CY=1");
+                return encoder.win().add("CY", OnOffType.ON.equals(command) ? 1 : 0).toUrl();
+        }
+        return null;
+    }
+
+    /**
+     * Must be called while holding the encoder lock.
+     *
+     * @return the /win command that sets the 0-255 parameter, or null if the command has no value for it.
+     */
+    private @Nullable String encodeByte(String key, Command command, int current) {
+        int value = WLedCommandEncoder.toByte(command, current);
+        if (value == WLedCommandEncoder.UNSUPPORTED) {
+            logger.debug("Ignoring the command {} as it does not set {}", command, key);
+            return null;
+        }
+        return encoder.win().add(key, value).toUrl();
+    }
+
+    /**
+     * @return the 0-255 value the WLED last reported for the parameter, or -1 if it is not known yet.
+     */
+    private int getLastValue(String key) {
+        synchronized (stateLock) {
+            switch (key) {
+                case "W":
+                    return lastState.primaryWhite;
+                case "W2":
+                    return lastState.secondaryWhite;
+                case "SX":
+                    return lastState.speed;
+                case "IX":
+                    return lastState.intensity;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the encoder lock. RGBW strings get as much of the colour as possible from the white
+     * LEDs, sent with the colour as CL=hWWRRGGBB so they change together.
+     */
+    private void addLightColour(int rgb) {
+        if (hasWhite) {
+            int rgbw = colourEngine.extractWhite(rgb);
+            encoder.addColour("CL", rgbw >>> 24, rgbw);
+        } else {
+            encoder.addColour("CL", rgb);
+        }
+    }
+
+    private void handleSegmentCommand(String channelId, Command command) {
+        int dashIndex = channelId.indexOf('-');
+        int segment;
+        try {
+            segment = Integer.parseInt(channelId.substring(CHANNEL_SEGMENT_PREFIX.length(), dashIndex));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            logger.debug("Channel {} is not a valid segment channel", channelId);
+            return;
+        }
+        switch (channelId.substring(dashIndex + 1)) {
+            case CHANNEL_PRIMARY_COLOR:
+                if (command instanceof HSBType) {
+                    sendSegmentCommand(segment,
+                            "CL=" + WLedCommandEncoder.toHex(WLedColourEngine.toRgb((HSBType) command)));
+                } else if (command instanceof PercentType) {
+                    int colour = getSegmentColour(segment);
+                    HSBType hsb = WLedColourEngine.toHsb(colour >> 16 & 0xFF, colour >> 8 & 0xFF, colour & 0xFF);
+                    sendSegmentCommand(segment, "CL=" + WLedCommandEncoder.toHex(WLedColourEngine
+                            .toRgb(new HSBType(hsb.getHue(), hsb.getSaturation(), (PercentType) command))));
                 } else {
-                    sendGetRequest("/win&CY=0");
+                    logger.info("OnOffType and IncreaseDecrease commands should use masterControls channel");
                 }
                 break;
+            case CHANNEL_FX:
+                sendSegmentCommand(segment, "FX=" + command);
+                break;
+            case CHANNEL_PALETTES:
+                sendSegmentCommand(segment, "FP=" + command);
+                break;
+            case CHANNEL_SPEED:
+                sendSegmentByte(segment, "SX", command);
+                break;
+            case CHANNEL_INTENSITY:
+                sendSegmentByte(segment, "IX", command);
+                break;
         }
     }
 
+    private void sendSegmentByte(int segment, String key, Command command) {
+        int current = -1;
+        synchronized (stateLock) {
+            for (int i = 0; i < lastState.segmentCount; i++) {
+                if (lastState.segmentId[i] == segment) {
+                    current = "SX".equals(key) ? lastState.segmentSpeed[i] : lastState.segmentIntensity[i];
+                }
+            }
+        }
+        int value = WLedCommandEncoder.toByte(command, current);
+        if (value == WLedCommandEncoder.UNSUPPORTED) {
+            logger.debug("Ignoring the command {} as it does not set {} of segment {}", command, key, segment);
+            return;
+        }
+        sendSegmentCommand(segment, key + "=" + value);
+    }
+
+    private int getSegmentColour(int segment) {
+        synchronized (stateLock) {
+            for (int i = 0; i < lastState.segmentCount; i++) {
+                if (lastState.segmentId[i] == segment) {
+                    return lastState.segmentColour[i];
+                }
+            }
+        }
+        return 0xFFFFFF;
+    }
+
     public void savePreset(int presetIndex) {
-        if (presetIndex > 16) {
-            logger.warn("Presets above 16 do not exist, and the action sent {}", presetIndex);
+        if (presetIndex > 250) {
+            logger.warn("Presets above 250 do not exist, and the action sent {}", presetIndex);
             return;
         }
-        sendGetRequest("/win&PS=" + presetIndex);
+        sendCommand("/win&PS=" + presetIndex);
+    }
+
+    /**
+     * @param colours one 0xRRGGBB value per LED, streamed over UDP with the realtime protocol.
+     */
+    public void sendFrame(int[] colours) {
+        WLedRealtimeSender sender = getRealtimeSender(colours.length);
+        if (sender != null) {
+            sender.setFrame(colours);
+        }
+    }
+
+    public void sendGradient(int startColour, int endColour) {
+        WLedRealtimeSender sender = getRealtimeSender(0);
+        if (sender != null) {
+            sender.setGradient(startColour, endColour);
+        }
+    }
+
+    public synchronized void stopRealtime() {
+        WLedRealtimeSender sender = realtimeSender;
+        if (sender != null) {
+            sender.stop();
+        }
+    }
+
+    /**
+     * Creates the sender the first time a frame is sent. The number of LEDs comes from /json/info, or from the size
+     * of the first frame if the WLED has not replied yet.
+     */
+    private synchronized @Nullable WLedRealtimeSender getRealtimeSender(int frameLength) {
+        WLedRealtimeSender sender = realtimeSender;
+        if (sender != null) {
+            return sender;
+        }
+        int leds = ledCount > 0 ? ledCount : frameLength;
+        if (leds == 0) {
+            logger.warn("The number of LEDs is not known yet, so the realtime frame can not be sent");
+            return null;
+        }
+        try {
+            WLedRealtimeSender.Protocol protocol = WLedRealtimeSender.Protocol
+                    .valueOf(config.realtimeProtocol.toUpperCase());
+            InetAddress address = InetAddress.getByName(new URI(config.address).getHost());
+            sender = new WLedRealtimeSender(address, protocol, leds, config.realtimeFps, realtimeScheduler);
+        } catch (URISyntaxException | IOException | IllegalArgumentException e) {
+            logger.warn("Could not start streaming realtime frames to the WLED:{}", e.getMessage());
+            return null;
+        }
+        realtimeSender = sender;
+        return sender;
     }
 
     void pollLED() {
-        sendGetRequest("/win");
+        try {
+            if (snapshotChanged && System.nanoTime() - snapshotSaved > SNAPSHOT_SAVE_NS) {
+                snapshotSaved = System.nanoTime();
+                ioExecutor.execute(this::saveSnapshot);
+            }
+            if (!notifierRegistered && notifierLookup.compareAndSet(false, true)) {
+                ioExecutor.execute(() -> {
+                    try {
+                        registerNotifier();
+                    } finally {
+                        notifierLookup.set(false);
+                    }
+                });
+            }
+            if (!webSocket.isConnected()) {
+                if (config.websocket && !circuitBreaker.isOpen()) {
+                    connectWebSocket();
+                }
+                sendPoll();
+            }
+        } finally {
+            scheduleNextPoll();
+        }
+    }
+
+    /**
+     * Polls quickly after a command or a change, then doubles the time between polls while the WLED stays idle, up to
+     * the pollTime. The time also keeps doubling while the WLED is offline, up to a minute, and every delay has some
+     * jitter added so many WLEDs do not end up being polled at the same moment.
+     */
+    private void scheduleNextPoll() {
+        synchronized (pollLock) {
+            if (!polling) {
+                return;
+            }
+            long delay;
+            if (isPushingState()) {
+                delay = config.pollTime * 1000L;
+            } else {
+                long maxDelay = config.pollTime * 1000L;
+                if (thing.getStatus() != ThingStatus.ONLINE) {
+                    maxDelay = Math.max(maxDelay, MAX_OFFLINE_POLL_MS);
+                }
+                delay = Math.min(pollDelay, maxDelay);
+                pollDelay = Math.min(delay * 2, maxDelay);
+            }
+            pollingFuture = bindingScheduler.schedule(this::pollLED, addJitter(delay), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Brings the next poll forward, as the state of the WLED is changing.
+     */
+    private void pollSoon() {
+        synchronized (pollLock) {
+            pollDelay = FAST_POLL_MS;
+            ScheduledFuture<?> localFuture = pollingFuture;
+            if (polling && localFuture != null && !isPushingState()
+                    && localFuture.getDelay(TimeUnit.MILLISECONDS) > FAST_POLL_MS && localFuture.cancel(false)) {
+                pollingFuture = bindingScheduler.schedule(this::pollLED, addJitter(FAST_POLL_MS),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Polls again straight away when the websocket drops, instead of waiting out the slow poll it was using.
+     */
+    void webSocketClosed() {
+        pollSoon();
+    }
+
+    /**
+     * @return true if the WLED tells the binding about each change, so polling is only needed to catch missed ones.
+     */
+    private boolean isPushingState() {
+        return webSocket.isConnected() || receivingNotifications;
+    }
+
+    /**
+     * Sends the first poll once the {@link WLedWarmStart} has a free slot for this WLED.
+     */
+    void warmUp() {
+        synchronized (pollLock) {
+            if (!polling) {
+                warmStart.finished(this);
+                return;
+            }
+            warmingUp = true;
+        }
+        pollLED();
+    }
+
+    /**
+     * Publishes the state that was saved when openHAB last stopped, and the FX and palette names that were cached for
+     * the firmware the WLED last reported, so the channels are filled in before the WLED has replied.
+     */
+    private void restoreSnapshot() {
+        String lastFirmware = getThing().getProperties().get(Thing.PROPERTY_FIRMWARE_VERSION);
+        if (lastFirmware != null && !lastFirmware.isEmpty()) {
+            ioExecutor.execute(() -> {
+                WLedOptionsCache.Options options = optionsCache.get(lastFirmware);
+                // unless the WLED has already reported its firmware, which may have changed
+                if (options != null && firmware.isEmpty()) {
+                    firmware = lastFirmware;
+                    setChannelOptions(options);
+                }
+            });
+        }
+        synchronized (stateLock) {
+            if (warmStart.restore(getThing().getUID(), state)) {
+                logger.debug("Publishing the last known state of {} until it replies", getThing().getUID());
+                publishAll = true;
+                updateChannels();
+            }
+        }
+        snapshotChanged = false;
+        snapshotSaved = System.nanoTime();
+    }
+
+    /**
+     * Copies lastState while holding the lock, so the file is written without holding up replies.
+     */
+    private void saveSnapshot() {
+        synchronized (snapshot) {
+            snapshotChanged = false;
+            snapshotSaved = System.nanoTime();
+            synchronized (stateLock) {
+                snapshot.copyFrom(lastState);
+            }
+            if (snapshot.masterBrightness != -1) {
+                warmStart.save(getThing().getUID(), snapshot);
+            }
+        }
+    }
+
+    /**
+     * Lets the binding wide {@link WLedNotifierListener} know which address this WLED sends its notifications from.
+     */
+    private void registerNotifier() {
+        InetAddress address;
+        try {
+            String host = new URI(config.address).getHost();
+            if (host == null) {
+                return;
+            }
+            address = InetAddress.getByName(host);
+        } catch (URISyntaxException | UnknownHostException e) {
+            logger.debug("Could not find the address of the WLED to receive its sync notifications:{}",
+                    e.getMessage());
+            return;
+        }
+        synchronized (pollLock) {
+            if (polling) {
+                notifierListener.register(address, this);
+                notifierRegistered = true;
+            }
+        }
+    }
+
+    private static long addJitter(long delay) {
+        return delay + ThreadLocalRandom.current().nextLong(-delay / 10, delay / 10 + 1);
+    }
+
+    /**
+     * Starts connecting the websocket, unless the last attempt is still waiting for the WLED to answer.
+     */
+    private void connectWebSocket() {
+        synchronized (pollLock) {
+            Future<Session> localFuture = webSocketFuture;
+            if (!polling || (localFuture != null && !localFuture.isDone())) {
+                return;
+            }
+            try {
+                webSocketFuture = webSocketClient.connect(webSocket,
+                        new URI(config.address.replaceFirst("^http", "ws") + "/ws"));
+            } catch (URISyntaxException | IOException e) {
+                logger.debug("Could not open a websocket to the WLED:{}", e.getMessage());
+            }
+        }
     }
 
     @Override
     public void initialize() {
         config = getConfigAs(WLedConfiguration.class);
-        pollingFuture = threadPool.scheduleWithFixedDelay(this::pollLED, 1, config.pollTime, TimeUnit.SECONDS);
+        jsonApi = config.jsonApi;
+        circuitBreaker = new WLedCircuitBreaker(config.failureThreshold);
+        receivingNotifications = false;
+        colourEngine = new WLedColourEngine(config.whiteTemperature);
+        restoreSnapshot();
+        webSocket.open();
+        synchronized (pollLock) {
+            polling = true;
+            pollDelay = FAST_POLL_MS;
+        }
+        warmStart.queue(this);
+        preview = new WLedPreview(config.previewBuckets);
+        previewRequested = 0;
+        long previewTime = Math.max(250, config.previewTime);
+        previewFuture = bindingScheduler.scheduleWithFixedDelay(this::pollPreview, previewTime, previewTime,
+                TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void dispose() {
-        if (pollingFuture != null) {
-            pollingFuture.cancel(true);
+        synchronized (pollLock) {
+            polling = false;
+            ScheduledFuture<?> localFuture = pollingFuture;
+            if (localFuture != null) {
+                localFuture.cancel(true);
+                pollingFuture = null;
+            }
+            if (notifierRegistered) {
+                notifierListener.unregister(this);
+                notifierRegistered = false;
+            }
+            Future<Session> localWebSocketFuture = webSocketFuture;
+            if (localWebSocketFuture != null) {
+                localWebSocketFuture.cancel(true);
+                webSocketFuture = null;
+            }
+        }
+        warmStart.finished(this);
+        if (snapshotChanged && thing.getStatus() != ThingStatus.REMOVING
+                && thing.getStatus() != ThingStatus.REMOVED) {
+            saveSnapshot();
         }
+        ScheduledFuture<?> localPreviewFuture = previewFuture;
+        if (localPreviewFuture != null) {
+            localPreviewFuture.cancel(true);
+            previewFuture = null;
+        }
+        webSocket.close();
+        synchronized (this) {
+            WLedRealtimeSender sender = realtimeSender;
+            if (sender != null) {
+                sender.close();
+                realtimeSender = null;
+            }
+        }
+        synchronized (pendingParameters) {
+            ScheduledFuture<?> localFuture = flushFuture;
+            if (localFuture != null) {
+                localFuture.cancel(false);
+                flushFuture = null;
+            }
+            pendingParameters.clear();
+            pendingSegments.clear();
+            pendingCommands = 0;
+        }
+        Request localRequest;
+        synchronized (requestQueue) {
+            commandQueue.clear();
+            requestQueue.clear();
+            replayQueue.clear();
+            pollPending = false;
+            for (SendListener sendListener : sendListeners) {
+                sendListener.failed = true;
+            }
+            localRequest = requestSent;
+            requestSent = null;
+        }
+        if (localRequest != null) {
+            localRequest.abort(new CancellationException("The WLED handler was disposed"));
+        }
+        notifySendListeners();
     }
 
     @Override
-    public Collection<Class<? extends ThingHandlerService>> getServices() {
-        return Collections.singleton(WLedActions.class);
+    public void handleRemoval() {
+        warmStart.delete(getThing().getUID());
+        super.handleRemoval();
     }
 
     /**
-     * @return A string that starts after finding the element and terminates when it finds the first occurence of the
-     *         end char after the element.
+     * A group bridge only passes commands on, and is always ONLINE, so the status of this WLED comes from its own
+     * replies and not from the group.
      */
-    static private String getValue(String message, String element, String end) {
-        int startIndex = message.indexOf(element);
-        if (startIndex != -1) // It was found, as -1 means "not found"
-        {
-            int endIndex = message.indexOf(end, startIndex + element.length());
-            if (endIndex != -1)// , not found so make second check
-            {
-                return message.substring(startIndex + element.length(), endIndex);
-            }
+    @Override
+    public void bridgeStatusChanged(ThingStatusInfo bridgeStatusInfo) {
+    }
+
+    /**
+     * @return a way to back up, restore or roll out the presets and config of this WLED.
+     */
+    public WLedBackup getBackup() {
+        return new WLedBackup(bulkHttpClient, ioExecutor, config.address, thing.getUID().getId());
+    }
+
+    public WLedMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public Collection<Class<? extends ThingHandlerService>> getServices() {
+        return Collections.singleton(WLedActions.class);
+    }
+
+    private static class QueuedRequest {
+        private final String url;
+        private final @Nullable String content;
+        private final boolean poll;
+        private final boolean command;
+
+        private QueuedRequest(String url, @Nullable String content, boolean poll) {
+            this.url = url;
+            this.content = content;
+            this.poll = poll;
+            this.command = content != null || url.startsWith("/win&");
+        }
+    }
+
+    private static class SendListener {
+        private final Consumer<Boolean> listener;
+        private boolean failed = false;
+        private boolean armed = false; // not called until its command has been handled
+
+        private SendListener(Consumer<Boolean> listener) {
+            this.listener = listener;
         }
-        return "";
     }
 }
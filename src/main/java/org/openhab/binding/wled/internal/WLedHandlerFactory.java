@@ -13,20 +13,29 @@
 
 package org.openhab.binding.wled.internal;
 
-import static org.openhab.binding.wled.internal.WLedBindingConstants.SUPPORTED_THING_TYPES;
+import static org.openhab.binding.wled.internal.WLedBindingConstants.*;
+
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.openhab.core.common.ThreadPoolManager;
+import org.openhab.core.thing.Bridge;
 import org.openhab.core.thing.Thing;
 import org.openhab.core.thing.ThingTypeUID;
 import org.openhab.core.thing.binding.BaseThingHandlerFactory;
 import org.openhab.core.thing.binding.ThingHandler;
 import org.openhab.core.thing.binding.ThingHandlerFactory;
 import org.openhab.core.io.net.http.HttpClientFactory;
+import org.openhab.core.io.net.http.WebSocketFactory;
+import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The {@link WLedHandlerFactory} is responsible for creating things and thing
@@ -37,16 +46,66 @@ import org.osgi.service.component.annotations.Reference;
 @NonNullByDefault
 @Component(configurationPid = "binding.wled", service = ThingHandlerFactory.class)
 public class WLedHandlerFactory extends BaseThingHandlerFactory {
+    private static final int MAX_QUEUED_REQUESTS_PER_WLED = 32;
+    private static final long CONNECT_TIMEOUT_MS = 1000;
+    private static final long IDLE_TIMEOUT_MS = 60000;
+    private static final long BULK_IDLE_TIMEOUT_MS = 5000;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
     private final HttpClient httpClient;
+    private final HttpClient bulkHttpClient;
+    private final WebSocketClient webSocketClient;
+    private final ScheduledExecutorService scheduler = ThreadPoolManager.getScheduledPool(BINDING_ID);
+    private final WLedOptionsCache optionsCache = new WLedOptionsCache();
+    private final WLedNotifierListener notifierListener = new WLedNotifierListener();
+    private final WLedWarmStart warmStart = new WLedWarmStart(scheduler);
     private final WledDynamicStateDescriptionProvider stateDescriptionProvider;;
 
     @Activate
     public WLedHandlerFactory(@Reference HttpClientFactory httpClientFactory,
+            @Reference WebSocketFactory webSocketFactory,
             final @Reference WledDynamicStateDescriptionProvider stateDescriptionProvider) {
-        this.httpClient = httpClientFactory.getCommonHttpClient();
+        this.httpClient = createHttpClient(httpClientFactory, BINDING_ID, IDLE_TIMEOUT_MS);
+        this.bulkHttpClient = createHttpClient(httpClientFactory, BINDING_ID + "-bulk", BULK_IDLE_TIMEOUT_MS);
+        this.webSocketClient = webSocketFactory.getCommonWebSocketClient();
         this.stateDescriptionProvider = stateDescriptionProvider;
     }
 
+    /**
+     * WLEDs run on an ESP that struggles with more than one connection at a time, so the binding has its own client
+     * that keeps one connection open to each WLED, instead of sharing the common client with every other binding.
+     * Backups and timelines get a second client, so a slow upload never holds up the polls and commands, and a
+     * timed step never waits behind a poll. Its connection closes soon after the last request.
+     */
+    private static HttpClient createHttpClient(HttpClientFactory httpClientFactory, String consumerName,
+            long idleTimeout) {
+        HttpClient client = httpClientFactory.createHttpClient(consumerName);
+        client.setMaxConnectionsPerDestination(1);
+        client.setMaxRequestsQueuedPerDestination(MAX_QUEUED_REQUESTS_PER_WLED);
+        client.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        client.setIdleTimeout(idleTimeout);
+        client.setTCPNoDelay(true);
+        client.setFollowRedirects(false);
+        try {
+            client.start();
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not start the WLED HTTP client", e);
+        }
+        return client;
+    }
+
+    @Override
+    protected void deactivate(ComponentContext componentContext) {
+        super.deactivate(componentContext);
+        notifierListener.close();
+        for (HttpClient client : new HttpClient[] { httpClient, bulkHttpClient }) {
+            try {
+                client.stop();
+            } catch (Exception e) {
+                logger.debug("Could not stop the WLED HTTP client:{}", e.getMessage());
+            }
+        }
+    }
+
     @Override
     public boolean supportsThingType(ThingTypeUID thingTypeUID) {
         if (SUPPORTED_THING_TYPES.contains(thingTypeUID)) {
@@ -58,8 +117,12 @@ public class WLedHandlerFactory extends BaseThingHandlerFactory {
     @Override
     protected @Nullable ThingHandler createHandler(Thing thing) {
         ThingTypeUID thingTypeUID = thing.getThingTypeUID();
+        if (THING_TYPE_GROUP.equals(thingTypeUID)) {
+            return new WLedGroupHandler((Bridge) thing, scheduler);
+        }
         if (SUPPORTED_THING_TYPES.contains(thingTypeUID)) {
-            return new WLedHandler(thing, httpClient, stateDescriptionProvider);
+            return new WLedHandler(thing, httpClient, bulkHttpClient, webSocketClient, scheduler, optionsCache,
+                    notifierListener, warmStart, stateDescriptionProvider);
         }
         return null;
     }
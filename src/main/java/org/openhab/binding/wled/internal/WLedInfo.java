@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import com.google.gson.stream.JsonReader;
+
+/**
+ * The {@link WLedInfo} holds the parts of a /json/info reply that the binding uses.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedInfo {
+    private static final Pattern VERSION_PATTERN = Pattern.compile("^(\\d{1,4})\\.(\\d{1,4})");
+    public String version = "";
+    public String build = "";
+    public String name = "";
+    public String mac = "";
+    public int ledCount = 0;
+
+    /**
+     * @return the version and build of the firmware, for example 0.10.2-2008100, or an empty string if the WLED did
+     *         not report them.
+     */
+    public String getFirmware() {
+        return version.isEmpty() ? "" : version + "-" + build;
+    }
+
+    /**
+     * @return false if the firmware is older than 0.10, which does not take the JSON commands the binding sends. A
+     *         version that can not be read is taken to be new enough.
+     */
+    public boolean hasJsonApi() {
+        Matcher matcher = VERSION_PATTERN.matcher(version);
+        if (!matcher.find()) {
+            return true;
+        }
+        int major = Integer.parseInt(matcher.group(1));
+        return major > 0 || Integer.parseInt(matcher.group(2)) >= 10;
+    }
+
+    /**
+     * Streams the /json/info reply, or the "info" object of a /json reply, without building an object tree.
+     */
+    public static WLedInfo parse(String json) throws IOException {
+        WLedInfo info = new WLedInfo();
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "ver":
+                        info.version = reader.nextString();
+                        break;
+                    case "vid":
+                        info.build = reader.nextString();
+                        break;
+                    case "name":
+                        info.name = reader.nextString();
+                        break;
+                    case "mac":
+                        info.mac = reader.nextString();
+                        break;
+                    case "leds":
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if ("count".equals(reader.nextName())) {
+                                info.ledCount = reader.nextInt();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return info;
+    }
+}
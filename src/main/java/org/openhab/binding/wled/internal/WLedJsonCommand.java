@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The {@link WLedJsonCommand} turns the parameters of a /win command into the smallest JSON body that does the same
+ * thing when posted to /json/state, so one request can change the colour, brightness, FX and transition together.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedJsonCommand {
+    private int on = -1; // 0=off, 1=on, 2=toggle
+    private int brightness = -1;
+    private int transition = -1;
+    private long primary = -1;
+    private long secondary = -1;
+    private int primaryWhite = -1;
+    private int secondaryWhite = -1;
+    private int fx = -1;
+    private int speed = -1;
+    private int intensity = -1;
+    private int palette = -1;
+    private int loadPreset = -1;
+    private int savePreset = -1;
+    private int sleep = -1;
+
+    /**
+     * @param parameters in the same K=V form that the /win API uses, for example A=128 or CL=hFF0000.
+     * @param current the last known state, used to fill in the colour when only the white is changed.
+     * @param unsupported gets any parameters that the JSON API can not do, so they can be sent with /win.
+     * @return the JSON to post, or null if none of the parameters could be sent with the JSON API.
+     */
+    public static @Nullable String encode(Collection<String> parameters, WLedState current,
+            List<String> unsupported) {
+        WLedJsonCommand command = new WLedJsonCommand();
+        boolean used = false;
+        for (String parameter : parameters) {
+            if (command.add(parameter)) {
+                used = true;
+            } else {
+                unsupported.add(parameter);
+            }
+        }
+        return used ? command.toJson(current) : null;
+    }
+
+    /**
+     * Puts the changes for several segments into one seg array, so they all change with a single request.
+     *
+     * @param segments the /win style parameters for each segment id, only colour and FX parameters are used.
+     * @param current the last known state, used to fill in the colour when only the white is changed.
+     * @return the JSON to post, or null if none of the parameters could be sent.
+     */
+    public static @Nullable String encodeSegments(Map<Integer, ? extends Collection<String>> segments,
+            WLedState current) {
+        StringWriter stringWriter = new StringWriter(64 * segments.size());
+        boolean used = false;
+        try (JsonWriter writer = new JsonWriter(stringWriter)) {
+            writer.beginObject().name("seg").beginArray();
+            for (Map.Entry<Integer, ? extends Collection<String>> segment : segments.entrySet()) {
+                WLedJsonCommand command = new WLedJsonCommand();
+                for (String parameter : segment.getValue()) {
+                    command.add(parameter);
+                }
+                if (command.hasSegmentChange()) {
+                    used = true;
+                    writer.beginObject().name("id").value(segment.getKey().intValue());
+                    command.writeSegmentMembers(writer, current);
+                    writer.endObject();
+                }
+            }
+            writer.endArray().name("v").value(true).endObject();
+        } catch (IOException e) {
+            // can not happen when writing to a StringWriter
+        }
+        return used ? stringWriter.toString() : null;
+    }
+
+    private boolean add(String parameter) {
+        int equalsIndex = parameter.indexOf('=');
+        String key = equalsIndex == -1 ? parameter : parameter.substring(0, equalsIndex);
+        String value = equalsIndex == -1 ? "" : parameter.substring(equalsIndex + 1);
+        if (value.startsWith("~")) {
+            return false; // relative changes
+        }
+        try {
+            switch (key) {
+                case "T":
+                    on = Integer.parseInt(value);
+                    return true;
+                case "A":
+                    brightness = parseByte(value);
+                    return true;
+                case "TT":
+                    transition = Integer.parseInt(value);
+                    return true;
+                case "CL":
+                    primary = Long.parseLong(value.substring(1), 16);
+                    if (value.length() > 7) {
+                        primaryWhite = (int) (primary >> 24 & 0xFF);
+                    }
+                    return true;
+                case "C2":
+                    secondary = Long.parseLong(value.substring(1), 16);
+                    if (value.length() > 7) {
+                        secondaryWhite = (int) (secondary >> 24 & 0xFF);
+                    }
+                    return true;
+                case "W":
+                    primaryWhite = parseByte(value);
+                    return true;
+                case "W2":
+                    secondaryWhite = parseByte(value);
+                    return true;
+                case "FX":
+                    fx = Integer.parseInt(value);
+                    return true;
+                case "SX":
+                    speed = parseByte(value);
+                    return true;
+                case "IX":
+                    intensity = parseByte(value);
+                    return true;
+                case "FP":
+                    palette = Integer.parseInt(value);
+                    return true;
+                case "PL":
+                    loadPreset = Integer.parseInt(value);
+                    return true;
+                case "PS":
+                    savePreset = Integer.parseInt(value);
+                    return true;
+                case "ND":
+                    sleep = 1;
+                    return true;
+                case "NL":
+                    if ("0".equals(value)) {
+                        sleep = 0;
+                        return true;
+                    }
+                    return false;
+                default:
+                    return false;
+            }
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    private static int parseByte(String value) {
+        return Math.max(0, Math.min(255, Integer.parseInt(value)));
+    }
+
+    private String toJson(WLedState current) {
+        StringWriter stringWriter = new StringWriter(64);
+        try (JsonWriter writer = new JsonWriter(stringWriter)) {
+            writer.beginObject();
+            if (on == 2) {
+                writer.name("on").value("t");
+            } else if (on != -1) {
+                writer.name("on").value(on == 1);
+            }
+            if (brightness != -1) {
+                writer.name("bri").value(brightness);
+            }
+            if (transition != -1) {
+                writer.name("transition").value(transition / 100); // JSON uses units of 100ms
+            }
+            if (loadPreset != -1) {
+                writer.name("ps").value(loadPreset);
+            }
+            if (savePreset != -1) {
+                writer.name("psave").value(savePreset);
+            }
+            if (sleep != -1) {
+                writer.name("nl").beginObject().name("on").value(sleep == 1).endObject();
+            }
+            if (hasSegmentChange()) {
+                writer.name("seg").beginObject();
+                writeSegmentMembers(writer, current);
+                writer.endObject();
+            }
+            writer.name("v").value(true); // reply with the new state
+            writer.endObject();
+        } catch (IOException e) {
+            // can not happen when writing to a StringWriter
+        }
+        return stringWriter.toString();
+    }
+
+    private void writeSegmentMembers(JsonWriter writer, WLedState current) throws IOException {
+        if (primary != -1 || secondary != -1 || primaryWhite != -1 || secondaryWhite != -1) {
+            writer.name("col").beginArray();
+            writeColour(writer, primary, primaryWhite, current.primary);
+            writeColour(writer, secondary, secondaryWhite, current.secondary);
+            writer.endArray();
+        }
+        if (fx != -1) {
+            writer.name("fx").value(fx);
+        }
+        if (speed != -1) {
+            writer.name("sx").value(speed);
+        }
+        if (intensity != -1) {
+            writer.name("ix").value(intensity);
+        }
+        if (palette != -1) {
+            writer.name("pal").value(palette);
+        }
+    }
+
+    private boolean hasSegmentChange() {
+        return primary != -1 || secondary != -1 || primaryWhite != -1 || secondaryWhite != -1 || fx != -1
+                || speed != -1 || intensity != -1 || palette != -1;
+    }
+
+    /**
+     * Writes [r,g,b] or [r,g,b,w], or an empty array which WLED takes as leave this colour unchanged.
+     */
+    private static void writeColour(JsonWriter writer, long rgb, int white, int[] currentRgb) throws IOException {
+        writer.beginArray();
+        if (rgb != -1) {
+            writer.value(rgb >> 16 & 0xFF).value(rgb >> 8 & 0xFF).value(rgb & 0xFF);
+        } else if (white != -1) {
+            writer.value(currentRgb[0]).value(currentRgb[1]).value(currentRgb[2]);
+        }
+        if (white != -1) {
+            writer.value(white);
+        }
+        writer.endArray();
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link WLedMetrics} counts the requests, failures, latency and parse time for one WLED. Everything is kept in
+ * atomic counters and a fixed set of latency buckets, so recording costs nothing that would show up next to the
+ * request itself.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedMetrics {
+    // upper bound in ms of each latency bucket, anything slower goes into one extra bucket
+    private static final long[] LATENCY_BUCKETS_MS = { 10, 25, 50, 100, 250, 500, 1000, 2500 };
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong httpErrors = new AtomicLong();
+    private final AtomicLong otherFailures = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong latencyTotalMs = new AtomicLong();
+    private final AtomicLong latencyMaxMs = new AtomicLong();
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKETS_MS.length + 1);
+    private final AtomicLong parses = new AtomicLong();
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong suppressedUpdates = new AtomicLong();
+    private final AtomicLong mergedCommands = new AtomicLong();
+    private volatile long lastGoodState = 0;
+
+    /**
+     * Records a request that got a reply, even if the reply was an HTTP error.
+     */
+    public void requestCompleted(long startNanos, int status, int bytes) {
+        requests.incrementAndGet();
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        latencyTotalMs.addAndGet(latency);
+        latencyMaxMs.accumulateAndGet(latency, Math::max);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_MS.length && latency > LATENCY_BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        latencyBuckets.incrementAndGet(bucket);
+        bytesReceived.addAndGet(bytes);
+        if (status != 200) {
+            httpErrors.incrementAndGet();
+        }
+    }
+
+    public void requestFailed(Throwable failure) {
+        requests.incrementAndGet();
+        if (failure instanceof TimeoutException) {
+            timeouts.incrementAndGet();
+        } else if (failure instanceof ConnectException || failure instanceof NoRouteToHostException
+                || failure instanceof UnknownHostException) {
+            connectFailures.incrementAndGet();
+        } else {
+            otherFailures.incrementAndGet();
+        }
+    }
+
+    public void parsed(long startNanos) {
+        parses.incrementAndGet();
+        parseNanos.addAndGet(System.nanoTime() - startNanos);
+        lastGoodState = System.currentTimeMillis();
+    }
+
+    /**
+     * Records a channel update that was skipped, as its value had not changed.
+     */
+    public void updateSuppressed() {
+        suppressedUpdates.incrementAndGet();
+    }
+
+    /**
+     * Records that this many commands were sent to the WLED in one request.
+     *
+     * @return how many commands have been merged away since startup.
+     */
+    public long commandsMerged(int commands) {
+        return mergedCommands.addAndGet(commands - 1);
+    }
+
+    public long getSuppressedUpdates() {
+        return suppressedUpdates.get();
+    }
+
+    public long getMergedCommands() {
+        return mergedCommands.get();
+    }
+
+    public long getFailures() {
+        return timeouts.get() + connectFailures.get() + httpErrors.get() + otherFailures.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getAverageLatency() {
+        long replies = requests.get() - timeouts.get() - connectFailures.get() - otherFailures.get();
+        return replies > 0 ? latencyTotalMs.get() / replies : 0;
+    }
+
+    public long getMaxLatency() {
+        return latencyMaxMs.get();
+    }
+
+    /**
+     * @return the upper bound of the latency bucket that holds the given percentile, or -1 when it is above the
+     *         largest bucket.
+     */
+    public long getLatencyPercentile(double percentile) {
+        long total = 0;
+        for (int bucket = 0; bucket < latencyBuckets.length(); bucket++) {
+            total += latencyBuckets.get(bucket);
+        }
+        long target = (long) Math.ceil(total * percentile / 100);
+        long count = 0;
+        for (int bucket = 0; bucket < LATENCY_BUCKETS_MS.length; bucket++) {
+            count += latencyBuckets.get(bucket);
+            if (count >= target) {
+                return LATENCY_BUCKETS_MS[bucket];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the seconds since the last state was parsed, or -1 if there has not been one yet.
+     */
+    public long getSecondsSinceGoodState() {
+        long last = lastGoodState;
+        return last == 0 ? -1 : (System.currentTimeMillis() - last) / 1000;
+    }
+
+    /**
+     * @return every metric as a line of text, in the order they are shown in the console.
+     */
+    public Map<String, String> describe() {
+        Map<String, String> lines = new LinkedHashMap<>();
+        lines.put("Requests",
+                String.format("%d requests, %d failed (%d timeouts, %d connect, %d http, %d other)", requests.get(),
+                        getFailures(), timeouts.get(), connectFailures.get(), httpErrors.get(), otherFailures.get()));
+        lines.put("Latency", String.format("avg %d ms, p50 %s, p95 %s, max %d ms", getAverageLatency(),
+                formatBucket(50), formatBucket(95), latencyMaxMs.get()));
+        long parseCount = parses.get();
+        lines.put("Received", String.format("%d kB, %d states parsed in avg %d us", bytesReceived.get() / 1024,
+                parseCount, parseCount > 0 ? parseNanos.get() / parseCount / 1000 : 0));
+        long last = lastGoodState;
+        lines.put("Last good state", last == 0 ? "never" : Instant.ofEpochMilli(last).toString());
+        lines.put("Skipped", String.format("%d updates of unchanged channels, %d commands merged into others",
+                suppressedUpdates.get(), mergedCommands.get()));
+        return lines;
+    }
+
+    private String formatBucket(double percentile) {
+        long bound = getLatencyPercentile(percentile);
+        return bound == -1 ? ">" + LATENCY_BUCKETS_MS[LATENCY_BUCKETS_MS.length - 1] + " ms" : "<=" + bound + " ms";
+    }
+}
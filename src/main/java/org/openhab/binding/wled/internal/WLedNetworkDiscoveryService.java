@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.openhab.binding.wled.internal.WLedBindingConstants.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.openhab.core.config.discovery.AbstractDiscoveryService;
+import org.openhab.core.config.discovery.DiscoveryService;
+import org.openhab.core.io.net.http.HttpClientFactory;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link WLedNetworkDiscoveryService} finds WLEDs that mDNS misses by asking every address in the scanRanges of
+ * the binding config for its /json/info. Only a limited number of requests are open at any time, and as each one
+ * finishes the next address is asked, so a /24 takes a few seconds.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+@Component(service = DiscoveryService.class, configurationPid = "binding.wled")
+public class WLedNetworkDiscoveryService extends AbstractDiscoveryService {
+    private static final int SCAN_TIMEOUT_SECONDS = 30;
+    private static final int PROBE_TIMEOUT_MS = 1500;
+    private static final int MAX_CONCURRENT_PROBES = 64;
+    private static final int MAX_ADDRESSES = 65536;
+    private static final int WLED_PORT = 80;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final HttpClient httpClient;
+    private final int port;
+    private List<long[]> scanRanges = new ArrayList<>();
+    private long nextAddress;
+    private int rangeIndex;
+    private int probesInFlight;
+    private int probesStarted;
+    private boolean scanning = false;
+    private int found;
+
+    @Activate
+    public WLedNetworkDiscoveryService(@Reference HttpClientFactory httpClientFactory,
+            @Nullable Map<String, Object> config) {
+        this(httpClientFactory, config, WLED_PORT);
+    }
+
+    /**
+     * @param port the port every address is probed on, which tests can point at an emulated WLED.
+     */
+    WLedNetworkDiscoveryService(HttpClientFactory httpClientFactory, @Nullable Map<String, Object> config, int port) {
+        super(Collections.singleton(THING_TYPE_WLED), SCAN_TIMEOUT_SECONDS, false);
+        this.httpClient = httpClientFactory.getCommonHttpClient();
+        this.port = port;
+        readConfig(config);
+    }
+
+    @Override
+    @Modified
+    protected void modified(@Nullable Map<String, Object> config) {
+        super.modified(config);
+        readConfig(config);
+    }
+
+    private void readConfig(@Nullable Map<String, Object> config) {
+        List<long[]> ranges = new ArrayList<>();
+        Object value = config == null ? null : config.get(CONFIG_SCAN_RANGES);
+        if (value != null) {
+            for (String cidr : value.toString().split("[,\\s]+")) {
+                if (cidr.isEmpty()) {
+                    continue;
+                }
+                try {
+                    ranges.add(parseCidr(cidr));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("The WLED scanRanges config has a range that is not valid:{}", cidr);
+                }
+            }
+        }
+        synchronized (this) {
+            scanRanges = ranges;
+        }
+    }
+
+    /**
+     * @return the first and last host address in the range, skipping the network and broadcast addresses.
+     */
+    static long[] parseCidr(String cidr) {
+        String[] parts = cidr.trim().split("/");
+        String[] octets = parts[0].split("\\.");
+        if (octets.length != 4 || parts.length > 2) {
+            throw new IllegalArgumentException(cidr);
+        }
+        long address = 0;
+        for (String octet : octets) {
+            int value = Integer.parseInt(octet);
+            if (value < 0 || value > 255) {
+                throw new IllegalArgumentException(cidr);
+            }
+            address = address << 8 | value;
+        }
+        int prefix = parts.length == 2 ? Integer.parseInt(parts[1]) : 32;
+        if (prefix < 32 - 16 || prefix > 32) {
+            throw new IllegalArgumentException(cidr);
+        }
+        long size = 1L << (32 - prefix);
+        long first = address & ~(size - 1) & 0xFFFFFFFFL;
+        long last = first + size - 1;
+        if (size > 2) {
+            first++;
+            last--;
+        }
+        return new long[] { first, last };
+    }
+
+    @Override
+    protected void startScan() {
+        synchronized (this) {
+            if (scanning) {
+                return;
+            }
+            if (scanRanges.isEmpty()) {
+                logger.debug("No scanRanges are configured, so WLEDs are only found with mDNS");
+                return;
+            }
+            long addresses = 0;
+            for (long[] range : scanRanges) {
+                addresses += range[1] - range[0] + 1;
+            }
+            if (addresses > MAX_ADDRESSES) {
+                logger.warn("The WLED scanRanges hold {} addresses, only the first {} will be scanned", addresses,
+                        MAX_ADDRESSES);
+            }
+            scanning = true;
+            rangeIndex = 0;
+            nextAddress = scanRanges.get(0)[0];
+            probesInFlight = 0;
+            probesStarted = 0;
+            found = 0;
+        }
+        logger.debug("Scanning the network for WLEDs");
+        for (int index = 0; index < MAX_CONCURRENT_PROBES; index++) {
+            probeNext();
+        }
+    }
+
+    @Override
+    protected synchronized void stopScan() {
+        super.stopScan();
+        scanning = false;
+    }
+
+    /**
+     * Starts a probe of the next address, or ends the scan once every address has been probed.
+     */
+    private void probeNext() {
+        String host;
+        synchronized (this) {
+            long address = takeNextAddress();
+            if (address == -1) {
+                if (probesInFlight == 0 && scanning) {
+                    scanning = false;
+                    logger.debug("Finished scanning the network, found {} WLEDs", found);
+                }
+                return;
+            }
+            probesInFlight++;
+            host = (address >> 24 & 0xFF) + "." + (address >> 16 & 0xFF) + "." + (address >> 8 & 0xFF) + "."
+                    + (address & 0xFF);
+        }
+        String url = "http://" + host + ":" + port;
+        try {
+            httpClient.newRequest(url + "/json/info").timeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .send(new BufferingResponseListener() {
+                        @Override
+                        public void onComplete(@Nullable Result result) {
+                            try {
+                                if (result != null && !result.isFailed()
+                                        && result.getResponse().getStatus() == 200) {
+                                    processProbe(url, getContentAsString());
+                                }
+                            } finally {
+                                synchronized (WLedNetworkDiscoveryService.this) {
+                                    probesInFlight--;
+                                }
+                                probeNext();
+                            }
+                        }
+                    });
+        } catch (RuntimeException e) {
+            logger.debug("Could not probe {} for a WLED:{}", url, e.getMessage());
+            synchronized (this) {
+                probesInFlight--;
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the lock.
+     *
+     * @return the next address to probe, or -1 when the scan is finished or stopped.
+     */
+    private long takeNextAddress() {
+        while (scanning && rangeIndex < scanRanges.size() && probesStarted < MAX_ADDRESSES) {
+            long[] range = scanRanges.get(rangeIndex);
+            if (nextAddress <= range[1]) {
+                probesStarted++;
+                return nextAddress++;
+            }
+            if (++rangeIndex < scanRanges.size()) {
+                nextAddress = scanRanges.get(rangeIndex)[0];
+            }
+        }
+        return -1;
+    }
+
+    private void processProbe(String url, @Nullable String content) {
+        if (content == null) {
+            return;
+        }
+        WLedInfo info;
+        try {
+            info = WLedInfo.parse(content);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            return; // something else answered on this address
+        }
+        if (info.version.isEmpty() || info.mac.isEmpty()) {
+            return;
+        }
+        logger.debug("WLED {} found at {} by the network scan", info.name, url);
+        synchronized (this) {
+            found++;
+        }
+        thingDiscovered(WLedDiscoveryService.createResult(url, info.mac, info.name));
+    }
+}
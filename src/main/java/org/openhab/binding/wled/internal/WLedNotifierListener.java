@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.openhab.binding.wled.internal.WLedBindingConstants.BINDING_ID;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.common.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link WLedNotifierListener} listens on one UDP socket for the sync notifications that every WLED broadcasts
+ * when its state changes, and hands each one to the handler of the WLED it came from. The socket is only open while
+ * at least one WLED is registered.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedNotifierListener {
+    public static final int PORT = 21324;
+    private static final int MAX_PACKET_LENGTH = 1472;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final NamedThreadFactory threadFactory = new NamedThreadFactory(BINDING_ID + "-notifier", true);
+    private final Map<InetAddress, WLedHandler> handlers = new ConcurrentHashMap<>();
+    private @Nullable DatagramSocket socket;
+
+    public synchronized void register(InetAddress address, WLedHandler handler) {
+        handlers.put(address, handler);
+        if (socket == null) {
+            open();
+        }
+    }
+
+    public synchronized void unregister(WLedHandler handler) {
+        handlers.values().removeIf(registered -> registered == handler);
+        if (handlers.isEmpty()) {
+            close();
+        }
+    }
+
+    public synchronized void close() {
+        DatagramSocket localSocket = socket;
+        socket = null;
+        if (localSocket != null) {
+            localSocket.close();
+        }
+    }
+
+    private void open() {
+        try {
+            DatagramSocket newSocket = new DatagramSocket(null);
+            newSocket.setReuseAddress(true);
+            newSocket.bind(new InetSocketAddress(PORT));
+            socket = newSocket;
+            threadFactory.newThread(() -> receive(newSocket)).start();
+        } catch (SocketException e) {
+            logger.debug("Could not listen for WLED sync notifications on UDP port {}, will only poll:{}", PORT,
+                    e.getMessage());
+        }
+    }
+
+    private void receive(DatagramSocket localSocket) {
+        byte[] buffer = new byte[MAX_PACKET_LENGTH];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!localSocket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                localSocket.receive(packet);
+            } catch (IOException e) {
+                if (!localSocket.isClosed()) {
+                    logger.debug("Failed to receive a WLED sync notification:{}", e.getMessage());
+                }
+                continue;
+            }
+            WLedHandler handler = handlers.get(packet.getAddress());
+            if (handler != null) {
+                handler.processNotification(buffer, packet.getLength());
+            }
+        }
+    }
+}
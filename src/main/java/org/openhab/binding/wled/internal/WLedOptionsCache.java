@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.openhab.binding.wled.internal.WLedBindingConstants.BINDING_ID;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.OpenHAB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The {@link WLedOptionsCache} keeps the FX and palette names for each firmware version in the userdata folder, so
+ * they only need to be fetched from a WLED the first time that firmware is seen, and can be shared by every WLED
+ * running the same firmware.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedOptionsCache {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Path folder = Paths.get(OpenHAB.getUserDataFolder(), BINDING_ID);
+    private final Map<String, Options> cache = new ConcurrentHashMap<>();
+
+    public static class Options {
+        public final List<String> effects;
+        public final List<String> palettes;
+
+        public Options(List<String> effects, List<String> palettes) {
+            this.effects = Collections.unmodifiableList(effects);
+            this.palettes = Collections.unmodifiableList(palettes);
+        }
+    }
+
+    /**
+     * @param firmware as returned by {@link WLedInfo#getFirmware}
+     * @return the options that were saved for this firmware, or null if it has not been seen before.
+     */
+    public @Nullable Options get(String firmware) {
+        Options options = cache.get(firmware);
+        if (options != null) {
+            return options;
+        }
+        Path file = getFile(firmware);
+        if (!Files.isReadable(file)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            options = parseOptions(reader);
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("Could not read the cached WLED options from {}:{}", file, e.getMessage());
+            return null;
+        }
+        if (options.effects.isEmpty()) {
+            return null;
+        }
+        cache.put(firmware, options);
+        return options;
+    }
+
+    public void put(String firmware, Options options) {
+        cache.put(firmware, options);
+        Path file = getFile(firmware);
+        try {
+            Files.createDirectories(folder);
+            try (Writer fileWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                    JsonWriter writer = new JsonWriter(fileWriter)) {
+                writer.beginObject();
+                writer.name("effects").beginArray();
+                for (String effect : options.effects) {
+                    writer.value(effect);
+                }
+                writer.endArray().name("palettes").beginArray();
+                for (String palette : options.palettes) {
+                    writer.value(palette);
+                }
+                writer.endArray().endObject();
+            }
+        } catch (IOException e) {
+            logger.debug("Could not save the WLED options to {}:{}", file, e.getMessage());
+        }
+    }
+
+    private Path getFile(String firmware) {
+        return folder.resolve("options-" + firmware.replaceAll("[^A-Za-z0-9._-]", "_") + ".json");
+    }
+
+    /**
+     * Streams the effects and palettes arrays out of a /json reply, or a cache file.
+     */
+    public static Options parseOptions(String json) throws IOException {
+        return parseOptions(new StringReader(json));
+    }
+
+    private static Options parseOptions(Reader json) throws IOException {
+        List<String> effects = new ArrayList<>();
+        List<String> palettes = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(json)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("effects".equals(name)) {
+                    readStrings(reader, effects);
+                } else if ("palettes".equals(name)) {
+                    readStrings(reader, palettes);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return new Options(effects, palettes);
+    }
+
+    private static void readStrings(JsonReader reader, List<String> list) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            list.add(reader.nextString());
+        }
+        reader.endArray();
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link WLedPreview} turns the colours that a WLED reports from /json/live into a short list of colours, one for
+ * each bucket of LEDs along the strip, like FF0000,FF8000,0000FF. The same buffers get reused for every reply, so a
+ * preview only creates a String when it changes.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedPreview {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private final int buckets;
+    private final int[] red;
+    private final int[] green;
+    private final int[] blue;
+    private final StringBuilder builder;
+    private int[] colours = new int[256];
+    private String preview = "";
+
+    public WLedPreview(int buckets) {
+        this.buckets = buckets;
+        red = new int[buckets];
+        green = new int[buckets];
+        blue = new int[buckets];
+        builder = new StringBuilder(buckets * 7);
+    }
+
+    /**
+     * Reads the leds array of a /json/live reply, like {"leds":["FF0000","00FF00"],"n":1}, in a single pass and
+     * without creating any substrings.
+     *
+     * @return the new preview, or null if it is the same as last time or the reply held no LEDs.
+     */
+    public @Nullable String update(String json) {
+        int count = readColours(json);
+        if (count == 0) {
+            return null;
+        }
+        int used = Math.min(buckets, count);
+        for (int bucket = 0; bucket < used; bucket++) {
+            int start = bucket * count / used;
+            int end = (bucket + 1) * count / used;
+            int r = 0, g = 0, b = 0;
+            for (int i = start; i < end; i++) {
+                r += colours[i] >> 16 & 0xFF;
+                g += colours[i] >> 8 & 0xFF;
+                b += colours[i] & 0xFF;
+            }
+            int size = end - start;
+            red[bucket] = r / size;
+            green[bucket] = g / size;
+            blue[bucket] = b / size;
+        }
+        builder.setLength(0);
+        for (int bucket = 0; bucket < used; bucket++) {
+            if (bucket > 0) {
+                builder.append(',');
+            }
+            appendHex(red[bucket]);
+            appendHex(green[bucket]);
+            appendHex(blue[bucket]);
+        }
+        if (preview.contentEquals(builder)) {
+            return null;
+        }
+        preview = builder.toString();
+        return preview;
+    }
+
+    private void appendHex(int value) {
+        builder.append(HEX[value >> 4]).append(HEX[value & 0xF]);
+    }
+
+    /**
+     * Some firmware puts the white in the top byte, so only the lowest 24 bits of each colour are kept.
+     *
+     * @return how many colours were read into the colours buffer.
+     */
+    private int readColours(String json) {
+        int index = json.indexOf("\"leds\"");
+        if (index == -1) {
+            return 0;
+        }
+        index = json.indexOf('[', index);
+        int length = json.length();
+        int count = 0;
+        while (index != -1 && index < length) {
+            char c = json.charAt(index);
+            if (c == ']') {
+                break;
+            }
+            if (c != '"') {
+                index++;
+                continue;
+            }
+            int value = 0;
+            for (index++; index < length; index++) {
+                int digit = Character.digit(json.charAt(index), 16);
+                if (digit == -1) {
+                    break;
+                }
+                value = value << 4 | digit;
+            }
+            index++; // closing quote
+            if (count == colours.length) {
+                int[] larger = new int[count * 2];
+                System.arraycopy(colours, 0, larger, 0, count);
+                colours = larger;
+            }
+            colours[count++] = value & 0xFFFFFF;
+        }
+        return count;
+    }
+}
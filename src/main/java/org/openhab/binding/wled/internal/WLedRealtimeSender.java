@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link WLedRealtimeSender} streams a frame of LED colours to a WLED over UDP using one of the realtime protocols
+ * that WLED accepts. Frames can be set as often as wanted, but only the latest one gets sent, at no more than the
+ * configured frames per second. The last frame is resent every second so WLED stays in realtime mode, until no new
+ * frame has been set for a few seconds and WLED is left to time out and go back to what it was doing.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedRealtimeSender {
+    public static final int DDP_PORT = 4048;
+    public static final int REALTIME_PORT = 21324;
+    private static final int DDP_HEADER_LENGTH = 10;
+    private static final int DDP_MAX_LEDS = 480; // 1440 bytes of data fits in one ethernet frame
+    private static final int WARLS_MAX_LEDS = 255;
+    private static final int DRGB_MAX_LEDS = 490;
+    private static final int DNRGB_MAX_LEDS = 489;
+    private static final int MAX_PACKET_LENGTH = 2 + DRGB_MAX_LEDS * 3;
+    private static final int TIMEOUT_SECONDS = 2;
+    private static final long KEEP_ALIVE_NS = TimeUnit.SECONDS.toNanos(1);
+    private static final long IDLE_NS = TimeUnit.SECONDS.toNanos(5);
+
+    public enum Protocol {
+        DDP,
+        WARLS,
+        DRGB,
+        DNRGB
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Protocol protocol;
+    private final int ledCount;
+    private final long framePeriodUs;
+    private final ScheduledExecutorService scheduler;
+    private final DatagramSocket socket;
+    private final DatagramPacket packet;
+    private final byte[] packetBuffer = new byte[MAX_PACKET_LENGTH];
+    private final byte[] frame;
+    private final byte[] sendFrame;
+    private boolean dirty = false;
+    private long lastFrameSetNs = 0;
+    private long lastSentNs = 0;
+    private int sequence = 0;
+    // only the sender task writes these, as a fixed rate task never overlaps itself, and close() reads them
+    private volatile long framesSent = 0;
+    private volatile long packetsSent = 0;
+    private @Nullable ScheduledFuture<?> senderFuture = null;
+
+    public WLedRealtimeSender(InetAddress address, Protocol protocol, int ledCount, int fps,
+            ScheduledExecutorService scheduler) throws SocketException {
+        this(address, protocol == Protocol.DDP ? DDP_PORT : REALTIME_PORT, protocol, ledCount, fps, scheduler);
+    }
+
+    /**
+     * @param port to send to instead of the standard port of the protocol, which lets tests listen on any free port.
+     */
+    WLedRealtimeSender(InetAddress address, int port, Protocol protocol, int ledCount, int fps,
+            ScheduledExecutorService scheduler) throws SocketException {
+        if (protocol == Protocol.WARLS && ledCount > WARLS_MAX_LEDS) {
+            throw new IllegalArgumentException("WARLS can only address " + WARLS_MAX_LEDS + " LEDs, use DNRGB or DDP");
+        }
+        if (protocol == Protocol.DRGB && ledCount > DRGB_MAX_LEDS) {
+            throw new IllegalArgumentException("DRGB can only address " + DRGB_MAX_LEDS + " LEDs, use DNRGB or DDP");
+        }
+        this.protocol = protocol;
+        this.ledCount = ledCount;
+        this.framePeriodUs = 1_000_000L / Math.max(1, fps);
+        this.scheduler = scheduler;
+        frame = new byte[ledCount * 3];
+        sendFrame = new byte[ledCount * 3];
+        socket = new DatagramSocket();
+        packet = new DatagramPacket(packetBuffer, packetBuffer.length, address, port);
+    }
+
+    public int getLedCount() {
+        return ledCount;
+    }
+
+    /**
+     * @param colours one 0xRRGGBB value per LED, any LEDs past the end of the array are turned off.
+     */
+    public void setFrame(int[] colours) {
+        synchronized (frame) {
+            for (int led = 0; led < ledCount; led++) {
+                int colour = led < colours.length ? colours[led] : 0;
+                frame[led * 3] = (byte) (colour >> 16);
+                frame[led * 3 + 1] = (byte) (colour >> 8);
+                frame[led * 3 + 2] = (byte) colour;
+            }
+            frameChanged();
+        }
+    }
+
+    /**
+     * Fades every LED from the start colour at the first LED to the end colour at the last LED.
+     */
+    public void setGradient(int startColour, int endColour) {
+        synchronized (frame) {
+            int last = Math.max(1, ledCount - 1);
+            for (int channel = 0; channel < 3; channel++) {
+                int shift = 16 - channel * 8;
+                int start = startColour >> shift & 0xFF;
+                int end = endColour >> shift & 0xFF;
+                for (int led = 0; led < ledCount; led++) {
+                    frame[led * 3 + channel] = (byte) (start + (end - start) * led / last);
+                }
+            }
+            frameChanged();
+        }
+    }
+
+    private void frameChanged() {
+        dirty = true;
+        lastFrameSetNs = System.nanoTime();
+        if (senderFuture == null) {
+            senderFuture = scheduler.scheduleAtFixedRate(this::sendLatestFrame, 0, framePeriodUs,
+                    TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /**
+     * Stops streaming, WLED goes back to its normal state once its realtime timeout runs out.
+     */
+    public void stop() {
+        synchronized (frame) {
+            ScheduledFuture<?> localFuture = senderFuture;
+            if (localFuture != null) {
+                localFuture.cancel(false);
+                senderFuture = null;
+            }
+            dirty = false;
+        }
+    }
+
+    public void close() {
+        stop();
+        socket.close();
+        logger.debug("WLED realtime sender closed after sending {} frames in {} packets", framesSent, packetsSent);
+    }
+
+    private void sendLatestFrame() {
+        long now = System.nanoTime();
+        synchronized (frame) {
+            if (!dirty) {
+                if (now - lastFrameSetNs > IDLE_NS) {
+                    stop();
+                    return;
+                }
+                if (now - lastSentNs < KEEP_ALIVE_NS) {
+                    return;
+                }
+            }
+            System.arraycopy(frame, 0, sendFrame, 0, frame.length);
+            dirty = false;
+            lastSentNs = now;
+        }
+        try {
+            switch (protocol) {
+                case DDP:
+                    sendDdp();
+                    break;
+                case WARLS:
+                    sendWarls();
+                    break;
+                case DRGB:
+                    sendDrgb();
+                    break;
+                case DNRGB:
+                    sendDnrgb();
+                    break;
+            }
+            framesSent++;
+        } catch (IOException e) {
+            logger.debug("Could not send a realtime frame to the WLED:{}", e.getMessage());
+        }
+    }
+
+    /**
+     * DDP splits the frame into packets of up to 480 LEDs, and sets the push flag on the last one so WLED shows the
+     * whole frame at once.
+     */
+    private void sendDdp() throws IOException {
+        sequence = sequence % 15 + 1;
+        int length = sendFrame.length;
+        for (int offset = 0; offset < length; offset += DDP_MAX_LEDS * 3) {
+            int dataLength = Math.min(DDP_MAX_LEDS * 3, length - offset);
+            boolean last = offset + dataLength >= length;
+            packetBuffer[0] = (byte) (last ? 0x41 : 0x40); // version 1, push on the last packet
+            packetBuffer[1] = (byte) sequence;
+            packetBuffer[2] = 0x0B; // RGB, 8 bits per channel
+            packetBuffer[3] = 1; // default output device
+            packetBuffer[4] = (byte) (offset >> 24);
+            packetBuffer[5] = (byte) (offset >> 16);
+            packetBuffer[6] = (byte) (offset >> 8);
+            packetBuffer[7] = (byte) offset;
+            packetBuffer[8] = (byte) (dataLength >> 8);
+            packetBuffer[9] = (byte) dataLength;
+            System.arraycopy(sendFrame, offset, packetBuffer, DDP_HEADER_LENGTH, dataLength);
+            send(DDP_HEADER_LENGTH + dataLength);
+        }
+    }
+
+    private void sendWarls() throws IOException {
+        packetBuffer[0] = 1;
+        packetBuffer[1] = TIMEOUT_SECONDS;
+        int position = 2;
+        for (int led = 0; led < ledCount; led++) {
+            packetBuffer[position++] = (byte) led;
+            packetBuffer[position++] = sendFrame[led * 3];
+            packetBuffer[position++] = sendFrame[led * 3 + 1];
+            packetBuffer[position++] = sendFrame[led * 3 + 2];
+        }
+        send(position);
+    }
+
+    private void sendDrgb() throws IOException {
+        packetBuffer[0] = 2;
+        packetBuffer[1] = TIMEOUT_SECONDS;
+        System.arraycopy(sendFrame, 0, packetBuffer, 2, sendFrame.length);
+        send(2 + sendFrame.length);
+    }
+
+    private void sendDnrgb() throws IOException {
+        for (int start = 0; start < ledCount; start += DNRGB_MAX_LEDS) {
+            int leds = Math.min(DNRGB_MAX_LEDS, ledCount - start);
+            packetBuffer[0] = 4;
+            packetBuffer[1] = TIMEOUT_SECONDS;
+            packetBuffer[2] = (byte) (start >> 8);
+            packetBuffer[3] = (byte) start;
+            System.arraycopy(sendFrame, start * 3, packetBuffer, 4, leds * 3);
+            send(4 + leds * 3);
+        }
+    }
+
+    private void send(int length) throws IOException {
+        packet.setLength(length);
+        socket.send(packet);
+        packetsSent++;
+    }
+
+    /**
+     * @param colours a comma separated list of hex colours, like FF0000,00FF00 or #FF0000,#00FF00
+     */
+    public static int[] parseColours(String colours) {
+        String[] parts = colours.split(",");
+        int[] result = new int[parts.length];
+        for (int index = 0; index < parts.length; index++) {
+            result[index] = parseColour(parts[index]);
+        }
+        return result;
+    }
+
+    public static int parseColour(String colour) {
+        String hex = colour.trim();
+        if (hex.startsWith("#")) {
+            hex = hex.substring(1);
+        }
+        return Integer.parseInt(hex, 16) & 0xFFFFFF;
+    }
+}
@@ -0,0 +1,393 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The {@link WLedState} holds the raw 0-255 values that a WLED reports, so the same object can be refilled on every
+ * poll without creating any garbage. A value of -1 means the WLED did not report it.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedState {
+    private static final int TAG_AC = 'a' << 8 | 'c';
+    private static final int TAG_CL = 'c' << 8 | 'l';
+    private static final int TAG_CS = 'c' << 8 | 's';
+    private static final int TAG_CY = 'c' << 8 | 'y';
+    private static final int TAG_FP = 'f' << 8 | 'p';
+    private static final int TAG_FX = 'f' << 8 | 'x';
+    private static final int TAG_IX = 'i' << 8 | 'x';
+    private static final int TAG_NL = 'n' << 8 | 'l';
+    private static final int TAG_SX = 's' << 8 | 'x';
+    private static final int TAG_WS = 'w' << 8 | 's';
+    private static final int TAG_WV = 'w' << 8 | 'v';
+
+    private static final int NOTIFIER_LENGTH = 20;
+
+    public static final int MAX_SEGMENTS = 16;
+
+    public int masterBrightness;
+    public final int[] primary = new int[3];
+    public final int[] secondary = new int[3];
+    public int primaryWhite;
+    public int secondaryWhite;
+    public int fx;
+    public int speed;
+    public int intensity;
+    public int palette;
+    public int presetCycle;
+    public int sleep;
+    public int segmentCount;
+    public final int[] segmentId = new int[MAX_SEGMENTS];
+    public final int[] segmentColour = new int[MAX_SEGMENTS];
+    public final int[] segmentFx = new int[MAX_SEGMENTS];
+    public final int[] segmentSpeed = new int[MAX_SEGMENTS];
+    public final int[] segmentIntensity = new int[MAX_SEGMENTS];
+    public final int[] segmentPalette = new int[MAX_SEGMENTS];
+    private final int[] colourBuffer = new int[3];
+    private boolean on;
+    private int brightness;
+
+    public WLedState() {
+        reset();
+        Arrays.fill(segmentFx, -1);
+        Arrays.fill(segmentSpeed, -1);
+        Arrays.fill(segmentIntensity, -1);
+        Arrays.fill(segmentPalette, -1);
+    }
+
+    public void reset() {
+        masterBrightness = -1;
+        primary[0] = primary[1] = primary[2] = 0;
+        secondary[0] = secondary[1] = secondary[2] = 0;
+        primaryWhite = secondaryWhite = -1;
+        fx = speed = intensity = palette = -1;
+        presetCycle = sleep = -1;
+    }
+
+    public void copyFrom(WLedState other) {
+        masterBrightness = other.masterBrightness;
+        System.arraycopy(other.primary, 0, primary, 0, 3);
+        System.arraycopy(other.secondary, 0, secondary, 0, 3);
+        primaryWhite = other.primaryWhite;
+        secondaryWhite = other.secondaryWhite;
+        fx = other.fx;
+        speed = other.speed;
+        intensity = other.intensity;
+        palette = other.palette;
+        presetCycle = other.presetCycle;
+        sleep = other.sleep;
+        segmentCount = other.segmentCount;
+        System.arraycopy(other.segmentId, 0, segmentId, 0, segmentCount);
+        System.arraycopy(other.segmentColour, 0, segmentColour, 0, segmentCount);
+        System.arraycopy(other.segmentFx, 0, segmentFx, 0, segmentCount);
+        System.arraycopy(other.segmentSpeed, 0, segmentSpeed, 0, segmentCount);
+        System.arraycopy(other.segmentIntensity, 0, segmentIntensity, 0, segmentCount);
+        System.arraycopy(other.segmentPalette, 0, segmentPalette, 0, segmentCount);
+    }
+
+    /**
+     * @return true if both states hold the same segments in the same order.
+     */
+    public boolean hasSameSegments(WLedState other) {
+        if (segmentCount != other.segmentCount) {
+            return false;
+        }
+        for (int i = 0; i < segmentCount; i++) {
+            if (segmentId[i] != other.segmentId[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills this state from the XML that WLED replies with to a /win request, in a single pass over the message and
+     * without creating any substrings. Only two letter tags that hold a whole number are looked at, like
+     * &lt;ac&gt;128&lt;/ac&gt;.
+     *
+     * @return false if the message did not hold the master brightness, so was not a state reply.
+     */
+    public boolean parseXml(String message) {
+        reset();
+        int primaryIndex = 0;
+        int secondaryIndex = 0;
+        int length = message.length();
+        int index = message.indexOf('<');
+        while (index != -1 && index + 4 < length) {
+            if (message.charAt(index + 3) != '>' || message.charAt(index + 1) == '/') {
+                index = message.indexOf('<', index + 1);
+                continue;
+            }
+            int tag = message.charAt(index + 1) << 8 | message.charAt(index + 2);
+            int position = index + 4;
+            boolean negative = message.charAt(position) == '-';
+            if (negative) {
+                position++;
+            }
+            int value = 0;
+            int start = position;
+            while (position < length) {
+                char digit = message.charAt(position);
+                if (digit < '0' || digit > '9') {
+                    break;
+                }
+                value = value * 10 + (digit - '0');
+                position++;
+            }
+            if (position > start) {
+                if (negative) {
+                    value = -value;
+                }
+                switch (tag) {
+                    case TAG_AC:
+                        masterBrightness = value;
+                        break;
+                    case TAG_CL:
+                        if (primaryIndex < 3) {
+                            primary[primaryIndex++] = value;
+                        }
+                        break;
+                    case TAG_CS:
+                        if (secondaryIndex < 3) {
+                            secondary[secondaryIndex++] = value;
+                        }
+                        break;
+                    case TAG_CY:
+                        presetCycle = value;
+                        break;
+                    case TAG_FP:
+                        palette = value;
+                        break;
+                    case TAG_FX:
+                        fx = value;
+                        break;
+                    case TAG_IX:
+                        intensity = value;
+                        break;
+                    case TAG_NL:
+                        sleep = value;
+                        break;
+                    case TAG_SX:
+                        speed = value;
+                        break;
+                    case TAG_WS:
+                        secondaryWhite = value;
+                        break;
+                    case TAG_WV:
+                        primaryWhite = value;
+                        break;
+                }
+            }
+            index = message.indexOf('<', position);
+        }
+        return masterBrightness != -1;
+    }
+
+    /**
+     * Fills this state from a UDP sync notification, which WLED broadcasts on port 21324 each time its state changes.
+     * The packet holds no segments or preset cycle, so they are left as they were. It always holds a white value, so
+     * the white is only read if this state already has one, which shows the WLED has white LEDs.
+     *
+     * @return false if the packet is not a WLED sync notification.
+     */
+    public boolean parseNotifier(byte[] packet, int length) {
+        if (length < NOTIFIER_LENGTH || packet[0] != 0) {
+            return false;
+        }
+        int version = packet[11] & 0xFF;
+        masterBrightness = packet[2] & 0xFF;
+        primary[0] = packet[3] & 0xFF;
+        primary[1] = packet[4] & 0xFF;
+        primary[2] = packet[5] & 0xFF;
+        sleep = packet[6] != 0 ? 1 : 0;
+        if (version > 0 && primaryWhite != -1) {
+            primaryWhite = packet[10] & 0xFF;
+        }
+        if (version > 1) {
+            secondary[0] = packet[12] & 0xFF;
+            secondary[1] = packet[13] & 0xFF;
+            secondary[2] = packet[14] & 0xFF;
+            if (secondaryWhite != -1) {
+                secondaryWhite = packet[15] & 0xFF;
+            }
+        }
+        if (version < 200) { // WLED itself ignores the effect in packets with a version of 200 or more
+            fx = packet[8] & 0xFF;
+            speed = packet[9] & 0xFF;
+            if (version > 2) {
+                intensity = packet[16] & 0xFF;
+            }
+            if (version > 4) {
+                palette = packet[19] & 0xFF;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills this state from the JSON API, either a /json/state reply or the {"state":{..},"info":{..}} that the
+     * websocket sends. The JSON is streamed, so no object tree gets built, and any value that is missing from the
+     * message is left as it was.
+     *
+     * @return false if the message did not hold the brightness, so was not a state message.
+     */
+    public boolean parseJson(String json) throws IOException {
+        on = masterBrightness != 0;
+        brightness = -1;
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("state".equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        readStateMember(reader, reader.nextName());
+                    }
+                    reader.endObject();
+                } else {
+                    readStateMember(reader, name);
+                }
+            }
+            reader.endObject();
+        }
+        if (brightness == -1) {
+            return false;
+        }
+        masterBrightness = on ? brightness : 0;
+        return true;
+    }
+
+    private void readStateMember(JsonReader reader, String name) throws IOException {
+        switch (name) {
+            case "on":
+                on = reader.nextBoolean();
+                break;
+            case "bri":
+                brightness = reader.nextInt();
+                break;
+            case "nl":
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("on".equals(reader.nextName())) {
+                        sleep = reader.nextBoolean() ? 1 : 0;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                break;
+            case "seg":
+                if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    break;
+                }
+                reader.beginArray();
+                segmentCount = 0;
+                while (reader.hasNext()) {
+                    if (segmentCount < MAX_SEGMENTS) {
+                        readSegment(reader, segmentCount++);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+                break;
+            default:
+                reader.skipValue();
+        }
+    }
+
+    /**
+     * Reads one segment. The first segment is also used for the main FX, palette and colours.
+     */
+    private void readSegment(JsonReader reader, int index) throws IOException {
+        segmentId[index] = index;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    segmentId[index] = reader.nextInt();
+                    break;
+                case "fx":
+                    segmentFx[index] = reader.nextInt();
+                    break;
+                case "sx":
+                    segmentSpeed[index] = reader.nextInt();
+                    break;
+                case "ix":
+                    segmentIntensity[index] = reader.nextInt();
+                    break;
+                case "pal":
+                    segmentPalette[index] = reader.nextInt();
+                    break;
+                case "col":
+                    reader.beginArray();
+                    for (int colour = 0; reader.hasNext(); colour++) {
+                        if (colour == 0) {
+                            int white = readColour(reader, colourBuffer);
+                            segmentColour[index] = colourBuffer[0] << 16 | colourBuffer[1] << 8 | colourBuffer[2];
+                            if (index == 0) {
+                                System.arraycopy(colourBuffer, 0, primary, 0, 3);
+                                primaryWhite = white;
+                            }
+                        } else if (colour == 1 && index == 0) {
+                            secondaryWhite = readColour(reader, secondary);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (index == 0) {
+            fx = segmentFx[0];
+            speed = segmentSpeed[0];
+            intensity = segmentIntensity[0];
+            palette = segmentPalette[0];
+        }
+    }
+
+    /**
+     * Reads a [r,g,b] or [r,g,b,w] array into the rgb array.
+     *
+     * @return the white value, or -1 if the WLED has no white LEDs.
+     */
+    private static int readColour(JsonReader reader, int[] rgb) throws IOException {
+        int white = -1;
+        reader.beginArray();
+        for (int index = 0; reader.hasNext(); index++) {
+            int value = reader.nextInt();
+            if (index < 3) {
+                rgb[index] = value;
+            } else if (index == 3) {
+                white = value;
+            }
+        }
+        reader.endArray();
+        return white;
+    }
+}
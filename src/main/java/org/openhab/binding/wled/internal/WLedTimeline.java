@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jetty.client.api.Request;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * The {@link WLedTimeline} plays a scene, which is a list of JSON states that get sent to WLEDs or groups at set times
+ * from the start. Every request is built when the scene is loaded, and each step is woken a little early by the
+ * scheduler and then waits for its exact time, so all the WLEDs in a step get their request within a tight window no
+ * matter how long the scene runs for.
+ *
+ * A scene file looks like:
+ *
+ * <pre>
+ * {"steps":[
+ *   {"at":0, "things":["wled:wled:tree", "wled:group:garden"], "state":{"on":true, "bri":255}},
+ *   {"at":1500, "things":["wled:wled:tree"], "state":{"seg":[{"col":[[255,0,0]]}]}}
+ * ]}
+ * </pre>
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedTimeline {
+    private static final long START_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long WAKE_EARLY_NS = TimeUnit.MILLISECONDS.toNanos(2);
+    private final List<Step> steps;
+    private final int requests;
+    private final List<ScheduledFuture<?>> scheduled = new ArrayList<>();
+    private final CompletableFuture<String> finished = new CompletableFuture<>();
+    private final AtomicInteger fired = new AtomicInteger();
+
+    private static class Step {
+        private final long offsetNs;
+        private final List<Request> requests = new ArrayList<>();
+        private long driftNs;
+        private long dispatchNs;
+        private long firstReplyNs = Long.MAX_VALUE;
+        private long lastReplyNs = Long.MIN_VALUE;
+
+        private Step(long offsetNs) {
+            this.offsetNs = offsetNs;
+        }
+    }
+
+    private WLedTimeline(List<Step> steps, int requests) {
+        this.steps = steps;
+        this.requests = requests;
+    }
+
+    /**
+     * @param resolver gives the WLEDs for a Thing UID, which is every member if the Thing is a group.
+     */
+    public static WLedTimeline load(Path file, Function<String, List<WLedHandler>> resolver) throws IOException {
+        Gson gson = new Gson();
+        Map<Long, Step> steps = new TreeMap<>();
+        int requests = 0;
+        try (Reader fileReader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                JsonReader reader = new JsonReader(fileReader)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"steps".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    long at = -1;
+                    List<String> things = new ArrayList<>();
+                    String state = null;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "at":
+                                at = reader.nextLong();
+                                break;
+                            case "things":
+                                reader.beginArray();
+                                while (reader.hasNext()) {
+                                    things.add(reader.nextString());
+                                }
+                                reader.endArray();
+                                break;
+                            case "state":
+                                JsonElement json = gson.fromJson(reader, JsonElement.class);
+                                state = json == null ? null : json.toString();
+                                break;
+                            default:
+                                reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    if (at < 0 || state == null || things.isEmpty()) {
+                        throw new IOException("every step needs an at, things and state");
+                    }
+                    Step step = steps.computeIfAbsent(at, k -> new Step(TimeUnit.MILLISECONDS.toNanos(k)));
+                    for (String thing : things) {
+                        List<WLedHandler> handlers = resolver.apply(thing);
+                        if (handlers.isEmpty()) {
+                            throw new IOException("no WLEDs found for " + thing);
+                        }
+                        for (WLedHandler handler : handlers) {
+                            step.requests.add(handler.createStateRequest(state));
+                            requests++;
+                        }
+                    }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return new WLedTimeline(new ArrayList<>(steps.values()), requests);
+    }
+
+    /**
+     * Schedules the steps and returns straight away. A timeline can only be played once, as the requests get used up.
+     *
+     * @return the drift and jitter of the run once every request has had a reply or failed.
+     */
+    public synchronized CompletableFuture<String> play(ScheduledExecutorService scheduler) {
+        if (!scheduled.isEmpty() || finished.isDone()) {
+            throw new IllegalStateException("a timeline can only be played once");
+        }
+        AtomicInteger remaining = new AtomicInteger(requests);
+        AtomicInteger failures = new AtomicInteger();
+        if (requests == 0) {
+            finished.complete("the scene has no steps");
+            return finished;
+        }
+        long startNs = System.nanoTime() + START_DELAY_NS;
+        for (Step step : steps) {
+            long delay = startNs + step.offsetNs - WAKE_EARLY_NS - System.nanoTime();
+            scheduled.add(scheduler.schedule(() -> fire(step, startNs, remaining, failures, finished),
+                    Math.max(0, delay), TimeUnit.NANOSECONDS));
+        }
+        return finished;
+    }
+
+    /**
+     * Cancels the steps that have not fired yet. Requests that were already sent still get their replies.
+     *
+     * @return false if the scene had already finished.
+     */
+    public synchronized boolean stop() {
+        if (finished.isDone()) {
+            return false;
+        }
+        for (ScheduledFuture<?> future : scheduled) {
+            future.cancel(false);
+        }
+        return finished.complete(String.format("stopped after %d of %d steps", fired.get(), steps.size()));
+    }
+
+    public boolean isFinished() {
+        return finished.isDone();
+    }
+
+    private void fire(Step step, long startNs, AtomicInteger remaining, AtomicInteger failures,
+            CompletableFuture<String> future) {
+        long targetNs = startNs + step.offsetNs;
+        long waitNs;
+        while ((waitNs = targetNs - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(Math.min(waitNs, 50_000));
+        }
+        if (finished.isDone()) {
+            return; // stopped while this step waited for its time
+        }
+        long firedNs = System.nanoTime();
+        fired.incrementAndGet();
+        step.driftNs = firedNs - targetNs;
+        for (Request request : step.requests) {
+            request.send(result -> {
+                long replyNs = System.nanoTime() - firedNs;
+                synchronized (step) {
+                    step.firstReplyNs = Math.min(step.firstReplyNs, replyNs);
+                    step.lastReplyNs = Math.max(step.lastReplyNs, replyNs);
+                }
+                if (result.isFailed() || result.getResponse().getStatus() != 200) {
+                    failures.incrementAndGet();
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    future.complete(summarise(failures.get()));
+                }
+            });
+        }
+        step.dispatchNs = System.nanoTime() - firedNs;
+    }
+
+    private String summarise(int failures) {
+        long maxDrift = 0;
+        long totalDrift = 0;
+        long maxDispatch = 0;
+        long maxReplySpread = 0;
+        long maxReply = 0;
+        for (Step step : steps) {
+            synchronized (step) {
+                maxDrift = Math.max(maxDrift, Math.abs(step.driftNs));
+                totalDrift += Math.abs(step.driftNs);
+                maxDispatch = Math.max(maxDispatch, step.dispatchNs);
+                maxReplySpread = Math.max(maxReplySpread, step.lastReplyNs - step.firstReplyNs);
+                maxReply = Math.max(maxReply, step.lastReplyNs);
+            }
+        }
+        return String.format(
+                "%d steps, %d requests, %d failed. Drift avg %d us max %d us. Dispatch max %d us. "
+                        + "Reply spread within a step max %d ms, slowest reply %d ms",
+                steps.size(), requests, failures, totalDrift / steps.size() / 1000, maxDrift / 1000,
+                maxDispatch / 1000, TimeUnit.NANOSECONDS.toMillis(maxReplySpread),
+                TimeUnit.NANOSECONDS.toMillis(maxReply));
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.openhab.binding.wled.internal.WLedBindingConstants.BINDING_ID;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.core.OpenHAB;
+import org.openhab.core.thing.ThingUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The {@link WLedWarmStart} saves the last known state of each WLED in the userdata folder, so it can be shown the
+ * moment openHAB starts, and then lets only a few WLEDs at a time send their first requests, so a restart does not
+ * flood the network.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedWarmStart {
+    private static final int MAX_CONCURRENT = 4;
+    private static final long TIMEOUT_MS = 5000;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Path folder = Paths.get(OpenHAB.getUserDataFolder(), BINDING_ID);
+    private final ScheduledExecutorService scheduler;
+    private final Deque<WLedHandler> waiting = new ArrayDeque<>();
+    // each WLED that is warming up gets its own slot, so an old timeout can not end a later warm up of the same WLED
+    private final Map<WLedHandler, Slot> running = new HashMap<>();
+
+    public WLedWarmStart(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Calls {@link WLedHandler#warmUp} once fewer than {@link #MAX_CONCURRENT} WLEDs are warming up. The handler must
+     * call {@link #finished} when its first reply arrives, or the next WLED is started after a timeout anyway.
+     */
+    public synchronized void queue(WLedHandler handler) {
+        waiting.add(handler);
+        startNext();
+    }
+
+    public synchronized void finished(WLedHandler handler) {
+        waiting.remove(handler);
+        Slot slot = running.remove(handler);
+        if (slot != null) {
+            ScheduledFuture<?> timeout = slot.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            startNext();
+        }
+    }
+
+    private synchronized void timedOut(WLedHandler handler, Slot slot) {
+        if (running.remove(handler, slot)) {
+            logger.debug("WLED {} did not reply in time, starting the next WLED", handler.getThing().getUID());
+            startNext();
+        }
+    }
+
+    private void startNext() {
+        while (running.size() < MAX_CONCURRENT && !waiting.isEmpty()) {
+            WLedHandler handler = waiting.poll();
+            Slot slot = new Slot();
+            running.put(handler, slot);
+            slot.timeout = scheduler.schedule(() -> timedOut(handler, slot), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            scheduler.execute(handler::warmUp);
+        }
+    }
+
+    /**
+     * @return false if no state was saved for this Thing, or it could not be read.
+     */
+    public boolean restore(ThingUID thingUID, WLedState state) {
+        Path file = getFile(thingUID);
+        if (!Files.isReadable(file)) {
+            return false;
+        }
+        try (Reader fileReader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                JsonReader reader = new JsonReader(fileReader)) {
+            readState(reader, state);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            logger.debug("Could not read the saved WLED state from {}:{}", file, e.getMessage());
+            state.reset();
+            state.segmentCount = 0;
+            return false;
+        }
+        return state.masterBrightness != -1;
+    }
+
+    public void save(ThingUID thingUID, WLedState state) {
+        Path file = getFile(thingUID);
+        try {
+            Files.createDirectories(folder);
+            try (Writer fileWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                    JsonWriter writer = new JsonWriter(fileWriter)) {
+                writeState(writer, state);
+            }
+        } catch (IOException e) {
+            logger.debug("Could not save the WLED state to {}:{}", file, e.getMessage());
+        }
+    }
+
+    public void delete(ThingUID thingUID) {
+        try {
+            Files.deleteIfExists(getFile(thingUID));
+        } catch (IOException e) {
+            logger.debug("Could not delete the saved WLED state:{}", e.getMessage());
+        }
+    }
+
+    private Path getFile(ThingUID thingUID) {
+        return folder.resolve("state-" + thingUID.getAsString().replaceAll("[^A-Za-z0-9._-]", "_") + ".json");
+    }
+
+    private static void writeState(JsonWriter writer, WLedState state) throws IOException {
+        writer.beginObject();
+        writer.name("bri").value(state.masterBrightness);
+        writer.name("cl").beginArray().value(state.primary[0]).value(state.primary[1]).value(state.primary[2])
+                .endArray();
+        writer.name("cs").beginArray().value(state.secondary[0]).value(state.secondary[1]).value(state.secondary[2])
+                .endArray();
+        writer.name("wv").value(state.primaryWhite);
+        writer.name("ws").value(state.secondaryWhite);
+        writer.name("fx").value(state.fx);
+        writer.name("sx").value(state.speed);
+        writer.name("ix").value(state.intensity);
+        writer.name("fp").value(state.palette);
+        writer.name("cy").value(state.presetCycle);
+        writer.name("nl").value(state.sleep);
+        writer.name("seg").beginArray();
+        for (int i = 0; i < state.segmentCount; i++) {
+            writer.beginArray().value(state.segmentId[i]).value(state.segmentColour[i]).value(state.segmentFx[i])
+                    .value(state.segmentSpeed[i]).value(state.segmentIntensity[i]).value(state.segmentPalette[i])
+                    .endArray();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    private static void readState(JsonReader reader, WLedState state) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "bri":
+                    state.masterBrightness = reader.nextInt();
+                    break;
+                case "cl":
+                    readInts(reader, state.primary);
+                    break;
+                case "cs":
+                    readInts(reader, state.secondary);
+                    break;
+                case "wv":
+                    state.primaryWhite = reader.nextInt();
+                    break;
+                case "ws":
+                    state.secondaryWhite = reader.nextInt();
+                    break;
+                case "fx":
+                    state.fx = reader.nextInt();
+                    break;
+                case "sx":
+                    state.speed = reader.nextInt();
+                    break;
+                case "ix":
+                    state.intensity = reader.nextInt();
+                    break;
+                case "fp":
+                    state.palette = reader.nextInt();
+                    break;
+                case "cy":
+                    state.presetCycle = reader.nextInt();
+                    break;
+                case "nl":
+                    state.sleep = reader.nextInt();
+                    break;
+                case "seg":
+                    state.segmentCount = 0;
+                    reader.beginArray();
+                    int[] segment = new int[6];
+                    while (reader.hasNext()) {
+                        readInts(reader, segment);
+                        int i = state.segmentCount;
+                        if (i < WLedState.MAX_SEGMENTS) {
+                            state.segmentId[i] = segment[0];
+                            state.segmentColour[i] = segment[1];
+                            state.segmentFx[i] = segment[2];
+                            state.segmentSpeed[i] = segment[3];
+                            state.segmentIntensity[i] = segment[4];
+                            state.segmentPalette[i] = segment[5];
+                            state.segmentCount++;
+                        }
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readInts(JsonReader reader, int[] values) throws IOException {
+        reader.beginArray();
+        for (int index = 0; reader.hasNext(); index++) {
+            int value = reader.nextInt();
+            if (index < values.length) {
+                values[index] = value;
+            }
+        }
+        reader.endArray();
+    }
+
+    private static class Slot {
+        private @Nullable ScheduledFuture<?> timeout;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketError;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link WLedWebSocket} keeps a connection open to the /ws endpoint of a WLED so that any state changes get
+ * pushed to the binding instead of having to wait for the next poll.
+ *
+ * @author agent - Initial contribution
+ */
+@WebSocket
+@NonNullByDefault
+public class WLedWebSocket {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final WLedHandler handler;
+    private @Nullable Session session;
+    private volatile boolean active = false;
+
+    public WLedWebSocket(WLedHandler handler) {
+        this.handler = handler;
+    }
+
+    public boolean isConnected() {
+        Session localSession = session;
+        return localSession != null && localSession.isOpen();
+    }
+
+    /**
+     * Lets sessions connect and messages through, until {@link #close} is called.
+     */
+    public void open() {
+        active = true;
+    }
+
+    public synchronized void close() {
+        active = false;
+        Session localSession = session;
+        session = null;
+        if (localSession != null) {
+            localSession.close();
+        }
+    }
+
+    /**
+     * Only one session is kept, so a connect that finishes after the handler was disposed, or after another connect
+     * got there first, gets closed instead of leaking.
+     */
+    @OnWebSocketConnect
+    public synchronized void onConnect(Session session) {
+        if (!active) {
+            session.close();
+            return;
+        }
+        Session previous = this.session;
+        this.session = session;
+        if (previous != null && previous != session) {
+            previous.close();
+        }
+        logger.debug("WLED websocket connected to {}", handler.getThing().getUID());
+    }
+
+    @OnWebSocketMessage
+    public void onMessage(String message) {
+        if (active) {
+            handler.processJsonState(message);
+        }
+    }
+
+    @OnWebSocketClose
+    public void onClose(Session session, int statusCode, String reason) {
+        logger.debug("WLED websocket closed with {}:{}", statusCode, reason);
+        dropped(session);
+    }
+
+    @OnWebSocketError
+    public void onError(Session session, Throwable cause) {
+        logger.debug("WLED websocket error, falling back to polling:{}", cause.getMessage());
+        dropped(session);
+    }
+
+    /**
+     * Only a session that was connected counts, so a connect that fails does not reset the backoff of the polls. The
+     * handler is told outside of the lock, as it takes its poll lock, which is held while connecting.
+     */
+    private void dropped(Session session) {
+        synchronized (this) {
+            Session localSession = this.session;
+            if (localSession == null || localSession != session) {
+                return;
+            }
+            this.session = null;
+        }
+        if (active) {
+            handler.webSocketClosed();
+        }
+    }
+}
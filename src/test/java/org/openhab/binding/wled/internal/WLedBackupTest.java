@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.openhab.binding.wled.internal.WLedHandlerHarness.waitFor;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openhab.binding.wled.internal.WLedHandlerHarness.TestWLed;
+
+/**
+ * Backs up, restores and rolls out presets with {@link WLedBackup} against the {@link WLedEmulator}.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedBackupTest {
+    private @Nullable WLedHandlerHarness harness;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        harness = new WLedHandlerHarness(2);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        WLedHandlerHarness localHarness = harness;
+        if (localHarness != null) {
+            localHarness.close();
+        }
+    }
+
+    private WLedHandlerHarness harness() {
+        WLedHandlerHarness localHarness = harness;
+        assertNotNull(localHarness);
+        return localHarness;
+    }
+
+    private TestWLed addWLed() throws InterruptedException {
+        TestWLed wled = harness().add(Map.of());
+        waitFor(wled::isOnline, "the WLED is online");
+        return wled;
+    }
+
+    private String rollout(TestWLed wled, String library) throws Exception {
+        Path file = Files.writeString(harness().userData.resolve("library.json"), library, StandardCharsets.UTF_8);
+        return wled.handler.getBackup().rollout(file).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void restoresOnlyTheFilesThatChanged() throws Exception {
+        TestWLed wled = addWLed();
+        String presets = wled.device.presets;
+        String config = wled.device.config;
+        String saved = wled.handler.getBackup().backup().get(10, TimeUnit.SECONDS);
+        Path folder = harness().userData.resolve("wled").resolve("backup").resolve(wled.thing.getUID().getId());
+        assertEquals("saved to " + folder, saved);
+        assertEquals(presets, Files.readString(folder.resolve(WLedBackup.PRESETS)));
+        assertEquals(config, Files.readString(folder.resolve(WLedBackup.CONFIG)));
+
+        wled.device.presets = "{\"0\":{},\"1\":{\"on\":false,\"n\":\"Changed\"}}";
+        assertEquals("presets.json restored, cfg.json unchanged",
+                wled.handler.getBackup().restore().get(10, TimeUnit.SECONDS));
+        assertEquals(presets, wled.device.presets);
+        assertEquals(config, wled.device.config);
+
+        // whitespace does not make a file differ
+        wled.device.config = config.replace(",", ", ");
+        assertEquals("presets.json unchanged, cfg.json unchanged",
+                wled.handler.getBackup().restore().get(10, TimeUnit.SECONDS));
+        assertEquals(1, wled.device.count("POST /upload"));
+        assertEquals(0, wled.device.count("POST /json/cfg"));
+    }
+
+    @Test
+    public void restoreFailsWithoutABackup() throws Exception {
+        TestWLed wled = addWLed();
+        assertTrue(wled.handler.getBackup().restore().isCompletedExceptionally());
+    }
+
+    @Test
+    public void rollsOutALibraryInPresetOrder() throws Exception {
+        TestWLed wled = addWLed();
+        wled.device.presets = "{\"0\":{},\"2\":{\"n\":\"Two\"},\"10\":{\"n\":\"Ten\"},\"notes\":{\"t\":\"x\"}}";
+        String library = "{\"11\":{\"n\":\"Eleven\"},\"2\":{\"n\":\"Two\"},\"1\":{\"n\":\"One\"}}";
+        assertEquals("2 presets changed", rollout(wled, library));
+        assertEquals("{\"0\":{},\"1\":{\"n\":\"One\"},\"2\":{\"n\":\"Two\"},\"10\":{\"n\":\"Ten\"},"
+                + "\"11\":{\"n\":\"Eleven\"},\"notes\":{\"t\":\"x\"}}", wled.device.presets);
+        assertEquals("all presets already match", rollout(wled, library));
+        assertEquals(1, wled.device.count("POST /upload"));
+    }
+
+    @Test
+    public void rollsOutToPresetsThatAreNotInOrder() throws Exception {
+        TestWLed wled = addWLed();
+        wled.device.presets = "{\"5\":{\"n\":\"Five\"},\"2\":{\"n\":\"Old\"}}";
+        assertEquals("1 presets changed", rollout(wled, "{\"2\":{\"n\":\"Two\"}}"));
+        assertEquals("{\"2\":{\"n\":\"Two\"},\"5\":{\"n\":\"Five\"}}", wled.device.presets);
+        assertEquals("all presets already match", rollout(wled, "{\"2\":{\"n\":\"Two\"}}"));
+    }
+
+    @Test
+    public void presetIdsPutNumbersBeforeText() {
+        List<String> ids = new ArrayList<>(Arrays.asList("b", "10", "a", "2", "7", "007", "-1"));
+        ids.sort(WLedBackup::comparePresetIds);
+        assertEquals(Arrays.asList("-1", "2", "007", "7", "10", "a", "b"), ids);
+        for (String first : ids) {
+            for (String second : ids) {
+                assertEquals(Integer.signum(WLedBackup.comparePresetIds(first, second)),
+                        -Integer.signum(WLedBackup.comparePresetIds(second, first)), first + " " + second);
+                for (String third : ids) {
+                    if (WLedBackup.comparePresetIds(first, second) < 0
+                            && WLedBackup.comparePresetIds(second, third) < 0) {
+                        assertTrue(WLedBackup.comparePresetIds(first, third) < 0, first + " " + second + " " + third);
+                    }
+                }
+            }
+        }
+    }
+}
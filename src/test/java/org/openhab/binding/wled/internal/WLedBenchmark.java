@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link WLedBenchmark} times an operation and counts the bytes it allocates, so the hot paths of the binding can
+ * be compared with numbers. It is a small stand in for JMH that runs inside the normal test build. The benchmark
+ * tests only run when Maven is started with -Dwled.benchmark=true, for example
+ * {@code mvn test -Dwled.benchmark=true -Dtest=WLedParserBenchmarkTest}.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+final class WLedBenchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+    private static final int BATCH = 1000;
+    // results are written here, so the JIT can not remove the work that made them
+    private static volatile @Nullable Object sink;
+    private static volatile int intSink;
+
+    public interface Operation {
+        @Nullable
+        Object run() throws Exception;
+    }
+
+    public interface IntOperation {
+        int run() throws Exception;
+    }
+
+    public static class Result {
+        public final double nanosPerOp;
+        /** -1 if this JVM can not count the bytes a thread allocates. */
+        public final double bytesPerOp;
+
+        Result(double nanosPerOp, double bytesPerOp) {
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    private WLedBenchmark() {
+    }
+
+    public static Result measure(String name, Operation operation) throws Exception {
+        return measure(name, () -> {
+            sink = operation.run();
+            return 0;
+        });
+    }
+
+    /**
+     * Runs the operation for a second to warm up the JIT, then for two seconds while timing it, and prints the result.
+     */
+    public static Result measure(String name, IntOperation operation) throws Exception {
+        long end = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < end) {
+            runBatch(operation);
+        }
+        long operations = 0;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            runBatch(operation);
+            operations += BATCH;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        long allocatedAfter = allocatedBytes();
+        Result result = new Result((double) elapsed / operations,
+                allocated == -1 ? -1 : (double) (allocatedAfter - allocated) / operations);
+        System.out.println(String.format("%-48s %10.1f ns/op %10.1f B/op", name, result.nanosPerOp,
+                result.bytesPerOp));
+        return result;
+    }
+
+    private static void runBatch(IntOperation operation) throws Exception {
+        int total = 0;
+        for (int i = 0; i < BATCH; i++) {
+            total += operation.run();
+        }
+        intSink = total;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
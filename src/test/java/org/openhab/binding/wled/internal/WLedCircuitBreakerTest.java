@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the states of the {@link WLedCircuitBreaker}, with a clock the test moves on by hand.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedCircuitBreakerTest {
+    private long now = 1_000_000;
+    private final WLedCircuitBreaker breaker = new WLedCircuitBreaker(3, () -> now);
+
+    private void open() {
+        assertFalse(breaker.recordFailure());
+        assertFalse(breaker.recordFailure());
+        assertTrue(breaker.recordFailure());
+    }
+
+    @Test
+    public void opensAfterTheThresholdOfFailuresInARow() {
+        assertTrue(breaker.allowRequest());
+        open();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void aSuccessResetsTheCountOfFailures() {
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertFalse(breaker.recordSuccess(), "was not open");
+        assertFalse(breaker.recordFailure());
+        assertFalse(breaker.recordFailure());
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void allowsOneProbeOnceTheBackoffRunsOut() {
+        open();
+        now += 4999;
+        assertFalse(breaker.allowRequest());
+        now += 1;
+        assertTrue(breaker.allowRequest(), "the probe");
+        assertFalse(breaker.allowRequest(), "only one probe at a time");
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    public void aSuccessfulProbeClosesTheBreaker() {
+        open();
+        now += 5000;
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.recordSuccess());
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void theBackoffDoublesForEachFailedProbeUpToAMinute() {
+        open();
+        // 5, 10, 20, 40, 60 and 60 seconds
+        long backoff = 5000;
+        for (int probe = 0; probe < 6; probe++) {
+            now += backoff - 1;
+            assertFalse(breaker.allowRequest(), "backoff of " + backoff);
+            now += 1;
+            assertTrue(breaker.allowRequest(), "backoff of " + backoff);
+            assertFalse(breaker.recordFailure(), "a failed probe does not open the breaker again");
+            backoff = Math.min(backoff * 2, 60000);
+        }
+    }
+
+    @Test
+    public void aProbeThatNeverReturnsDoesNotBlockTheNext() {
+        open();
+        now += 5000;
+        assertTrue(breaker.allowRequest());
+        now += 5000;
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void aThresholdOfZeroNeverOpens() {
+        WLedCircuitBreaker neverOpens = new WLedCircuitBreaker(0, () -> now);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(neverOpens.recordFailure());
+        }
+        assertTrue(neverOpens.allowRequest());
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.HSBType;
+import org.openhab.core.library.types.PercentType;
+
+/**
+ * Tests the accuracy of the {@link WLedColourEngine} against the HSB conversion in {@link Color}.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedColourEngineTest {
+    private static final int STEP = 15;
+
+    private static HSBType hsb(int hue, int saturation, int brightness) {
+        return new HSBType(new DecimalType(hue), new PercentType(saturation), new PercentType(brightness));
+    }
+
+    private static int distance(int rgb, int otherRgb) {
+        int distance = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            distance = Math.max(distance, Math.abs((rgb >> shift & 0xFF) - (otherRgb >> shift & 0xFF)));
+        }
+        return distance;
+    }
+
+    @Test
+    public void toRgbMakesThePrimaryColours() {
+        assertEquals(0xFF0000, WLedColourEngine.toRgb(hsb(0, 100, 100)));
+        assertEquals(0xFFFF00, WLedColourEngine.toRgb(hsb(60, 100, 100)));
+        assertEquals(0x00FF00, WLedColourEngine.toRgb(hsb(120, 100, 100)));
+        assertEquals(0x0000FF, WLedColourEngine.toRgb(hsb(240, 100, 100)));
+        assertEquals(0xFFFFFF, WLedColourEngine.toRgb(hsb(200, 0, 100)));
+        assertEquals(0x000000, WLedColourEngine.toRgb(hsb(200, 100, 0)));
+        assertEquals(0x800000, WLedColourEngine.toRgb(hsb(0, 100, 50)));
+        assertEquals(0xFF0000, WLedColourEngine.toRgb(hsb(359, 100, 100)) & 0xFFFF00);
+    }
+
+    @Test
+    public void toRgbIsWithinOneOfColor() {
+        for (int hue = 0; hue < 360; hue += 3) {
+            for (int saturation = 0; saturation <= 100; saturation += 5) {
+                for (int brightness = 0; brightness <= 100; brightness += 5) {
+                    int expected = Color.HSBtoRGB(hue / 360f, saturation / 100f, brightness / 100f) & 0xFFFFFF;
+                    int rgb = WLedColourEngine.toRgb(hsb(hue, saturation, brightness));
+                    assertTrue(distance(expected, rgb) <= 1, hue + "," + saturation + "," + brightness + " became "
+                            + Integer.toHexString(rgb) + " not " + Integer.toHexString(expected));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void toHsbIsWithinOneOfColor() {
+        float[] expected = new float[3];
+        for (int red = 0; red < 256; red += STEP) {
+            for (int green = 0; green < 256; green += STEP) {
+                for (int blue = 0; blue < 256; blue += STEP) {
+                    Color.RGBtoHSB(red, green, blue, expected);
+                    HSBType hsb = WLedColourEngine.toHsb(red, green, blue);
+                    String colour = red + "," + green + "," + blue;
+                    int hueError = Math.abs(Math.round(expected[0] * 360) - hsb.getHue().intValue());
+                    assertTrue(Math.min(hueError, 360 - hueError) <= 1, colour);
+                    assertTrue(Math.abs(Math.round(expected[1] * 100) - hsb.getSaturation().intValue()) <= 1, colour);
+                    assertTrue(Math.abs(Math.round(expected[2] * 100) - hsb.getBrightness().intValue()) <= 1, colour);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rgbSurvivesARoundTripThroughHsb() {
+        int worst = 0;
+        for (int red = 0; red < 256; red += STEP) {
+            for (int green = 0; green < 256; green += STEP) {
+                for (int blue = 0; blue < 256; blue += STEP) {
+                    int rgb = red << 16 | green << 8 | blue;
+                    worst = Math.max(worst, distance(rgb, WLedColourEngine.toRgb(WLedColourEngine.toHsb(red, green,
+                            blue))));
+                }
+            }
+        }
+        // whole number percentages can only get within 1.3 of each of the 256 levels, and whole degrees add a little
+        assertTrue(worst <= 4, "a channel moved by " + worst);
+    }
+
+    @Test
+    public void extractWhiteMovesGreyOntoPureWhiteLeds() {
+        WLedColourEngine engine = new WLedColourEngine(0);
+        assertEquals(0xFF000000, engine.extractWhite(0xFFFFFF));
+        assertEquals(0x80000000, engine.extractWhite(0x808080));
+        assertEquals(0x00FF8000, engine.extractWhite(0xFF8000));
+        assertEquals(0x807F7F00, engine.extractWhite(0xFFFF80));
+        assertEquals(0, engine.extractWhite(0));
+    }
+
+    @Test
+    public void extractWhiteAllowsForWarmWhiteLeds() {
+        WLedColourEngine engine = new WLedColourEngine(2700);
+        int warm = WLedColourEngine.kelvinToRgb(2700);
+        int extracted = engine.extractWhite(warm);
+        assertEquals(0xFF, extracted >>> 24);
+        assertTrue(distance(0, extracted) <= 1, "the warm white LEDs make the whole colour");
+        extracted = engine.extractWhite(0xFFFFFF);
+        assertEquals(0xFF, extracted >>> 24);
+        assertEquals(0, extracted >> 16 & 0xFF, "warm white LEDs give all the red of white");
+        assertTrue((extracted & 0xFF) > (extracted >> 8 & 0xFF), "and the RGB LEDs add the missing blue");
+    }
+
+    @Test
+    public void kelvinToRgbRunsFromWarmToCold() {
+        int warm = WLedColourEngine.kelvinToRgb(2700);
+        int cold = WLedColourEngine.kelvinToRgb(6500);
+        assertEquals(0xFF, warm >> 16);
+        assertEquals(0xFF, cold >> 16);
+        assertTrue((warm & 0xFF) < 100, Integer.toHexString(warm));
+        assertTrue((cold & 0xFF) > 240, Integer.toHexString(cold));
+        assertEquals(0xFF, WLedColourEngine.kelvinToRgb(10000) & 0xFF);
+        assertEquals(0, WLedColourEngine.kelvinToRgb(1500) & 0xFF);
+        assertEquals(cold, WLedColourEngine.colourTemperatureToRgb(PercentType.ZERO));
+        assertEquals(warm, WLedColourEngine.colourTemperatureToRgb(PercentType.HUNDRED));
+    }
+
+    /**
+     * Compares the cost of both conversions with those in {@link HSBType}. Run with -Dwled.benchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "wled.benchmark", matches = "true")
+    public void benchmarkConversions() throws Exception {
+        HSBType[] colours = new HSBType[360];
+        for (int hue = 0; hue < colours.length; hue++) {
+            colours[hue] = hsb(hue, 70, 80);
+        }
+        int[] index = new int[1];
+        WLedBenchmark.measure("HSBType.getRGB", () -> colours[index[0]++ % 360].getRGB());
+        WLedBenchmark.measure("WLedColourEngine.toRgb", () -> WLedColourEngine.toRgb(colours[index[0]++ % 360]));
+        WLedBenchmark.measure("HSBType.fromRGB", () -> {
+            int value = index[0]++ & 0xFF;
+            return HSBType.fromRGB(value, 255 - value, 128);
+        });
+        WLedBenchmark.measure("WLedColourEngine.toHsb", () -> {
+            int value = index[0]++ & 0xFF;
+            return WLedColourEngine.toHsb(value, 255 - value, 128);
+        });
+        WLedColourEngine engine = new WLedColourEngine(2700);
+        WLedBenchmark.measure("WLedColourEngine.extractWhite", () -> engine.extractWhite(index[0]++ * 0x010203));
+    }
+}
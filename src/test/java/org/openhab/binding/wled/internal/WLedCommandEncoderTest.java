@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.HSBType;
+import org.openhab.core.library.types.IncreaseDecreaseType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.library.types.PercentType;
+import org.openhab.core.library.types.StringType;
+import org.openhab.core.types.Command;
+
+/**
+ * Tests the {@link WLedCommandEncoder} against the BigDecimal scaling and string building that the handler used
+ * before it.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedCommandEncoderTest {
+    private static final BigDecimal OLD_SCALE = new BigDecimal(2.55);
+
+    /**
+     * WLED reads a parameter like A=127.4999... with atoi, so the old scaling really set the whole part.
+     */
+    private static int oldToByte(int percent) {
+        return new BigDecimal(new PercentType(percent).toString()).multiply(OLD_SCALE).intValue();
+    }
+
+    private static int oldToPercent(int value) {
+        return new BigDecimal(value).divide(OLD_SCALE, RoundingMode.HALF_UP).intValue();
+    }
+
+    private static String oldCreateColorHex(int rgb) {
+        String hex = Integer.toHexString(rgb & 0xffffff);
+        while (hex.length() < 6) {
+            hex = "0" + hex;
+        }
+        return "h" + hex;
+    }
+
+    @Test
+    public void everyPercentIsWithinOneOfTheOldScaling() {
+        for (int percent = 0; percent <= 100; percent++) {
+            int value = WLedCommandEncoder.toByte(new PercentType(percent));
+            assertTrue(Math.abs(value - oldToByte(percent)) <= 1, percent + "% became " + value);
+        }
+        assertEquals(0, WLedCommandEncoder.toByte(PercentType.ZERO));
+        assertEquals(255, WLedCommandEncoder.toByte(PercentType.HUNDRED));
+    }
+
+    @Test
+    public void everyPercentReadsBackAsTheSamePercent() {
+        for (int percent = 0; percent <= 100; percent++) {
+            assertEquals(percent, oldToPercent(WLedCommandEncoder.toByte(new PercentType(percent))));
+        }
+    }
+
+    @Test
+    public void fractionalPercentsRoundToTheNearestByte() {
+        assertEquals(129, WLedCommandEncoder.toByte(new PercentType("50.5")));
+        assertEquals(1, WLedCommandEncoder.toByte(new PercentType("0.3")));
+        assertEquals(254, WLedCommandEncoder.toByte(new PercentType("99.7")));
+    }
+
+    @Test
+    public void commandsOfEachTypeAreScaled() {
+        assertEquals(255, WLedCommandEncoder.toByte(OnOffType.ON));
+        assertEquals(0, WLedCommandEncoder.toByte(OnOffType.OFF));
+        assertEquals(128, WLedCommandEncoder.toByte((Command) new HSBType("120,100,50")));
+        assertEquals(128, WLedCommandEncoder.toByte(new DecimalType(50)));
+        assertEquals(255, WLedCommandEncoder.toByte(new DecimalType(250)));
+        assertEquals(0, WLedCommandEncoder.toByte(new DecimalType(-5)));
+        assertEquals(WLedCommandEncoder.UNSUPPORTED, WLedCommandEncoder.toByte(new StringType("50")));
+        assertEquals(WLedCommandEncoder.UNSUPPORTED, WLedCommandEncoder.toByte(IncreaseDecreaseType.INCREASE));
+    }
+
+    @Test
+    public void increaseAndDecreaseStepTheCurrentValue() {
+        assertEquals(143, WLedCommandEncoder.toByte(IncreaseDecreaseType.INCREASE, 128));
+        assertEquals(113, WLedCommandEncoder.toByte(IncreaseDecreaseType.DECREASE, 128));
+        assertEquals(255, WLedCommandEncoder.toByte(IncreaseDecreaseType.INCREASE, 250));
+        assertEquals(0, WLedCommandEncoder.toByte(IncreaseDecreaseType.DECREASE, 10));
+        assertEquals(15, WLedCommandEncoder.toByte(IncreaseDecreaseType.INCREASE, -1));
+        assertEquals(128, WLedCommandEncoder.toByte(new PercentType(50), 10));
+    }
+
+    @Test
+    public void toHexMatchesTheOldColourHex() {
+        Random random = new Random(2020);
+        for (int i = 0; i < 10000; i++) {
+            int rgb = random.nextInt(0x1000000);
+            assertTrue(oldCreateColorHex(rgb).equalsIgnoreCase(WLedCommandEncoder.toHex(rgb)));
+        }
+        assertEquals("h0000FF", WLedCommandEncoder.toHex(0xFF));
+        assertEquals("hFFFFFF", WLedCommandEncoder.toHex(0xFFFFFF));
+    }
+
+    @Test
+    public void encoderBuildsWholeNumberUrls() {
+        WLedCommandEncoder encoder = new WLedCommandEncoder();
+        assertEquals("/win&A=128&CL=h10FF8000&ND", encoder.win().add("A", 128).addColour("CL", 0x10, 0xFF8000)
+                .add("ND").toUrl());
+        assertEquals("/win&C2=h000001", encoder.win().addColour("C2", 1).toUrl(), "win() clears the last command");
+    }
+
+    @Test
+    public void toDurationScalesFromHalfASecondToAMinute() {
+        assertEquals(500, WLedCommandEncoder.toDuration(PercentType.ZERO));
+        assertEquals(60500, WLedCommandEncoder.toDuration(PercentType.HUNDRED));
+    }
+
+    /**
+     * Compares the cost of one brightness and colour command built the old way and with the encoder. Run with
+     * -Dwled.benchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "wled.benchmark", matches = "true")
+    public void benchmarkEncodeCommand() throws Exception {
+        PercentType[] percents = new PercentType[101];
+        for (int i = 0; i < percents.length; i++) {
+            percents[i] = new PercentType(i);
+        }
+        int[] index = new int[1];
+        WLedBenchmark.Result old = WLedBenchmark.measure("BigDecimal and string concatenation", () -> {
+            int percent = index[0]++ % percents.length;
+            return "/win&A=" + new BigDecimal(percents[percent].toString()).multiply(new BigDecimal(2.55)) + "&CL="
+                    + oldCreateColorHex(percent * 0x020304);
+        });
+        WLedCommandEncoder encoder = new WLedCommandEncoder();
+        WLedBenchmark.Result result = WLedBenchmark.measure("WLedCommandEncoder", () -> {
+            int percent = index[0]++ % percents.length;
+            return encoder.win().add("A", WLedCommandEncoder.toByte(percents[percent]))
+                    .addColour("CL", percent * 0x020304).toUrl();
+        });
+        assertTrue(result.nanosPerOp < old.nanosPerOp);
+    }
+}
@@ -0,0 +1,655 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * The {@link WLedEmulator} serves the HTTP API of any number of virtual WLEDs from one local server, so the handler
+ * can be tested without any hardware. Each WLED lives under its own path, like http://127.0.0.1:1234/wled3, and its
+ * latency and failures can be changed while a test runs. The replies are in the format that firmware 0.10.2 sends.
+ * <p>
+ * It is a plain socket server rather than the JDK HttpServer, as that cannot upgrade a request to the websocket that
+ * each WLED serves on /ws, and it keeps connections alive so a test can count how many the binding opens.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedEmulator implements AutoCloseable {
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private final ServerSocket server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "wled-emulator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Device> devices = new ConcurrentHashMap<>();
+    private volatile @Nullable Device rootDevice;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final String options;
+    /**
+     * How long a new connection waits before its first request is read, like the TCP handshake and accept of an ESP
+     * over WiFi, which is what a kept-alive connection saves.
+     */
+    public volatile int connectMs = 0;
+
+    public WLedEmulator() throws IOException {
+        options = WLedStateTest.load("json-0.11.0.json");
+        server = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    public Device addDevice() {
+        Device device = new Device(devices.size(), false);
+        devices.put(device.name, device);
+        return device;
+    }
+
+    /**
+     * Adds a WLED that answers on the root path of the server, like a real WLED does, for code that only knows the
+     * host and port. There can only be one of these.
+     */
+    public Device addRootDevice() {
+        Device device = new Device(devices.size(), true);
+        devices.put(device.name, device);
+        rootDevice = device;
+        return device;
+    }
+
+    /**
+     * @return how many connections were ever opened to any of the WLEDs.
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    @Override
+    public void close() {
+        for (Device device : devices.values()) {
+            device.releaseAll();
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            // the server is going away anyway
+        }
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                connections.incrementAndGet();
+                // each connection gets its own thread, so the latency of one WLED does not hold up the others
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    /**
+     * Answers every request on a kept-alive connection, until the client closes it or it is upgraded to a websocket.
+     * A WLED that does not keep connections alive gets the connection closed after its first reply.
+     */
+    private void serve(Socket socket) {
+        boolean upgraded = false;
+        try {
+            if (connectMs > 0) {
+                Thread.sleep(connectMs);
+            }
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = readLine(input)) != null && !requestLine.isEmpty()) {
+                String[] parts = requestLine.split(" ");
+                Map<String, String> headers = new HashMap<>();
+                String header;
+                while ((header = readLine(input)) != null && !header.isEmpty()) {
+                    int colon = header.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(header.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                                header.substring(colon + 1).trim());
+                    }
+                }
+                byte[] body = input.readNBytes(Integer.parseInt(headers.getOrDefault("content-length", "0")));
+                String path = parts[1];
+                int slash = path.indexOf('/', 1);
+                Device device = slash == -1 ? null : devices.get(path.substring(1, slash));
+                if (device != null) {
+                    path = path.substring(slash);
+                } else {
+                    device = rootDevice;
+                }
+                if (device == null) {
+                    reply(output, 404, "Not found", true);
+                } else if ("websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                    upgraded = device.upgrade(socket, input, output, path,
+                            headers.getOrDefault("sec-websocket-key", ""));
+                    if (upgraded) {
+                        return;
+                    }
+                } else {
+                    device.handle(output, parts[0], path, new String(body, StandardCharsets.UTF_8));
+                }
+                if (device != null && !device.keepAlive) {
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // the client went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!upgraded) {
+                sockets.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private static @Nullable String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int read;
+        while ((read = input.read()) != -1 && read != '\n') {
+            if (read != '\r') {
+                line.write(read);
+            }
+        }
+        return read == -1 && line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void reply(OutputStream output, int status, String content, boolean keepAlive) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        String headers = "HTTP/1.1 " + status + (status == 200 ? " OK" : " Error") + "\r\nContent-Length: "
+                + bytes.length + "\r\nConnection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+        synchronized (output) {
+            output.write(headers.getBytes(StandardCharsets.US_ASCII));
+            output.write(bytes);
+            output.flush();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    /**
+     * One virtual WLED with an RGB strip of 30 LEDs and a single segment.
+     */
+    public class Device {
+        public final String name;
+        private final int index;
+        public final String address;
+        /** Every request, like "GET /win&A=128" or "POST /json/state {"bri":128,"v":true}". */
+        public final List<String> requests = new CopyOnWriteArrayList<>();
+        private final List<Long> requestTimes = new CopyOnWriteArrayList<>();
+        public volatile int latencyMs = 0;
+        /** Replies with a 500 to every request while true. */
+        public volatile boolean failing = false;
+        /** The firmware version reported in /json/info. */
+        public volatile String version = "0.10.2";
+        /** Replies with a 404 to every /json request while false, like firmware before 0.8.4. */
+        public volatile boolean jsonApi = true;
+        /** Closes the connection after each reply while false, so every request needs a new one. */
+        public volatile boolean keepAlive = true;
+        private volatile @Nullable Semaphore held;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        /** The presets.json that backups download and restores upload. */
+        public volatile String presets = "{\"0\":{},\"1\":{\"on\":true,\"bri\":128,\"n\":\"Warm\"}}";
+        /** The cfg.json that backups download and restores post to /json/cfg. */
+        public volatile String config;
+        /** Turns down websocket upgrades while false, like firmware older than 0.10.2. */
+        public volatile boolean webSocketEnabled = true;
+        private volatile @Nullable Socket webSocket;
+        private final AtomicInteger webSocketConnects = new AtomicInteger();
+        private boolean on = true;
+        private int brightness = 128;
+        private final int[][] colours = { { 255, 160, 0 }, { 0, 0, 0 } };
+        private int fx = 0;
+        private int speed = 128;
+        private int intensity = 128;
+        private int palette = 0;
+
+        private Device(int index, boolean root) {
+            this.index = index;
+            name = "wled" + index;
+            address = "http://" + server.getInetAddress().getHostAddress() + ":" + server.getLocalPort()
+                    + (root ? "" : "/" + name);
+            config = "{\"id\":{\"name\":\"" + name + "\"},\"nw\":{\"ins\":[{\"ssid\":\"home\"}]}}";
+        }
+
+        /**
+         * @return the most requests that were ever waiting for a reply at the same time.
+         */
+        public int getMaxInFlight() {
+            return maxInFlight.get();
+        }
+
+        /**
+         * @return when each request that starts with the prefix arrived, in milliseconds from System.nanoTime().
+         */
+        public synchronized List<Long> times(String prefix) {
+            List<Long> times = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                if (requests.get(i).startsWith(prefix)) {
+                    times.add(requestTimes.get(i));
+                }
+            }
+            return times;
+        }
+
+        public int count(String prefix) {
+            int count = 0;
+            for (String request : requests) {
+                if (request.startsWith(prefix)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Changes the brightness as if a button on the WLED was pressed, and pushes the new state over the websocket.
+         */
+        public void setBrightness(int brightness) {
+            synchronized (this) {
+                this.brightness = brightness;
+            }
+            push();
+        }
+
+        public boolean isWebSocketOpen() {
+            Socket localWebSocket = webSocket;
+            return localWebSocket != null && !localWebSocket.isClosed();
+        }
+
+        /**
+         * @return how many times the binding connected the websocket.
+         */
+        public int getWebSocketConnects() {
+            return webSocketConnects.get();
+        }
+
+        /**
+         * Drops the websocket without a close frame, like a WLED that lost its WiFi.
+         */
+        public void dropWebSocket() {
+            Socket localWebSocket = webSocket;
+            webSocket = null;
+            if (localWebSocket != null) {
+                sockets.remove(localWebSocket);
+                closeQuietly(localWebSocket);
+            }
+        }
+
+        /**
+         * Makes every reply from now on wait for {@link #release}, so a test decides when each request finishes. The
+         * request is recorded as soon as it arrives.
+         */
+        public void hold() {
+            held = new Semaphore(0);
+        }
+
+        /**
+         * Lets this many of the replies that are held, or the next ones to arrive, go.
+         */
+        public void release(int replies) {
+            Semaphore localHeld = held;
+            if (localHeld != null) {
+                localHeld.release(replies);
+            }
+        }
+
+        /**
+         * Lets every held reply go, and stops holding replies.
+         */
+        public void releaseAll() {
+            Semaphore localHeld = held;
+            held = null;
+            if (localHeld != null) {
+                localHeld.release(Integer.MAX_VALUE / 2);
+            }
+        }
+
+        private synchronized void record(String request) {
+            requests.add(request);
+            requestTimes.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+        }
+
+        private boolean upgrade(Socket socket, InputStream input, OutputStream output, String path, String key)
+                throws IOException {
+            record("GET " + path + " websocket");
+            if (!"/ws".equals(path) || !webSocketEnabled || failing || key.isEmpty()) {
+                reply(output, 404, "Not found", keepAlive);
+                return false;
+            }
+            String accept;
+            try {
+                accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+                        .digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII)));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            synchronized (output) {
+                output.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                        + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                output.flush();
+            }
+            Socket previous = webSocket;
+            webSocket = socket;
+            if (previous != null) {
+                closeQuietly(previous);
+            }
+            webSocketConnects.incrementAndGet();
+            // like WLED, the whole state is sent as soon as the websocket connects
+            push();
+            executor.execute(() -> readFrames(socket, input));
+            return true;
+        }
+
+        /**
+         * Reads the frames the binding sends, only to answer a ping and to notice a close.
+         */
+        private void readFrames(Socket socket, InputStream input) {
+            try {
+                while (true) {
+                    int first = input.read();
+                    int second = input.read();
+                    if (first == -1 || second == -1) {
+                        break;
+                    }
+                    long length = second & 0x7F;
+                    if (length == 126) {
+                        length = (input.read() << 8) | input.read();
+                    } else if (length == 127) {
+                        length = 0;
+                        for (int i = 0; i < 8; i++) {
+                            length = (length << 8) | input.read();
+                        }
+                    }
+                    byte[] mask = (second & 0x80) != 0 ? input.readNBytes(4) : new byte[4];
+                    byte[] payload = input.readNBytes((int) length);
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i % 4];
+                    }
+                    int opcode = first & 0x0F;
+                    if (opcode == 0x8) {
+                        sendFrame(socket, 0x8, payload);
+                        break;
+                    } else if (opcode == 0x9) {
+                        sendFrame(socket, 0xA, payload);
+                    }
+                }
+            } catch (IOException e) {
+                // dropped
+            } finally {
+                if (webSocket == socket) {
+                    webSocket = null;
+                }
+                sockets.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+
+        /**
+         * Pushes the whole state over the websocket, if it is open, as WLED does after every change.
+         */
+        public void push() {
+            Socket localWebSocket = webSocket;
+            if (localWebSocket != null) {
+                try {
+                    sendFrame(localWebSocket, 0x1, ("{\"state\":" + jsonState(null) + ",\"info\":" + info() + "}")
+                            .getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    dropWebSocket();
+                }
+            }
+        }
+
+        private void sendFrame(Socket socket, int opcode, byte[] payload) throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            frame.write(0x80 | opcode);
+            if (payload.length < 126) {
+                frame.write(payload.length);
+            } else {
+                frame.write(126);
+                frame.write(payload.length >> 8);
+                frame.write(payload.length & 0xFF);
+            }
+            frame.write(payload);
+            OutputStream output = socket.getOutputStream();
+            synchronized (output) {
+                output.write(frame.toByteArray());
+                output.flush();
+            }
+        }
+
+        private void handle(OutputStream output, String method, String path, String body) throws IOException {
+            record(method + " " + path + (body.isEmpty() ? "" : " " + body));
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            try {
+                Semaphore localHeld = held;
+                if (localHeld != null) {
+                    localHeld.acquire();
+                }
+                if (latencyMs > 0) {
+                    Thread.sleep(latencyMs);
+                }
+                if (failing) {
+                    reply(output, 500, "Internal Server Error", keepAlive);
+                } else if (!jsonApi && path.startsWith("/json")) {
+                    reply(output, 404, "Not found", keepAlive);
+                } else if (path.startsWith("/win")) {
+                    reply(output, 200, win(path), keepAlive);
+                    if (path.contains("=")) {
+                        push();
+                    }
+                } else if ("/json/state".equals(path)) {
+                    reply(output, 200, jsonState("POST".equals(method) ? body : null), keepAlive);
+                    if ("POST".equals(method)) {
+                        push();
+                    }
+                } else if ("/json/info".equals(path)) {
+                    reply(output, 200, info(), keepAlive);
+                } else if ("/json".equals(path)) {
+                    reply(output, 200, options, keepAlive);
+                } else if ("/presets.json".equals(path)) {
+                    reply(output, 200, presets, keepAlive);
+                } else if ("/cfg.json".equals(path)) {
+                    reply(output, 200, config, keepAlive);
+                } else if ("/upload".equals(path) && "POST".equals(method)) {
+                    upload(body);
+                    reply(output, 200, "File Uploaded!", keepAlive);
+                } else if ("/json/cfg".equals(path) && "POST".equals(method)) {
+                    config = body;
+                    reply(output, 200, "{\"success\":true}", keepAlive);
+                } else if ("/json/live".equals(path)) {
+                    reply(output, 200, "{\"leds\":[\"FFA000\",\"FFA000\",\"FFA000\"],\"n\":10}", keepAlive);
+                } else {
+                    reply(output, 404, "Not found", keepAlive);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        /**
+         * Saves the file in a multipart upload from the file editor, which only ever holds one file.
+         */
+        private void upload(String body) {
+            int filenameStart = body.indexOf("filename=\"") + "filename=\"".length();
+            String filename = body.substring(filenameStart, body.indexOf('"', filenameStart));
+            int contentStart = body.indexOf("\r\n\r\n", filenameStart) + 4;
+            String content = body.substring(contentStart, body.lastIndexOf("\r\n--"));
+            if ("/presets.json".equals(filename)) {
+                presets = content;
+            } else if ("/cfg.json".equals(filename)) {
+                config = content;
+            }
+        }
+
+        private synchronized String win(String path) {
+            for (String parameter : path.substring("/win".length()).split("&")) {
+                int equalsIndex = parameter.indexOf('=');
+                if (equalsIndex == -1) {
+                    continue;
+                }
+                String value = parameter.substring(equalsIndex + 1);
+                switch (parameter.substring(0, equalsIndex)) {
+                    case "A":
+                        brightness = value.startsWith("~") ? Math.max(0,
+                                Math.min(255, brightness + Integer.parseInt(value.substring(1))))
+                                : Integer.parseInt(value);
+                        break;
+                    case "T":
+                        on = "2".equals(value) ? !on : "1".equals(value);
+                        break;
+                    case "CL":
+                        readHex(value, colours[0]);
+                        break;
+                    case "C2":
+                        readHex(value, colours[1]);
+                        break;
+                    case "FX":
+                        fx = Integer.parseInt(value);
+                        break;
+                    case "SX":
+                        speed = Integer.parseInt(value);
+                        break;
+                    case "IX":
+                        intensity = Integer.parseInt(value);
+                        break;
+                    case "FP":
+                        palette = Integer.parseInt(value);
+                        break;
+                }
+            }
+            return "<?xml version=\"1.0\" ?><vs><ac>" + (on ? brightness : 0) + "</ac><cl>" + colours[0][0]
+                    + "</cl><cl>" + colours[0][1] + "</cl><cl>" + colours[0][2] + "</cl><cs>" + colours[1][0]
+                    + "</cs><cs>" + colours[1][1] + "</cs><cs>" + colours[1][2]
+                    + "</cs><ns>0</ns><nr>1</nr><nl>0</nl><nf>1</nf><nd>60</nd><nt>0</nt><fx>" + fx + "</fx><sx>"
+                    + speed + "</sx><ix>" + intensity + "</ix><fp>" + palette
+                    + "</fp><wv>-1</wv><ws>0</ws><ps>0</ps><cy>0</cy><ds>" + name + "</ds><ss>0</ss></vs>";
+        }
+
+        private void readHex(String value, int[] colour) {
+            int rgb = Integer.parseInt(value.substring(1), 16);
+            colour[0] = rgb >> 16 & 0xFF;
+            colour[1] = rgb >> 8 & 0xFF;
+            colour[2] = rgb & 0xFF;
+        }
+
+        private synchronized String jsonState(@Nullable String command) {
+            if (command != null) {
+                JsonObject json = JsonParser.parseString(command).getAsJsonObject();
+                if (json.has("on")) {
+                    JsonElement value = json.get("on");
+                    on = "t".equals(value.getAsString()) ? !on : value.getAsBoolean();
+                }
+                if (json.has("bri")) {
+                    brightness = json.get("bri").getAsInt();
+                }
+                JsonElement segment = json.get("seg");
+                if (segment != null) {
+                    applySegment(segment.isJsonArray() ? segment.getAsJsonArray().get(0).getAsJsonObject()
+                            : segment.getAsJsonObject());
+                }
+            }
+            return "{\"on\":" + on + ",\"bri\":" + brightness
+                    + ",\"transition\":7,\"ps\":-1,\"pl\":-1,\"nl\":{\"on\":false,\"dur\":60,\"fade\":true,"
+                    + "\"tbri\":0},\"udpn\":{\"send\":false,\"recv\":true},\"lor\":0,\"mainseg\":0,\"seg\":[{\"id\":0,"
+                    + "\"start\":0,\"stop\":30,\"len\":30,\"grp\":1,\"spc\":0,\"on\":true,\"bri\":255,\"col\":[["
+                    + colours[0][0] + "," + colours[0][1] + "," + colours[0][2] + "],[" + colours[1][0] + ","
+                    + colours[1][1] + "," + colours[1][2] + "],[0,0,0]],\"fx\":" + fx + ",\"sx\":" + speed
+                    + ",\"ix\":" + intensity + ",\"pal\":" + palette + ",\"sel\":true,\"rev\":false}]}";
+        }
+
+        private void applySegment(JsonObject segment) {
+            JsonArray colourArrays = segment.getAsJsonArray("col");
+            for (int i = 0; colourArrays != null && i < Math.min(2, colourArrays.size()); i++) {
+                JsonArray colour = colourArrays.get(i).getAsJsonArray();
+                for (int channel = 0; channel < Math.min(3, colour.size()); channel++) {
+                    colours[i][channel] = colour.get(channel).getAsInt();
+                }
+            }
+            if (segment.has("fx")) {
+                fx = segment.get("fx").getAsInt();
+            }
+            if (segment.has("sx")) {
+                speed = segment.get("sx").getAsInt();
+            }
+            if (segment.has("ix")) {
+                intensity = segment.get("ix").getAsInt();
+            }
+            if (segment.has("pal")) {
+                palette = segment.get("pal").getAsInt();
+            }
+        }
+
+        private String info() {
+            return "{\"ver\":\"" + version + "\",\"vid\":2008100,\"leds\":{\"count\":30,\"rgbw\":false,\"pin\":[2],"
+                    + "\"pwr\":0,\"maxpwr\":850,\"maxseg\":10},\"name\":\"" + name
+                    + "\",\"udpport\":21324,\"live\":false,\"fxcount\":118,\"palcount\":56,\"arch\":\"esp8266\","
+                    + "\"freeheap\":20136,\"uptime\":1234,\"mac\":\"a4cf12fd" + String.format("%04x", index)
+                    + "\"}";
+        }
+    }
+}
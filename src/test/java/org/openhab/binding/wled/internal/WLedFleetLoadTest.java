@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.openhab.binding.wled.internal.WLedBindingConstants.CHANNEL_MASTER_CONTROLS;
+import static org.openhab.binding.wled.internal.WLedHandlerHarness.waitFor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openhab.binding.wled.internal.WLedHandlerHarness.TestWLed;
+import org.openhab.core.library.types.PercentType;
+
+/**
+ * Drives a fleet of handlers against emulated WLEDs that each take 20 ms to reply, and reports the command latency,
+ * poll throughput and the threads and heap used. The size of the fleet can be set with -Dwled.fleet=200. Run with
+ * -Dwled.benchmark=true.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+@EnabledIfSystemProperty(named = "wled.benchmark", matches = "true")
+public class WLedFleetLoadTest {
+    private static final int LATENCY_MS = 20;
+
+    @Test
+    public void loadTest() throws Exception {
+        int size = Integer.getInteger("wled.fleet", 200);
+        int threadsBefore = Thread.activeCount();
+        try (WLedHandlerHarness harness = new WLedHandlerHarness(2)) {
+            List<TestWLed> wleds = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < size; i++) {
+                WLedEmulator.Device device = harness.emulator.addDevice();
+                device.latencyMs = LATENCY_MS;
+                wleds.add(harness.add(device, Map.of()));
+            }
+            waitFor(() -> wleds.stream().allMatch(TestWLed::isOnline), "every WLED is online", 60000);
+            System.out.println(String.format("%d WLEDs online after %d ms", size,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+            long[] latencies = new long[size];
+            for (int round = 0; round < 5; round++) {
+                PercentType percent = new PercentType(10 + round * 10);
+                long[] sent = new long[size];
+                for (int i = 0; i < size; i++) {
+                    sent[i] = System.nanoTime();
+                    TestWLed wled = wleds.get(i);
+                    wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), percent);
+                }
+                // the latency runs until the state that the reply holds has been published
+                int done = 0;
+                Arrays.fill(latencies, -1);
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+                while (done < size) {
+                    assertTrue(System.nanoTime() < deadline, (size - done) + " commands were not replied to");
+                    for (int i = 0; i < size; i++) {
+                        if (latencies[i] == -1 && percent.equals(wleds.get(i).states.get(CHANNEL_MASTER_CONTROLS))) {
+                            latencies[i] = System.nanoTime() - sent[i];
+                            done++;
+                        }
+                    }
+                    Thread.sleep(1);
+                }
+                long[] sorted = latencies.clone();
+                Arrays.sort(sorted);
+                System.out.println(String.format("Command latency p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms",
+                        percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                        sorted[size - 1] / 1e6));
+            }
+
+            int requestsBefore = countRequests(wleds);
+            long pollStart = System.nanoTime();
+            Thread.sleep(10000);
+            double seconds = (System.nanoTime() - pollStart) / 1e9;
+            double requests = countRequests(wleds) - requestsBefore;
+            System.out.println(String.format("%.1f requests a second while idle", requests / seconds));
+
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            // the threads include those of the emulator and the HTTP client
+            System.out.println(String.format("%d threads started, %d MB of heap used", Thread.activeCount()
+                    - threadsBefore, (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024)));
+        }
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(percent / 100.0 * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static int countRequests(List<TestWLed> wleds) {
+        int requests = 0;
+        for (TestWLed wled : wleds) {
+            requests += wled.device.requests.size();
+        }
+        return requests;
+    }
+}
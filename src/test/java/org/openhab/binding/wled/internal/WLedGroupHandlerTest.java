@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.openhab.binding.wled.internal.WLedBindingConstants.CHANNEL_MASTER_CONTROLS;
+import static org.openhab.binding.wled.internal.WLedHandlerHarness.waitFor;
+
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openhab.binding.wled.internal.WLedHandlerHarness.TestGroup;
+import org.openhab.binding.wled.internal.WLedHandlerHarness.TestWLed;
+import org.openhab.core.library.types.PercentType;
+import org.openhab.core.thing.ThingStatus;
+import org.openhab.core.thing.ThingStatusDetail;
+import org.openhab.core.thing.ThingStatusInfo;
+
+/**
+ * Tests the {@link WLedGroupHandler} with 50 member WLEDs running against the {@link WLedEmulator}.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedGroupHandlerTest {
+    private static final int MEMBERS = 50;
+    private @Nullable WLedHandlerHarness harness;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        harness = new WLedHandlerHarness(4);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        WLedHandlerHarness localHarness = harness;
+        if (localHarness != null) {
+            localHarness.close();
+        }
+    }
+
+    private WLedHandlerHarness harness() {
+        WLedHandlerHarness localHarness = harness;
+        assertNotNull(localHarness);
+        return localHarness;
+    }
+
+    @Test
+    public void sendsACommandToEveryMemberAtOnce() throws InterruptedException {
+        TestGroup group = harness().addGroup(MEMBERS, Map.of("maxConcurrent", MEMBERS));
+        waitFor(() -> group.members.stream().allMatch(TestWLed::isOnline), "every member is online");
+        for (TestWLed member : group.members) {
+            member.device.latencyMs = 100;
+        }
+        group.handler.handleCommand(group.channel(CHANNEL_MASTER_CONTROLS), new PercentType(20));
+        waitFor(() -> !group.handler.getLastCommand().isEmpty(), "every member has replied");
+
+        assertTrue(group.handler.getLastCommand().startsWith(MEMBERS + " of " + MEMBERS + " WLEDs replied in "),
+                group.handler.getLastCommand());
+        // one member after the other would take at least 5 seconds
+        int totalMs = Integer.parseInt(group.handler.getLastCommand().replaceAll(".* in (\\d+) ms", "$1"));
+        assertTrue(totalMs < 2000, "the members took " + totalMs + " ms");
+        assertEquals(MEMBERS, group.handler.getLastCommandMembers().size());
+        for (TestWLed member : group.members) {
+            assertEquals(1, member.device.count("POST /json/state {\"bri\":51"), member.device.requests.toString());
+            assertEquals(new PercentType(20), member.states.get(CHANNEL_MASTER_CONTROLS));
+        }
+        assertTrue(group.bridge.getProperties().isEmpty(), "a command does not write to the Thing");
+    }
+
+    @Test
+    public void sendsToNoMoreThanMaxConcurrentAtOnce() throws InterruptedException {
+        TestGroup group = harness().addGroup(MEMBERS, Map.of("maxConcurrent", 5));
+        waitFor(() -> group.members.stream().allMatch(TestWLed::isOnline), "every member is online");
+        for (TestWLed member : group.members) {
+            member.device.hold();
+        }
+        group.handler.handleCommand(group.channel(CHANNEL_MASTER_CONTROLS), new PercentType(20));
+        waitFor(() -> group.members.stream().filter(member -> member.device.count("POST") == 1).count() == 5,
+                "the first 5 members are sent the command");
+        for (TestWLed member : group.members) {
+            member.device.releaseAll();
+        }
+        waitFor(() -> !group.handler.getLastCommand().isEmpty(), "every member has replied");
+        assertTrue(group.handler.getLastCommand().startsWith(MEMBERS + " of " + MEMBERS + " WLEDs replied"),
+                group.handler.getLastCommand());
+    }
+
+    @Test
+    public void reportsTheMembersThatFail() throws InterruptedException {
+        TestGroup group = harness().addGroup(MEMBERS, Map.of("maxConcurrent", MEMBERS));
+        waitFor(() -> group.members.stream().allMatch(TestWLed::isOnline), "every member is online");
+        TestWLed failing = group.members.get(7);
+        failing.device.failing = true;
+        group.handler.handleCommand(group.channel(CHANNEL_MASTER_CONTROLS), new PercentType(20));
+        waitFor(() -> !group.handler.getLastCommand().isEmpty(), "every member has replied");
+        assertTrue(group.handler.getLastCommand().startsWith((MEMBERS - 1) + " of " + MEMBERS + " WLEDs replied"),
+                group.handler.getLastCommand());
+        assertTrue(group.handler.getLastCommandMembers().stream()
+                .anyMatch(result -> result.startsWith(failing.thing.getUID().getId() + " FAILED")));
+    }
+
+    @Test
+    public void aMemberKeepsItsOwnStatus() throws InterruptedException {
+        TestGroup group = harness().addGroup(2, Map.of());
+        TestWLed reachable = group.members.get(0);
+        TestWLed unreachable = group.members.get(1);
+        unreachable.device.failing = true;
+        waitFor(reachable::isOnline, "the reachable member is online");
+        waitFor(() -> unreachable.getStatus() == ThingStatus.OFFLINE, "the unreachable member is offline");
+        assertEquals(ThingStatus.ONLINE, group.bridge.getStatus());
+
+        // the framework passes each change of the group status on to the members
+        for (TestWLed member : group.members) {
+            member.handler.bridgeStatusChanged(new ThingStatusInfo(ThingStatus.OFFLINE, ThingStatusDetail.NONE, null));
+        }
+        assertEquals(ThingStatus.ONLINE, reachable.getStatus());
+        for (TestWLed member : group.members) {
+            member.handler.bridgeStatusChanged(new ThingStatusInfo(ThingStatus.ONLINE, ThingStatusDetail.NONE, null));
+        }
+        assertEquals(ThingStatus.OFFLINE, unreachable.getStatus());
+        assertEquals(ThingStatusDetail.COMMUNICATION_ERROR, unreachable.getStatusInfo().getStatusDetail());
+    }
+}
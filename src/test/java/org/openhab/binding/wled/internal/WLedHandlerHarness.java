@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.openhab.binding.wled.internal.WLedBindingConstants.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.openhab.core.config.core.Configuration;
+import org.openhab.core.thing.BridgeImpl;
+import org.openhab.core.thing.ChannelUID;
+import org.openhab.core.thing.Thing;
+import org.openhab.core.thing.ThingStatus;
+import org.openhab.core.thing.ThingStatusInfo;
+import org.openhab.core.thing.ThingUID;
+import org.openhab.core.thing.binding.ThingHandlerCallback;
+import org.openhab.core.thing.binding.builder.BridgeBuilder;
+import org.openhab.core.thing.binding.builder.ChannelBuilder;
+import org.openhab.core.thing.binding.builder.ThingBuilder;
+import org.openhab.core.thing.i18n.ChannelTypeI18nLocalizationService;
+import org.openhab.core.types.State;
+
+/**
+ * The {@link WLedHandlerHarness} runs real {@link WLedHandler}s against a {@link WLedEmulator}, with everything the
+ * handler factory would normally give them and a mocked callback that records the status and channel states.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedHandlerHarness implements AutoCloseable {
+    private static final long WAIT_MS = 10000;
+    public final WLedEmulator emulator = new WLedEmulator();
+    public final ScheduledExecutorService scheduler;
+    private final HttpClient httpClient = new HttpClient();
+    private final WebSocketClient webSocketClient = new WebSocketClient();
+    private final WLedOptionsCache optionsCache;
+    private final WLedNotifierListener notifierListener = new WLedNotifierListener();
+    private final WLedWarmStart warmStart;
+    private final WledDynamicStateDescriptionProvider stateDescriptionProvider;
+    private final List<TestWLed> wleds = new ArrayList<>();
+    private final List<TestGroup> groups = new ArrayList<>();
+    public final Path userData;
+    private final @Nullable String lastUserData;
+
+    /**
+     * @param schedulerThreads the size of the binding scheduler, which the factory gets from the ThreadPoolManager.
+     */
+    public WLedHandlerHarness(int schedulerThreads) throws Exception {
+        lastUserData = System.getProperty("openhab.userdata");
+        userData = Files.createTempDirectory("wled");
+        System.setProperty("openhab.userdata", userData.toString());
+        scheduler = Executors.newScheduledThreadPool(schedulerThreads);
+        optionsCache = new WLedOptionsCache();
+        warmStart = new WLedWarmStart(scheduler);
+        stateDescriptionProvider = new WledDynamicStateDescriptionProvider(
+                mock(ChannelTypeI18nLocalizationService.class));
+        // every emulated WLED shares one host and port, so allow a connection for each of them
+        httpClient.setMaxConnectionsPerDestination(1000);
+        httpClient.start();
+        webSocketClient.start();
+    }
+
+    /**
+     * Adds a WLED to the emulator and starts a handler for it, using the defaults from thing-types.xml.
+     *
+     * @param config any config to change from the defaults
+     */
+    public TestWLed add(Map<String, Object> config) {
+        return add(emulator.addDevice(), config);
+    }
+
+    /**
+     * Starts a handler for a WLED that was already added to the emulator, so its latency or failures can be set up
+     * before the first request.
+     */
+    public TestWLed add(WLedEmulator.Device device, Map<String, Object> config) {
+        return add(device, config, null);
+    }
+
+    /**
+     * Starts a group bridge, and a handler for each of its members that uses it as their bridge.
+     *
+     * @param config any config of the group to change from the defaults
+     */
+    public TestGroup addGroup(int members, Map<String, Object> config) {
+        ThingUID bridgeUID = new ThingUID(THING_TYPE_GROUP, "group" + groups.size());
+        BridgeImpl bridge = (BridgeImpl) BridgeBuilder.create(THING_TYPE_GROUP, bridgeUID)
+                .withConfiguration(new Configuration(new HashMap<>(config))).build();
+        WLedGroupHandler handler = new WLedGroupHandler(bridge, scheduler);
+        bridge.setHandler(handler);
+        ThingHandlerCallback callback = mock(ThingHandlerCallback.class);
+        doAnswer(invocation -> {
+            bridge.setStatusInfo(invocation.getArgument(1));
+            return null;
+        }).when(callback).statusUpdated(any(), any());
+        handler.setCallback(callback);
+        TestGroup group = new TestGroup(bridge, handler);
+        synchronized (wleds) {
+            groups.add(group);
+        }
+        handler.initialize();
+        for (int i = 0; i < members; i++) {
+            TestWLed wled = add(emulator.addDevice(), Map.of(), bridgeUID);
+            bridge.addThing(wled.thing);
+            group.members.add(wled);
+        }
+        return group;
+    }
+
+    private TestWLed add(WLedEmulator.Device device, Map<String, Object> config, @Nullable ThingUID bridgeUID) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(CONFIG_ADDRESS, device.address);
+        properties.put("pollTime", 10);
+        properties.putAll(config);
+        ThingUID thingUID = new ThingUID(THING_TYPE_WLED, device.name);
+        Thing thing = ThingBuilder.create(THING_TYPE_WLED, thingUID).withConfiguration(new Configuration(properties))
+                .withChannel(ChannelBuilder.create(new ChannelUID(thingUID, CHANNEL_FX), "String").build())
+                .withChannel(ChannelBuilder.create(new ChannelUID(thingUID, CHANNEL_PALETTES), "String").build())
+                .withBridge(bridgeUID).build();
+        WLedHandler handler = new WLedHandler(thing, httpClient, httpClient, webSocketClient, scheduler, optionsCache,
+                notifierListener, warmStart, stateDescriptionProvider);
+        thing.setHandler(handler);
+        TestWLed wled = new TestWLed(device, thing, handler);
+        ThingHandlerCallback callback = mock(ThingHandlerCallback.class);
+        doAnswer(invocation -> {
+            thing.setStatusInfo(invocation.getArgument(1));
+            return null;
+        }).when(callback).statusUpdated(any(), any());
+        doAnswer(invocation -> {
+            ChannelUID channelUID = invocation.getArgument(0);
+            wled.states.put(channelUID.getId(), invocation.getArgument(1));
+            return null;
+        }).when(callback).stateUpdated(any(), any());
+        handler.setCallback(callback);
+        synchronized (wleds) {
+            wleds.add(wled);
+        }
+        handler.initialize();
+        return wled;
+    }
+
+    public TestWLed add() {
+        return add(Map.of());
+    }
+
+    /**
+     * Waits up to 10 seconds for the condition to become true.
+     */
+    public static void waitFor(BooleanSupplier condition, String description) throws InterruptedException {
+        waitFor(condition, description, WAIT_MS);
+    }
+
+    public static void waitFor(BooleanSupplier condition, String description, long timeoutMs)
+            throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > end) {
+                throw new AssertionError("Timed out waiting until " + description);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (wleds) {
+            for (TestWLed wled : wleds) {
+                wled.handler.dispose();
+            }
+            for (TestGroup group : groups) {
+                group.handler.dispose();
+            }
+        }
+        notifierListener.close();
+        webSocketClient.stop();
+        httpClient.stop();
+        emulator.close();
+        scheduler.shutdownNow();
+        String localUserData = lastUserData;
+        if (localUserData == null) {
+            System.clearProperty("openhab.userdata");
+        } else {
+            System.setProperty("openhab.userdata", localUserData);
+        }
+        try (Stream<Path> files = Files.walk(userData)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            // only a temporary folder
+        }
+    }
+
+    /**
+     * A handler and the emulated WLED it talks to.
+     */
+    public static class TestWLed {
+        public final WLedEmulator.Device device;
+        public final Thing thing;
+        public final WLedHandler handler;
+        /** The last state of each channel, by channel id. */
+        public final Map<String, State> states = new ConcurrentHashMap<>();
+
+        private TestWLed(WLedEmulator.Device device, Thing thing, WLedHandler handler) {
+            this.device = device;
+            this.thing = thing;
+            this.handler = handler;
+        }
+
+        public ChannelUID channel(String channelId) {
+            return new ChannelUID(thing.getUID(), channelId);
+        }
+
+        public ThingStatus getStatus() {
+            return thing.getStatus();
+        }
+
+        public ThingStatusInfo getStatusInfo() {
+            return thing.getStatusInfo();
+        }
+
+        public boolean isOnline() {
+            return thing.getStatus() == ThingStatus.ONLINE;
+        }
+    }
+
+    /**
+     * A group bridge and the handlers of its members.
+     */
+    public static class TestGroup {
+        public final BridgeImpl bridge;
+        public final WLedGroupHandler handler;
+        public final List<TestWLed> members = new ArrayList<>();
+
+        private TestGroup(BridgeImpl bridge, WLedGroupHandler handler) {
+            this.bridge = bridge;
+            this.handler = handler;
+        }
+
+        public ChannelUID channel(String channelId) {
+            return new ChannelUID(bridge.getUID(), channelId);
+        }
+    }
+}
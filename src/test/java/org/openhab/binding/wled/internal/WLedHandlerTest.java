@@ -0,0 +1,451 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.openhab.binding.wled.internal.WLedBindingConstants.*;
+import static org.openhab.binding.wled.internal.WLedHandlerHarness.waitFor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openhab.binding.wled.internal.WLedHandlerHarness.TestWLed;
+import org.openhab.core.library.types.IncreaseDecreaseType;
+import org.openhab.core.library.types.PercentType;
+import org.openhab.core.thing.ThingStatus;
+import org.openhab.core.thing.ThingStatusDetail;
+import org.openhab.core.types.RefreshType;
+
+/**
+ * Tests the {@link WLedHandler} against emulated WLEDs.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedHandlerTest {
+    private @Nullable WLedHandlerHarness harness;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        harness = new WLedHandlerHarness(2);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        WLedHandlerHarness localHarness = harness;
+        if (localHarness != null) {
+            localHarness.close();
+        }
+    }
+
+    private WLedHandlerHarness harness() {
+        WLedHandlerHarness localHarness = harness;
+        assertNotNull(localHarness);
+        return localHarness;
+    }
+
+    @Test
+    public void goesOnlineAndPublishesTheJsonState() throws InterruptedException {
+        TestWLed wled = harness().add();
+        waitFor(wled::isOnline, "the WLED is online");
+        waitFor(() -> new PercentType(50).equals(wled.states.get(CHANNEL_MASTER_CONTROLS)), "the brightness is 50%");
+        waitFor(() -> wled.states.containsKey(CHANNEL_PRIMARY_COLOR), "the colour is published");
+        waitFor(() -> wled.device.requests.contains("GET /json"), "the FX and palette names are fetched");
+        assertEquals(1, wled.device.count("GET /json/info"));
+        assertEquals(0, wled.device.count("GET /win"));
+    }
+
+    @Test
+    public void reusesTheFxAndPaletteNamesOfTheSameFirmware() throws InterruptedException {
+        TestWLed first = harness().add();
+        waitFor(() -> first.device.requests.contains("GET /json"), "the FX and palette names are fetched");
+        waitFor(() -> {
+            String[] files = harness().userData.resolve(BINDING_ID).toFile()
+                    .list((folder, name) -> name.startsWith("options-"));
+            return files != null && files.length > 0;
+        }, "the FX and palette names are stored");
+        TestWLed second = harness().add();
+        waitFor(second::isOnline, "the second WLED is online");
+        waitFor(() -> second.states.containsKey(CHANNEL_PRIMARY_COLOR), "the colour is published");
+        // a poll after the info reply gives the cache lookup time to finish, and a REFRESH that shares the reply of a
+        // poll already in flight is sent again
+        int polls = second.device.count("GET /json/state");
+        waitFor(() -> {
+            if (second.device.count("GET /json/state") > polls) {
+                return true;
+            }
+            second.handler.handleCommand(second.channel(CHANNEL_MASTER_CONTROLS), RefreshType.REFRESH);
+            return false;
+        }, "the WLED is polled again");
+        assertEquals(1, second.device.count("GET /json/info"));
+        assertFalse(second.device.requests.contains("GET /json"));
+    }
+
+    @Test
+    public void publishesTheStatePushedOverTheWebsocket() throws InterruptedException {
+        TestWLed wled = harness().add();
+        waitFor(wled::isOnline, "the WLED is online");
+        waitFor(wled.device::isWebSocketOpen, "the websocket is open");
+        // the reply of a poll that was in flight can land after the push, so the push is repeated until it shows
+        waitFor(() -> {
+            if (new PercentType(20).equals(wled.states.get(CHANNEL_MASTER_CONTROLS))) {
+                return true;
+            }
+            wled.device.setBrightness(51);
+            return false;
+        }, "the brightness is 20%");
+    }
+
+    @Test
+    public void pollsOnlyWhileTheWebsocketIsDown() throws InterruptedException {
+        TestWLed wled = harness().add(Map.of("pollTime", 1));
+        waitFor(wled::isOnline, "the WLED is online");
+        waitFor(wled.device::isWebSocketOpen, "the websocket is open");
+        waitFor(() -> wled.device.count("GET /json/state") > 0, "the first poll is sent");
+        int polls = wled.device.count("GET /json/state");
+        // without the websocket there would be a poll every second
+        Thread.sleep(2500);
+        assertEquals(polls, wled.device.count("GET /json/state"));
+        wled.device.dropWebSocket();
+        waitFor(() -> wled.device.count("GET /json/state") > polls, "the WLED is polled again");
+        waitFor(() -> wled.device.getWebSocketConnects() == 2, "the websocket is connected again");
+    }
+
+    @Test
+    public void pollsAWledWithoutAWebsocket() throws InterruptedException {
+        WLedEmulator.Device device = harness().emulator.addDevice();
+        device.webSocketEnabled = false;
+        TestWLed wled = harness().add(device, Map.of("pollTime", 1));
+        waitFor(wled::isOnline, "the WLED is online");
+        waitFor(() -> wled.device.count("GET /json/state") >= 3, "the WLED is polled");
+        assertFalse(device.isWebSocketOpen());
+    }
+
+    @Test
+    public void readsTheWinApi() throws InterruptedException {
+        TestWLed wled = harness().add(Map.of("jsonApi", false));
+        waitFor(wled::isOnline, "the WLED is online");
+        waitFor(() -> new PercentType(50).equals(wled.states.get(CHANNEL_MASTER_CONTROLS)), "the brightness is 50%");
+        assertTrue(wled.device.count("GET /win") > 0);
+        assertEquals(0, wled.device.count("GET /json/state"));
+    }
+
+    @Test
+    public void fallsBackToTheWinApiWithoutAJsonApi() throws InterruptedException {
+        WLedEmulator.Device device = harness().emulator.addDevice();
+        device.jsonApi = false;
+        device.webSocketEnabled = false;
+        TestWLed wled = harness().add(device, Map.of("coalesceTime", 0));
+        waitFor(wled::isOnline, "the WLED is online");
+        waitFor(() -> new PercentType(50).equals(wled.states.get(CHANNEL_MASTER_CONTROLS)), "the brightness is 50%");
+        wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), new PercentType(20));
+        waitFor(() -> wled.device.requests.contains("GET /win&TT=2000&A=51"), "the command is sent to /win");
+        assertEquals(ThingStatus.ONLINE, wled.getStatus());
+        assertEquals(1, wled.device.count("GET /json/state"));
+    }
+
+    @Test
+    public void fallsBackToTheWinApiForFirmwareBefore010() throws InterruptedException {
+        WLedEmulator.Device device = harness().emulator.addDevice();
+        device.version = "0.9.1";
+        device.webSocketEnabled = false;
+        TestWLed wled = harness().add(device, Map.of("coalesceTime", 0));
+        waitFor(wled::isOnline, "the WLED is online");
+        waitFor(() -> wled.device.count("GET /win") > 0, "the WLED is polled on /win");
+        wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), new PercentType(20));
+        waitFor(() -> wled.device.requests.contains("GET /win&TT=2000&A=51"), "the command is sent to /win");
+        assertEquals(0, wled.device.count("POST /json/state"));
+    }
+
+    @Test
+    public void publishesTheStateThatACommandRepliesWith() throws InterruptedException {
+        TestWLed wled = harness().add();
+        waitFor(wled::isOnline, "the WLED is online");
+        wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), new PercentType(20));
+        waitFor(() -> new PercentType(20).equals(wled.states.get(CHANNEL_MASTER_CONTROLS)), "the brightness is 20%");
+        assertTrue(wled.device.requests.contains("POST /json/state {\"bri\":51,\"transition\":20,\"v\":true}"));
+    }
+
+    @Test
+    public void goesOfflineWhileTheWledFails() throws InterruptedException {
+        WLedEmulator.Device device = harness().emulator.addDevice();
+        device.failing = true;
+        TestWLed wled = harness().add(device, Map.of());
+        waitFor(() -> wled.getStatus() == ThingStatus.OFFLINE, "the WLED is offline");
+        assertEquals(ThingStatusDetail.COMMUNICATION_ERROR, wled.getStatusInfo().getStatusDetail());
+    }
+
+    @Test
+    public void failsCommandsFastWhileTheBreakerIsOpen() throws Exception {
+        WLedEmulator.Device device = harness().emulator.addDevice();
+        device.failing = true;
+        device.latencyMs = 1000;
+        TestWLed wled = harness().add(device, Map.of("failureThreshold", 1));
+        waitFor(() -> wled.getStatus() == ThingStatus.OFFLINE, "the WLED is offline");
+        CompletableFuture<Boolean> sent = new CompletableFuture<>();
+        long start = System.nanoTime();
+        wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), new PercentType(20), sent::complete);
+        assertFalse(sent.get(500, TimeUnit.MILLISECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < device.latencyMs);
+        assertEquals(0, device.count("POST"));
+    }
+
+    @Test
+    public void probesAnUnreachableWledAtTheBackoffInterval() throws InterruptedException {
+        WLedEmulator.Device device = harness().emulator.addDevice();
+        device.failing = true;
+        TestWLed wled = harness().add(device, Map.of("pollTime", 1, "failureThreshold", 2));
+        waitFor(() -> wled.getStatus() == ThingStatus.OFFLINE, "the WLED is offline");
+        // the polls every second stop after two failures, until the first probe 5 seconds later
+        waitFor(() -> device.count("GET /json/state") >= 3, "the WLED is probed");
+        List<Long> times = device.times("GET /json/state");
+        long gap = times.get(2) - times.get(1);
+        assertTrue(gap >= 4900 && gap < 7000, "probed after " + gap + " ms");
+    }
+
+    @Test
+    public void replaysHeldCommandsWhenTheWledComesBack() throws InterruptedException {
+        WLedEmulator.Device device = harness().emulator.addDevice();
+        device.failing = true;
+        TestWLed wled = harness().add(device,
+                Map.of("pollTime", 1, "failureThreshold", 1, "offlineCommands", WLedConfiguration.REPLAY));
+        waitFor(() -> wled.getStatus() == ThingStatus.OFFLINE, "the WLED is offline");
+        wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), new PercentType(20));
+        Thread.sleep(200);
+        assertEquals(0, device.count("POST"));
+        device.failing = false;
+        waitFor(wled::isOnline, "the WLED is back online");
+        waitFor(() -> device.requests.contains("POST /json/state {\"bri\":51,\"transition\":20,\"v\":true}"),
+                "the held command is replayed");
+        waitFor(() -> new PercentType(20).equals(wled.states.get(CHANNEL_MASTER_CONTROLS)), "the brightness is 20%");
+    }
+
+    @Test
+    public void mergesABurstOfCommandsIntoOneRequest() throws InterruptedException {
+        TestWLed wled = harness().add(Map.of("jsonApi", false, "coalesceTime", 200));
+        waitFor(wled::isOnline, "the WLED is online");
+        int requests = wled.device.requests.size();
+        AtomicInteger sent = new AtomicInteger();
+        for (int percent = 1; percent <= 20; percent++) {
+            wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), new PercentType(percent),
+                    success -> sent.incrementAndGet());
+        }
+        waitFor(() -> sent.get() == 20, "every command has been sent");
+        List<String> commands = new ArrayList<>(wled.device.requests.subList(requests, wled.device.requests.size()));
+        commands.removeIf(request -> !request.startsWith("GET /win&"));
+        assertEquals(List.of("GET /win&TT=2000&A=51"), commands);
+        assertEquals(1, wled.device.getMaxInFlight());
+    }
+
+    @Test
+    public void mergesABurstOfCommandsIntoOneJsonRequest() throws InterruptedException {
+        TestWLed wled = harness().add(Map.of("coalesceTime", 200));
+        waitFor(wled::isOnline, "the WLED is online");
+        AtomicInteger sent = new AtomicInteger();
+        for (int percent = 1; percent <= 20; percent++) {
+            wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), new PercentType(percent),
+                    success -> sent.incrementAndGet());
+        }
+        waitFor(() -> sent.get() == 20, "every command has been sent");
+        assertEquals(1, wled.device.count("POST /json/state"));
+        assertTrue(wled.device.requests.contains("POST /json/state {\"bri\":51,\"transition\":20,\"v\":true}"));
+        assertEquals(1, wled.device.getMaxInFlight());
+        assertEquals(19, wled.handler.getMetrics().getMergedCommands());
+    }
+
+    @Test
+    public void doesNotMergeRelativeChanges() throws InterruptedException {
+        TestWLed wled = harness().add(Map.of("jsonApi", false, "coalesceTime", 200));
+        waitFor(() -> new PercentType(50).equals(wled.states.get(CHANNEL_MASTER_CONTROLS)), "the brightness is 50%");
+        wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), IncreaseDecreaseType.INCREASE);
+        wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), IncreaseDecreaseType.INCREASE);
+        // 128 + 15 + 15 = 158
+        waitFor(() -> new PercentType(62).equals(wled.states.get(CHANNEL_MASTER_CONTROLS)), "both steps are applied");
+        assertEquals(2, wled.device.count("GET /win&TT=2000&A=~15"));
+    }
+
+    @Test
+    public void skipsUpdatesOfUnchangedChannels() throws InterruptedException {
+        TestWLed wled = harness().add();
+        waitFor(wled::isOnline, "the WLED is online");
+        waitFor(wled.device::isWebSocketOpen, "the websocket is open");
+        waitFor(() -> wled.states.containsKey(CHANNEL_PRIMARY_COLOR), "the colour is published");
+        long suppressed = wled.handler.getMetrics().getSuppressedUpdates();
+        wled.states.clear();
+        wled.device.push();
+        waitFor(() -> wled.handler.getMetrics().getSuppressedUpdates() > suppressed, "the same state is skipped");
+        assertTrue(wled.states.isEmpty(), "published " + wled.states.keySet());
+        assertTrue(wled.handler.getMetrics().describe().containsKey("Skipped"));
+    }
+
+    @Test
+    public void collapsesRefreshesIntoOnePoll() throws InterruptedException {
+        TestWLed wled = harness().add();
+        waitFor(() -> wled.device.requests.contains("GET /json"), "the FX and palette names are fetched");
+        wled.device.hold();
+        int polls = wled.device.count("GET /json/state");
+        for (int i = 0; i < 10; i++) {
+            wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), RefreshType.REFRESH);
+        }
+        waitFor(() -> wled.device.count("GET /json/state") > polls, "a poll is sent");
+        assertEquals(0, wled.handler.getQueuedRequests(), "every REFRESH shares the poll that is in flight");
+        wled.states.clear();
+        wled.device.releaseAll();
+        waitFor(() -> wled.states.containsKey(CHANNEL_MASTER_CONTROLS)
+                && wled.states.containsKey(CHANNEL_PRIMARY_COLOR), "the reply is published to every channel");
+    }
+
+    @Test
+    public void skipsPollsWhileACommandReplyIsPending() throws InterruptedException {
+        TestWLed wled = harness().add(Map.of("coalesceTime", 0));
+        waitFor(() -> wled.device.requests.contains("GET /json"), "the FX and palette names are fetched");
+        wled.device.hold();
+        int requests = wled.device.requests.size();
+        AtomicInteger replies = new AtomicInteger();
+        wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), new PercentType(20),
+                success -> replies.incrementAndGet());
+        waitFor(() -> wled.device.requests.size() > requests, "a request is sent");
+        if (!wled.device.requests.get(requests).startsWith("POST")) {
+            // a poll came due first, and the command goes straight after it
+            wled.device.release(1);
+            waitFor(() -> wled.device.count("POST /json/state") == 1, "the command is sent");
+        }
+        for (int i = 0; i < 10; i++) {
+            wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), RefreshType.REFRESH);
+        }
+        assertEquals(0, wled.handler.getQueuedRequests(), "the reply to the command will hold the state");
+        wled.device.releaseAll();
+        waitFor(() -> replies.get() == 1, "the command has been replied to");
+        assertEquals(new PercentType(20), wled.states.get(CHANNEL_MASTER_CONTROLS));
+    }
+
+    @Test
+    public void sendsACommandBeforeTheNextPoll() throws InterruptedException {
+        TestWLed wled = harness().add(Map.of("coalesceTime", 0));
+        waitFor(() -> wled.device.requests.contains("GET /json"), "the FX and palette names are fetched");
+        wled.device.hold();
+        int requests = wled.device.requests.size();
+        wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), RefreshType.REFRESH);
+        waitFor(() -> wled.device.requests.size() > requests, "the poll is sent");
+        wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), new PercentType(20));
+        assertEquals(1, wled.handler.getQueuedRequests(), "the command waits for the poll in flight");
+        wled.device.release(1);
+        waitFor(() -> wled.device.requests.size() > requests + 1, "the next request is sent");
+        assertTrue(wled.device.requests.get(requests + 1).startsWith("POST /json/state"),
+                "the command went ahead of any poll, sent " + wled.device.requests.get(requests + 1));
+        wled.device.releaseAll();
+    }
+
+    @Test
+    public void startsNoThreadsForEachWled() throws InterruptedException {
+        List<TestWLed> wleds = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            wleds.add(harness().add());
+        }
+        waitFor(() -> wleds.stream().allMatch(TestWLed::isOnline), "the first WLEDs are online");
+        Set<Thread> before = Thread.getAllStackTraces().keySet();
+        for (int i = 0; i < 90; i++) {
+            wleds.add(harness().add());
+        }
+        waitFor(() -> wleds.stream().allMatch(TestWLed::isOnline), "all WLEDs are online");
+        // the emulator answers each request on its own thread, and the HTTP client grows with its connections
+        List<String> started = Thread.getAllStackTraces().keySet().stream().filter(thread -> !before.contains(thread))
+                .map(Thread::getName).filter(name -> !name.startsWith("wled-emulator") && !name.contains("HttpClient"))
+                .collect(Collectors.toList());
+        assertTrue(started.size() <= 4, "90 more WLEDs started the threads " + started);
+    }
+
+    /**
+     * Polls a WLED that keeps its connection alive and one that closes it after each reply, while every new connection
+     * takes 50 ms to set up, and compares the latency the binding sees.
+     */
+    @Test
+    public void reusingTheConnectionSavesTheSetupOfEachRequest() throws InterruptedException {
+        harness().emulator.connectMs = 50;
+        TestWLed reused = harness().add(Map.of("websocket", false));
+        TestWLed closed = harness().add(Map.of("websocket", false));
+        closed.device.keepAlive = false;
+        for (TestWLed wled : List.of(reused, closed)) {
+            waitFor(wled::isOnline, "the WLED is online");
+            for (int i = 0; i < 20; i++) {
+                long requests = wled.handler.getMetrics().getRequests();
+                // a REFRESH that shares the reply of a poll already in flight is sent again
+                waitFor(() -> {
+                    if (wled.handler.getMetrics().getRequests() > requests) {
+                        return true;
+                    }
+                    wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), RefreshType.REFRESH);
+                    return false;
+                }, "the WLED replies to the poll");
+            }
+        }
+        long reusedMs = reused.handler.getMetrics().getAverageLatency();
+        long closedMs = closed.handler.getMetrics().getAverageLatency();
+        System.out.println("Average latency " + reusedMs + " ms reusing the connection, " + closedMs
+                + " ms with a new connection for each request");
+        assertTrue(closedMs - reusedMs >= 25, "took " + reusedMs + " ms reusing the connection and " + closedMs
+                + " ms without");
+    }
+
+    /**
+     * Sends a command to 50 WLEDs, one of which stops replying, and checks that neither the caller nor the other WLEDs
+     * wait for the 3 second timeout of the one that hangs.
+     */
+    @Test
+    public void aHangingWledDoesNotHoldUpTheOthers() throws InterruptedException {
+        List<TestWLed> wleds = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            TestWLed wled = harness().add();
+            wled.device.latencyMs = 20;
+            wleds.add(wled);
+        }
+        waitFor(() -> wleds.stream().allMatch(TestWLed::isOnline), "every WLED is online");
+        long healthyMs = sendToAll(wleds, new PercentType(30));
+        TestWLed hanging = wleds.get(0);
+        hanging.device.latencyMs = 10000;
+        long hangingMs = sendToAll(wleds, new PercentType(60));
+        assertTrue(healthyMs < 2000, "took " + healthyMs + " ms with every WLED replying");
+        assertTrue(hangingMs < 2000, "took " + hangingMs + " ms with one WLED hanging");
+        assertNotEquals(ThingStatus.OFFLINE, wleds.get(1).getStatus());
+    }
+
+    /**
+     * @return how long it took until every WLED but the first had replied to the command.
+     */
+    private long sendToAll(List<TestWLed> wleds, PercentType command) throws InterruptedException {
+        AtomicInteger replied = new AtomicInteger();
+        long start = System.nanoTime();
+        for (TestWLed wled : wleds) {
+            wled.handler.handleCommand(wled.channel(CHANNEL_MASTER_CONTROLS), command, success -> {
+                if (success && wled != wleds.get(0)) {
+                    replied.incrementAndGet();
+                }
+            });
+        }
+        long dispatchMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(dispatchMs < 500, "handleCommand blocked the caller for " + dispatchMs + " ms");
+        waitFor(() -> replied.get() == wleds.size() - 1, "every other WLED has replied");
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests how {@link WLedJsonCommand} maps /win parameters onto the JSON API.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedJsonCommandTest {
+    private final WLedState current = new WLedState();
+    private final List<String> unsupported = new ArrayList<>();
+
+    private String encode(String... parameters) {
+        String json = WLedJsonCommand.encode(Arrays.asList(parameters), current, unsupported);
+        assertNotNull(json);
+        return json;
+    }
+
+    @Test
+    public void mapsTheMainParameters() {
+        assertEquals("{\"bri\":128,\"transition\":7,\"seg\":{\"col\":[[255,0,0],[]],\"fx\":3},\"v\":true}",
+                encode("A=128", "TT=700", "CL=hFF0000", "FX=3"));
+        assertEquals("{\"seg\":{\"col\":[[],[0,0,255]],\"sx\":10,\"ix\":20,\"pal\":4},\"v\":true}",
+                encode("C2=h0000FF", "SX=10", "IX=20", "FP=4"));
+        assertTrue(unsupported.isEmpty());
+    }
+
+    @Test
+    public void mapsOnOffAndToggle() {
+        assertEquals("{\"on\":false,\"v\":true}", encode("T=0"));
+        assertEquals("{\"on\":true,\"v\":true}", encode("T=1"));
+        assertEquals("{\"on\":\"t\",\"v\":true}", encode("T=2"));
+    }
+
+    @Test
+    public void mapsPresetsAndTheNightlight() {
+        assertEquals("{\"ps\":3,\"v\":true}", encode("PL=3"));
+        assertEquals("{\"psave\":4,\"v\":true}", encode("PS=4"));
+        assertEquals("{\"nl\":{\"on\":true},\"v\":true}", encode("ND"));
+        assertEquals("{\"nl\":{\"on\":false},\"v\":true}", encode("NL=0"));
+    }
+
+    @Test
+    public void sendsWhiteWithTheColour() {
+        assertEquals("{\"seg\":{\"col\":[[255,0,0,200],[]]},\"v\":true}", encode("CL=hC8FF0000"));
+    }
+
+    @Test
+    public void fillsInTheCurrentColourWhenOnlyTheWhiteChanges() {
+        current.primary[0] = 1;
+        current.primary[1] = 2;
+        current.primary[2] = 3;
+        assertEquals("{\"seg\":{\"col\":[[1,2,3,200],[]]},\"v\":true}", encode("W=200"));
+        assertEquals("{\"seg\":{\"col\":[[],[0,0,0,255]]},\"v\":true}", encode("W2=300"));
+    }
+
+    @Test
+    public void leavesParametersWithoutAJsonEquivalentForWin() {
+        assertEquals("{\"bri\":10,\"v\":true}", encode("A=10", "CY=1", "PT=5000", "NL=5"));
+        assertEquals(Arrays.asList("CY=1", "PT=5000", "NL=5"), unsupported);
+    }
+
+    @Test
+    public void leavesRelativeStepsForWin() {
+        assertNull(WLedJsonCommand.encode(Arrays.asList("A=~15"), current, unsupported));
+        assertNull(WLedJsonCommand.encode(Arrays.asList("FX=x", "CL=h"), current, unsupported));
+        assertEquals(Arrays.asList("A=~15", "FX=x", "CL=h"), unsupported);
+    }
+
+    @Test
+    public void putsSeveralSegmentsInOneArray() {
+        Map<Integer, List<String>> segments = new TreeMap<>();
+        segments.put(2, Arrays.asList("FX=5", "SX=100"));
+        segments.put(0, Arrays.asList("CL=h00FF00"));
+        assertEquals("{\"seg\":[{\"id\":0,\"col\":[[0,255,0],[]]},{\"id\":2,\"fx\":5,\"sx\":100}],\"v\":true}",
+                WLedJsonCommand.encodeSegments(segments, current));
+    }
+
+    @Test
+    public void skipsSegmentsWithNothingToSend() {
+        Map<Integer, List<String>> segments = new TreeMap<>();
+        segments.put(1, Collections.singletonList("CY=1"));
+        assertNull(WLedJsonCommand.encodeSegments(segments, current));
+    }
+}
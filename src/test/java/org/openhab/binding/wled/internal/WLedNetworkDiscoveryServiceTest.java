@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.openhab.binding.wled.internal.WLedBindingConstants.*;
+import static org.openhab.binding.wled.internal.WLedHandlerHarness.waitFor;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jetty.client.HttpClient;
+import org.junit.jupiter.api.Test;
+import org.openhab.core.config.discovery.DiscoveryResult;
+import org.openhab.core.io.net.http.HttpClientFactory;
+import org.openhab.core.thing.Thing;
+import org.openhab.core.thing.ThingUID;
+
+/**
+ * Tests how the {@link WLedNetworkDiscoveryService} reads the scanRanges config, and the /json/info replies that
+ * tell it a WLED was found, and scans for a WLED running in the {@link WLedEmulator}.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedNetworkDiscoveryServiceTest {
+    private static long address(int a, int b, int c, int d) {
+        return (long) a << 24 | b << 16 | c << 8 | d;
+    }
+
+    @Test
+    public void parseCidrSkipsTheNetworkAndBroadcastAddresses() {
+        assertArrayEquals(new long[] { address(192, 168, 1, 1), address(192, 168, 1, 254) },
+                WLedNetworkDiscoveryService.parseCidr("192.168.1.0/24"));
+        assertArrayEquals(new long[] { address(10, 0, 0, 1), address(10, 0, 255, 254) },
+                WLedNetworkDiscoveryService.parseCidr(" 10.0.0.0/16 "));
+    }
+
+    @Test
+    public void parseCidrMasksTheHostPart() {
+        assertArrayEquals(new long[] { address(192, 168, 1, 1), address(192, 168, 1, 254) },
+                WLedNetworkDiscoveryService.parseCidr("192.168.1.77/24"));
+    }
+
+    @Test
+    public void parseCidrKeepsTinyRangesWhole() {
+        assertArrayEquals(new long[] { address(192, 168, 1, 40), address(192, 168, 1, 40) },
+                WLedNetworkDiscoveryService.parseCidr("192.168.1.40"));
+        assertArrayEquals(new long[] { address(192, 168, 1, 40), address(192, 168, 1, 41) },
+                WLedNetworkDiscoveryService.parseCidr("192.168.1.40/31"));
+    }
+
+    @Test
+    public void parseCidrWorksAboveTheSignBit() {
+        assertArrayEquals(new long[] { address(255, 255, 255, 1), address(255, 255, 255, 254) },
+                WLedNetworkDiscoveryService.parseCidr("255.255.255.0/24"));
+    }
+
+    @Test
+    public void parseCidrRejectsRangesThatAreNotValid() {
+        for (String cidr : new String[] { "192.168.1", "192.168.1.0/24/1", "192.168.256.0/24", "192.168.1.0/15",
+                "192.168.1.0/33", "wled.local", "192.168.1.0/x" }) {
+            assertThrows(IllegalArgumentException.class, () -> WLedNetworkDiscoveryService.parseCidr(cidr), cidr);
+        }
+    }
+
+    @Test
+    public void parseInfoReadsTheFieldsDiscoveryNeeds() throws IOException {
+        WLedInfo info = WLedInfo.parse("{\"ver\":\"0.11.0\",\"vid\":2011200,\"leds\":{\"count\":30,\"rgbw\":false,"
+                + "\"pin\":[2]},\"name\":\"Kitchen\",\"udpport\":21324,\"mac\":\"a4cf12fdae1c\"}");
+        assertEquals("0.11.0", info.version);
+        assertEquals("0.11.0-2011200", info.getFirmware());
+        assertEquals("Kitchen", info.name);
+        assertEquals("a4cf12fdae1c", info.mac);
+        assertEquals(30, info.ledCount);
+    }
+
+    @Test
+    public void scanFindsAWledByItsMac() throws Exception {
+        HttpClient httpClient = new HttpClient();
+        httpClient.start();
+        try (WLedEmulator emulator = new WLedEmulator()) {
+            emulator.addDevice();
+            WLedEmulator.Device device = emulator.addRootDevice();
+            HttpClientFactory httpClientFactory = mock(HttpClientFactory.class);
+            doAnswer(invocation -> httpClient).when(httpClientFactory).getCommonHttpClient();
+            List<DiscoveryResult> results = new CopyOnWriteArrayList<>();
+            WLedNetworkDiscoveryService service = new WLedNetworkDiscoveryService(httpClientFactory,
+                    Map.of(CONFIG_SCAN_RANGES, "127.0.0.1/32"), URI.create(device.address).getPort()) {
+                @Override
+                protected void thingDiscovered(DiscoveryResult discoveryResult) {
+                    results.add(discoveryResult);
+                }
+            };
+            service.startScan();
+            waitFor(() -> !results.isEmpty(), "the WLED is found");
+            DiscoveryResult result = results.get(0);
+            assertEquals(new ThingUID(THING_TYPE_WLED, "a4cf12fd0001"), result.getThingUID());
+            assertEquals(device.address, result.getProperties().get(CONFIG_ADDRESS));
+            assertEquals("a4cf12fd0001", result.getProperties().get(Thing.PROPERTY_MAC_ADDRESS));
+            assertEquals(List.of("GET /json/info"), device.requests);
+        } finally {
+            httpClient.stop();
+        }
+    }
+
+    @Test
+    public void parseInfoOfAnotherDeviceHasNoVersion() throws IOException {
+        WLedInfo info = WLedInfo.parse("{\"status\":\"ok\",\"name\":\"printer\"}");
+        assertTrue(info.version.isEmpty());
+        assertTrue(info.mac.isEmpty());
+    }
+}
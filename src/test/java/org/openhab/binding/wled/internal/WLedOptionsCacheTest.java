@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the {@link WLedOptionsCache} reads the FX and palette names out of a /json reply, and keeps them for
+ * each firmware version in the userdata folder.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedOptionsCacheTest {
+    private @Nullable Path userdata;
+    private @Nullable String oldUserdata;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        userdata = Files.createTempDirectory("wled-userdata");
+        oldUserdata = System.getProperty("openhab.userdata");
+        System.setProperty("openhab.userdata", userdata.toString());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        String localOldUserdata = oldUserdata;
+        if (localOldUserdata == null) {
+            System.clearProperty("openhab.userdata");
+        } else {
+            System.setProperty("openhab.userdata", localOldUserdata);
+        }
+        Path localUserdata = userdata;
+        if (localUserdata != null) {
+            try (Stream<Path> files = Files.walk(localUserdata)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void parseOptionsReadsTheNamesOutOfAJsonReply() throws IOException {
+        WLedOptionsCache.Options options = WLedOptionsCache.parseOptions(WLedStateTest.load("json-0.11.0.json"));
+        assertEquals(118, options.effects.size());
+        assertEquals("Solid", options.effects.get(0));
+        assertEquals("Dynamic Smooth", options.effects.get(117));
+        assertEquals(56, options.palettes.size());
+        assertEquals("* Colors 1&2", options.palettes.get(3));
+    }
+
+    @Test
+    public void savedOptionsAreReadBackByANewCache() {
+        new WLedOptionsCache().put("0.11.0", new WLedOptionsCache.Options(Arrays.asList("Solid", "Blink"),
+                Arrays.asList("Default", "Red & Blue")));
+        WLedOptionsCache.Options options = new WLedOptionsCache().get("0.11.0");
+        assertNotNull(options);
+        assertEquals(Arrays.asList("Solid", "Blink"), options.effects);
+        assertEquals(Arrays.asList("Default", "Red & Blue"), options.palettes);
+    }
+
+    @Test
+    public void eachFirmwareHasItsOwnOptions() {
+        WLedOptionsCache cache = new WLedOptionsCache();
+        cache.put("0.10.2", new WLedOptionsCache.Options(Arrays.asList("Solid"), Arrays.asList("Default")));
+        assertNull(cache.get("0.11.0"));
+        assertNull(new WLedOptionsCache().get("0.11.0"));
+    }
+
+    @Test
+    public void firmwareNamesAreSafeFileNames() {
+        new WLedOptionsCache().put("0.11.0/../b", new WLedOptionsCache.Options(Arrays.asList("Solid"),
+                Arrays.asList("Default")));
+        assertTrue(Files.exists(userdataFolder().resolve("options-0.11.0_.._b.json")));
+        assertNotNull(new WLedOptionsCache().get("0.11.0/../b"));
+    }
+
+    @Test
+    public void aDamagedFileIsIgnored() throws IOException {
+        Files.createDirectories(userdataFolder());
+        Files.write(userdataFolder().resolve("options-0.11.0.json"), "{\"effects\":[".getBytes(StandardCharsets.UTF_8));
+        assertNull(new WLedOptionsCache().get("0.11.0"));
+    }
+
+    private Path userdataFolder() {
+        Path localUserdata = userdata;
+        assertNotNull(localUserdata);
+        return localUserdata.resolve(WLedBindingConstants.BINDING_ID);
+    }
+}
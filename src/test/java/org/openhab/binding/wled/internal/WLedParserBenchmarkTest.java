@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.openhab.binding.wled.internal.WLedStateTest.*;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openhab.core.library.types.PercentType;
+
+/**
+ * Measures the cost of parsing each kind of WLED reply and of encoding a command, using replies in the format of
+ * several firmware versions. Run with -Dwled.benchmark=true.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+@EnabledIfSystemProperty(named = "wled.benchmark", matches = "true")
+public class WLedParserBenchmarkTest {
+
+    @Test
+    public void benchmarkParseXml() throws Exception {
+        WLedState state = new WLedState();
+        for (String name : new String[] { "win-0.8.6-off.xml", "win-0.10.2.xml", "win-0.11.0-rgbw.xml" }) {
+            String xml = load(name);
+            WLedBenchmark.measure("parseXml " + name, () -> state.parseXml(xml) ? 1 : 0);
+        }
+    }
+
+    @Test
+    public void benchmarkParseJson() throws Exception {
+        WLedState state = new WLedState();
+        for (String name : new String[] { "json-state-0.10.2.json", "json-state-0.11.0-rgbw.json",
+                "websocket-0.11.0.json" }) {
+            String json = load(name);
+            WLedBenchmark.measure("parseJson " + name, () -> state.parseJson(json) ? 1 : 0);
+        }
+    }
+
+    @Test
+    public void benchmarkParseNotifier() throws Exception {
+        WLedState state = new WLedState();
+        byte[] packet = notifier(5);
+        WLedBenchmark.measure("parseNotifier version 5", () -> state.parseNotifier(packet, 24) ? 1 : 0);
+    }
+
+    @Test
+    public void benchmarkParseOptions() throws Exception {
+        String json = load("json-0.11.0.json");
+        WLedBenchmark.measure("parseOptions json-0.11.0.json", () -> WLedOptionsCache.parseOptions(json));
+    }
+
+    @Test
+    public void benchmarkEncodeCommand() throws Exception {
+        WLedCommandEncoder encoder = new WLedCommandEncoder();
+        PercentType[] percents = new PercentType[101];
+        for (int i = 0; i < percents.length; i++) {
+            percents[i] = new PercentType(i);
+        }
+        int[] index = new int[1];
+        WLedBenchmark.measure("encode A and CL", () -> {
+            int percent = index[0]++ % percents.length;
+            return encoder.win().add("A", WLedCommandEncoder.toByte(percents[percent]))
+                    .addColour("CL", percent * 0x020304).toUrl();
+        });
+    }
+}
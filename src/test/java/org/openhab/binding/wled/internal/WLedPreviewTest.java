@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Tests how the {@link WLedPreview} turns /json/live replies into a preview.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedPreviewTest {
+
+    private static String live(int leds, String colour) {
+        StringBuilder json = new StringBuilder("{\"leds\":[");
+        for (int led = 0; led < leds; led++) {
+            json.append(led == 0 ? "\"" : ",\"").append(colour).append('"');
+        }
+        return json.append("],\"n\":1}").toString();
+    }
+
+    @Test
+    public void updateAveragesEachBucket() {
+        WLedPreview preview = new WLedPreview(2);
+        assertEquals("7F0000,0000FF",
+                preview.update("{\"leds\":[\"FF0000\",\"000000\",\"0000FF\",\"0000FF\"],\"n\":1}"));
+    }
+
+    @Test
+    public void updateSplitsUnevenStrips() {
+        WLedPreview preview = new WLedPreview(2);
+        assertEquals("FF0000,00FF00", preview.update("{\"leds\":[\"FF0000\",\"FF0000\",\"00FF00\",\"00FF00\","
+                + "\"00FF00\"],\"n\":1}"));
+    }
+
+    @Test
+    public void updateUsesOneColourPerLedOnShortStrips() {
+        WLedPreview preview = new WLedPreview(16);
+        assertEquals("FF0000,00FF00", preview.update("{\"leds\":[\"FF0000\",\"00ff00\"],\"n\":1}"));
+    }
+
+    @Test
+    public void updateOnlyReturnsAChangedPreview() {
+        WLedPreview preview = new WLedPreview(4);
+        assertEquals("FF8000,FF8000,FF8000,FF8000", preview.update(live(500, "FF8000")));
+        assertNull(preview.update(live(500, "FF8000")));
+        assertEquals("0000FF,0000FF,0000FF,0000FF", preview.update(live(500, "0000FF")));
+    }
+
+    @Test
+    public void updateDropsTheWhiteOfRgbwColours() {
+        WLedPreview preview = new WLedPreview(2);
+        assertEquals("FF8000,0000FF", preview.update("{\"leds\":[\"80FF8000\",\"000000FF\"],\"n\":1}"));
+    }
+
+    @Test
+    public void updateGrowsForLongStrips() {
+        WLedPreview preview = new WLedPreview(3);
+        assertEquals("00FF00,00FF00,00FF00", preview.update(live(1000, "00FF00")));
+    }
+
+    @Test
+    public void updateIgnoresRepliesWithoutLeds() {
+        WLedPreview preview = new WLedPreview(4);
+        assertNull(preview.update("{\"leds\":[],\"n\":1}"));
+        assertNull(preview.update("{\"error\":9}"));
+        assertNull(preview.update(""));
+    }
+
+    /**
+     * Measures a 500 LED reply, changing each time, so a new preview is made on every update. Run with
+     * -Dwled.benchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "wled.benchmark", matches = "true")
+    public void benchmarkUpdate() throws Exception {
+        WLedPreview preview = new WLedPreview(16);
+        String[] replies = { live(500, "FF8000"), live(500, "0080FF") };
+        int[] index = new int[1];
+        WLedBenchmark.measure("WLedPreview.update 500 LEDs", () -> preview.update(replies[index[0]++ & 1]));
+    }
+}
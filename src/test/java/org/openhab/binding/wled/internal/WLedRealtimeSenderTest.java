@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openhab.binding.wled.internal.WLedRealtimeSender.Protocol;
+
+/**
+ * Tests the packets that the {@link WLedRealtimeSender} streams, by listening for them on a local UDP socket.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedRealtimeSenderTest {
+    private static final int FPS = 60;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private @Nullable DatagramSocket receiver;
+    private @Nullable WLedRealtimeSender sender;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        DatagramSocket socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        socket.setSoTimeout(2000);
+        socket.setReceiveBufferSize(1 << 20);
+        receiver = socket;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        WLedRealtimeSender localSender = sender;
+        if (localSender != null) {
+            localSender.close();
+        }
+        DatagramSocket localReceiver = receiver;
+        if (localReceiver != null) {
+            localReceiver.close();
+        }
+        scheduler.shutdownNow();
+    }
+
+    private WLedRealtimeSender createSender(Protocol protocol, int leds) throws IOException {
+        DatagramSocket localReceiver = receiver;
+        assertNotNull(localReceiver);
+        WLedRealtimeSender newSender = new WLedRealtimeSender(InetAddress.getLoopbackAddress(),
+                localReceiver.getLocalPort(), protocol, leds, FPS, scheduler);
+        sender = newSender;
+        return newSender;
+    }
+
+    private byte[] receive() throws IOException {
+        DatagramSocket localReceiver = receiver;
+        assertNotNull(localReceiver);
+        byte[] buffer = new byte[2048];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        localReceiver.receive(packet);
+        return Arrays.copyOf(buffer, packet.getLength());
+    }
+
+    private static int[] colours(int leds) {
+        int[] colours = new int[leds];
+        for (int led = 0; led < leds; led++) {
+            colours[led] = led << 8 | 0xFF0000;
+        }
+        return colours;
+    }
+
+    @Test
+    public void ddpSplitsLargeFramesAndPushesTheLastPacket() throws IOException {
+        createSender(Protocol.DDP, 600).setFrame(colours(600));
+        byte[] first = receive();
+        byte[] second = receive();
+        assertEquals(10 + 480 * 3, first.length);
+        assertEquals(0x40, first[0]);
+        assertEquals(0x0B, first[2]);
+        assertEquals(1, first[3]);
+        assertEquals(480 * 3, (first[8] & 0xFF) << 8 | first[9] & 0xFF);
+        assertEquals(first[1], second[1], "both packets of a frame share a sequence number");
+        assertEquals(10 + 120 * 3, second.length);
+        assertEquals(0x41, second[0]);
+        assertEquals(480 * 3, (second[6] & 0xFF) << 8 | second[7] & 0xFF);
+        // LED 480 is the first LED of the second packet
+        assertEquals((byte) 0xFF, second[10]);
+        assertEquals((byte) 480, second[11]);
+        assertEquals(0, second[12]);
+    }
+
+    @Test
+    public void warlsSendsTheIndexOfEachLed() throws IOException {
+        createSender(Protocol.WARLS, 3).setFrame(new int[] { 0x102030, 0x405060 });
+        assertArrayEquals(new byte[] { 1, 2, 0, 0x10, 0x20, 0x30, 1, 0x40, 0x50, 0x60, 2, 0, 0, 0 }, receive());
+    }
+
+    @Test
+    public void drgbSendsTheColoursInOrder() throws IOException {
+        createSender(Protocol.DRGB, 2).setFrame(new int[] { 0x102030, 0x405060 });
+        assertArrayEquals(new byte[] { 2, 2, 0x10, 0x20, 0x30, 0x40, 0x50, 0x60 }, receive());
+    }
+
+    @Test
+    public void dnrgbSplitsLargeFramesByStartIndex() throws IOException {
+        createSender(Protocol.DNRGB, 600).setFrame(colours(600));
+        byte[] first = receive();
+        byte[] second = receive();
+        assertEquals(4 + 489 * 3, first.length);
+        assertEquals(4, first[0]);
+        assertEquals(0, (first[2] & 0xFF) << 8 | first[3] & 0xFF);
+        assertEquals(4 + 111 * 3, second.length);
+        assertEquals(489, (second[2] & 0xFF) << 8 | second[3] & 0xFF);
+    }
+
+    @Test
+    public void gradientFadesFromTheFirstToTheLastLed() throws IOException {
+        createSender(Protocol.DRGB, 3).setGradient(0xFF0000, 0x0000FF);
+        assertArrayEquals(new byte[] { 2, 2, (byte) 0xFF, 0, 0, (byte) 128, 0, 127, 0, 0, (byte) 0xFF }, receive());
+    }
+
+    @Test
+    public void protocolsRejectMoreLedsThanTheyCanAddress() {
+        assertThrows(IllegalArgumentException.class, () -> createSender(Protocol.WARLS, 256));
+        assertThrows(IllegalArgumentException.class, () -> createSender(Protocol.DRGB, 491));
+    }
+
+    @Test
+    public void parseColoursAcceptsHashesAndSpaces() {
+        assertArrayEquals(new int[] { 0xFF0000, 0x00FF00, 0x0000FF },
+                WLedRealtimeSender.parseColours("FF0000, #00FF00,0000ff"));
+    }
+
+    /**
+     * Streams a new frame every 1/60 of a second for three seconds, and counts the whole frames that arrive. Run with
+     * -Dwled.benchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "wled.benchmark", matches = "true")
+    public void benchmarkFramesPerSecond() throws IOException, InterruptedException {
+        for (Protocol protocol : Protocol.values()) {
+            int leds = protocol == Protocol.WARLS ? 255 : protocol == Protocol.DRGB ? 490 : 600;
+            WLedRealtimeSender localSender = createSender(protocol, leds);
+            int[] colours = colours(leds);
+            ScheduledExecutorService feeder = Executors.newSingleThreadScheduledExecutor();
+            feeder.scheduleAtFixedRate(() -> {
+                colours[0]++;
+                localSender.setFrame(colours);
+            }, 0, 1_000_000 / FPS, TimeUnit.MICROSECONDS);
+            long start = System.nanoTime();
+            int frames = 0;
+            int packetsPerFrame = protocol == Protocol.DDP || protocol == Protocol.DNRGB ? 2 : 1;
+            int packets = 0;
+            try {
+                while (System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3)) {
+                    receive();
+                    if (++packets % packetsPerFrame == 0) {
+                        frames++;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                fail("The sender stopped streaming");
+            } finally {
+                feeder.shutdownNow();
+                localSender.close();
+                sender = null;
+            }
+            double fps = frames / ((System.nanoTime() - start) / 1e9);
+            System.out.println(String.format("%s with %d LEDs: %.1f fps", protocol, leds, fps));
+            assertTrue(fps > FPS * 0.9, protocol + " only reached " + fps + " fps");
+        }
+    }
+}
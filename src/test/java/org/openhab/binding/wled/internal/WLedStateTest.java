@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link WLedState} parsers against replies in the format that different firmware versions send.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedStateTest {
+
+    static String load(String name) throws IOException {
+        try (InputStream stream = WLedStateTest.class.getResourceAsStream(name)) {
+            if (stream == null) {
+                throw new IOException("Missing test resource " + name);
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return a sync notification in the 24 byte layout that WLED 0.10 broadcasts, in a buffer the size of the one the
+     *         notifier listener receives into.
+     */
+    static byte[] notifier(int version) {
+        byte[] packet = new byte[1472];
+        int[] values = { 0, 1, 200, 255, 160, 0, 1, 60, 9, 150, 77, version, 0, 0, 255, 33, 140, 0, 7, 6, 0, 0, 0, 0 };
+        for (int i = 0; i < values.length; i++) {
+            packet[i] = (byte) values[i];
+        }
+        return packet;
+    }
+
+    @Test
+    public void parseXmlReadsAnRgbString() throws IOException {
+        WLedState state = new WLedState();
+        assertTrue(state.parseXml(load("win-0.10.2.xml")));
+        assertEquals(128, state.masterBrightness);
+        assertArrayEquals(new int[] { 255, 160, 0 }, state.primary);
+        assertArrayEquals(new int[] { 0, 0, 0 }, state.secondary);
+        assertEquals(-1, state.primaryWhite);
+        assertEquals(0, state.secondaryWhite);
+        assertEquals(0, state.fx);
+        assertEquals(128, state.speed);
+        assertEquals(128, state.intensity);
+        assertEquals(0, state.palette);
+        assertEquals(0, state.presetCycle);
+        assertEquals(0, state.sleep);
+    }
+
+    @Test
+    public void parseXmlReadsAnRgbwString() throws IOException {
+        WLedState state = new WLedState();
+        assertTrue(state.parseXml(load("win-0.11.0-rgbw.xml")));
+        assertEquals(200, state.masterBrightness);
+        assertArrayEquals(new int[] { 0, 0, 255 }, state.primary);
+        assertArrayEquals(new int[] { 255, 0, 0 }, state.secondary);
+        assertEquals(180, state.primaryWhite);
+        assertEquals(20, state.secondaryWhite);
+        assertEquals(9, state.fx);
+        assertEquals(200, state.speed);
+        assertEquals(64, state.intensity);
+        assertEquals(11, state.palette);
+        assertEquals(1, state.presetCycle);
+        assertEquals(1, state.sleep);
+    }
+
+    @Test
+    public void parseXmlLeavesMissingTagsUnknown() throws IOException {
+        WLedState state = new WLedState();
+        assertTrue(state.parseXml(load("win-0.8.6-off.xml")));
+        assertEquals(0, state.masterBrightness);
+        assertEquals(-1, state.presetCycle);
+    }
+
+    @Test
+    public void parseXmlResetsTheLastState() throws IOException {
+        WLedState state = new WLedState();
+        state.parseXml(load("win-0.11.0-rgbw.xml"));
+        assertTrue(state.parseXml(load("win-0.10.2.xml")));
+        assertEquals(-1, state.primaryWhite);
+        assertEquals(0, state.fx);
+    }
+
+    @Test
+    public void parseXmlRejectsAReplyWithoutState() {
+        WLedState state = new WLedState();
+        assertFalse(state.parseXml("<?xml version=\"1.0\" ?><vs><ds>WLED</ds></vs>"));
+        assertFalse(state.parseXml("<html><body>Not found</body></html>"));
+        assertFalse(state.parseXml(""));
+    }
+
+    @Test
+    public void parseXmlSkipsTagsWithoutANumber() {
+        WLedState state = new WLedState();
+        assertTrue(state.parseXml("<vs><ds>WLED</ds><ac>12</ac><fx></fx><sx>x</sx></vs>"));
+        assertEquals(12, state.masterBrightness);
+        assertEquals(-1, state.fx);
+        assertEquals(-1, state.speed);
+    }
+
+    @Test
+    public void parseJsonReadsAnRgbString() throws IOException {
+        WLedState state = new WLedState();
+        assertTrue(state.parseJson(load("json-state-0.10.2.json")));
+        assertEquals(128, state.masterBrightness);
+        assertArrayEquals(new int[] { 255, 160, 0 }, state.primary);
+        assertEquals(-1, state.primaryWhite);
+        assertEquals(0, state.sleep);
+        assertEquals(1, state.segmentCount);
+        assertEquals(0xFFA000, state.segmentColour[0]);
+        assertEquals(128, state.speed);
+    }
+
+    @Test
+    public void parseJsonReadsEverySegmentOfAnRgbwString() throws IOException {
+        WLedState state = new WLedState();
+        assertTrue(state.parseJson(load("json-state-0.11.0-rgbw.json")));
+        assertEquals(0, state.masterBrightness, "a WLED that is off has no brightness");
+        assertArrayEquals(new int[] { 0, 0, 255 }, state.primary);
+        assertArrayEquals(new int[] { 255, 0, 0 }, state.secondary);
+        assertEquals(180, state.primaryWhite);
+        assertEquals(20, state.secondaryWhite);
+        assertEquals(9, state.fx);
+        assertEquals(200, state.speed);
+        assertEquals(64, state.intensity);
+        assertEquals(11, state.palette);
+        assertEquals(1, state.sleep);
+        assertEquals(2, state.segmentCount);
+        assertEquals(0, state.segmentId[0]);
+        assertEquals(2, state.segmentId[1]);
+        assertEquals(0x00FF00, state.segmentColour[1]);
+        assertEquals(0, state.segmentFx[1]);
+        assertEquals(100, state.segmentSpeed[1]);
+        assertEquals(50, state.segmentIntensity[1]);
+        assertEquals(2, state.segmentPalette[1]);
+    }
+
+    @Test
+    public void parseJsonReadsTheStateOfAWebsocketMessage() throws IOException {
+        WLedState state = new WLedState();
+        assertTrue(state.parseJson(load("websocket-0.11.0.json")));
+        assertEquals(64, state.masterBrightness);
+        assertArrayEquals(new int[] { 10, 20, 30 }, state.primary);
+        assertArrayEquals(new int[] { 40, 50, 60 }, state.secondary);
+        assertEquals(5, state.fx);
+    }
+
+    @Test
+    public void parseJsonKeepsWhatAPartialMessageLeavesOut() throws IOException {
+        WLedState state = new WLedState();
+        state.parseJson(load("json-state-0.11.0-rgbw.json"));
+        assertTrue(state.parseJson("{\"on\":true,\"bri\":30}"));
+        assertEquals(30, state.masterBrightness);
+        assertEquals(9, state.fx);
+        assertEquals(2, state.segmentCount);
+        assertTrue(state.parseJson("{\"bri\":40}"));
+        assertEquals(40, state.masterBrightness, "stays on when only the brightness changes");
+    }
+
+    @Test
+    public void parseJsonRejectsMessagesWithoutState() throws IOException {
+        WLedState state = new WLedState();
+        assertFalse(state.parseJson("{\"success\":true}"));
+        assertFalse(state.parseJson("{\"info\":{\"ver\":\"0.11.0\"}}"));
+        assertThrows(IOException.class, () -> state.parseJson("{\"bri\":"));
+    }
+
+    @Test
+    public void parseNotifierReadsAVersion5Packet() {
+        WLedState state = new WLedState();
+        assertTrue(state.parseNotifier(notifier(5), 24));
+        assertEquals(200, state.masterBrightness);
+        assertArrayEquals(new int[] { 255, 160, 0 }, state.primary);
+        assertArrayEquals(new int[] { 0, 0, 255 }, state.secondary);
+        assertEquals(1, state.sleep);
+        assertEquals(9, state.fx);
+        assertEquals(150, state.speed);
+        assertEquals(140, state.intensity);
+        assertEquals(6, state.palette);
+        assertEquals(-1, state.primaryWhite, "an RGB string has no white");
+        assertEquals(-1, state.secondaryWhite);
+    }
+
+    @Test
+    public void parseNotifierReadsTheWhiteOfAnRgbwString() throws IOException {
+        WLedState state = new WLedState();
+        state.parseXml(load("win-0.11.0-rgbw.xml"));
+        assertTrue(state.parseNotifier(notifier(5), 24));
+        assertEquals(77, state.primaryWhite);
+        assertEquals(33, state.secondaryWhite);
+    }
+
+    @Test
+    public void parseNotifierOnlyReadsWhatOlderVersionsSend() {
+        WLedState state = new WLedState();
+        assertTrue(state.parseNotifier(notifier(0), 24));
+        assertEquals(200, state.masterBrightness);
+        assertEquals(9, state.fx);
+        assertEquals(150, state.speed);
+        assertArrayEquals(new int[] { 0, 0, 0 }, state.secondary, "version 0 has no secondary colour");
+        assertEquals(-1, state.intensity);
+        assertEquals(-1, state.palette);
+    }
+
+    @Test
+    public void parseNotifierIgnoresTheEffectFromVersion200() {
+        WLedState state = new WLedState();
+        assertTrue(state.parseNotifier(notifier(200), 24));
+        assertEquals(200, state.masterBrightness);
+        assertArrayEquals(new int[] { 0, 0, 255 }, state.secondary);
+        assertEquals(-1, state.fx);
+        assertEquals(-1, state.speed);
+    }
+
+    @Test
+    public void parseNotifierRejectsOtherPackets() {
+        WLedState state = new WLedState();
+        assertFalse(state.parseNotifier(notifier(5), 19));
+        byte[] realtime = notifier(5);
+        realtime[0] = 2; // a DRGB realtime packet
+        assertFalse(state.parseNotifier(realtime, 24));
+        assertEquals(-1, state.masterBrightness);
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.openhab.binding.wled.internal.WLedHandlerHarness.waitFor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openhab.binding.wled.internal.WLedHandlerHarness.TestGroup;
+import org.openhab.binding.wled.internal.WLedHandlerHarness.TestWLed;
+import org.openhab.core.io.console.Console;
+import org.openhab.core.thing.ThingRegistry;
+import org.openhab.core.thing.ThingUID;
+
+/**
+ * Plays {@link WLedTimeline} scenes to WLEDs and groups running against the {@link WLedEmulator}.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedTimelineTest {
+    private static final String ALL_ON = "POST /json/state {\"on\":true,\"bri\":200}";
+    private static final String RED = "POST /json/state {\"seg\":[{\"col\":[[255,0,0]]}]}";
+    private @Nullable WLedHandlerHarness harness;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        harness = new WLedHandlerHarness(2);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        WLedHandlerHarness localHarness = harness;
+        if (localHarness != null) {
+            localHarness.close();
+        }
+    }
+
+    private WLedHandlerHarness harness() {
+        WLedHandlerHarness localHarness = harness;
+        assertNotNull(localHarness);
+        return localHarness;
+    }
+
+    private Path writeScene(String thing, String otherThing, long secondStepAt) throws IOException {
+        return Files.writeString(harness().userData.resolve("scene.json"),
+                "{\"steps\":[{\"at\":0,\"things\":[\"" + thing + "\",\"" + otherThing
+                        + "\"],\"state\":{\"on\":true,\"bri\":200}},{\"at\":" + secondStepAt + ",\"things\":[\""
+                        + thing + "\"],\"state\":{\"seg\":[{\"col\":[[255,0,0]]}]}}]}",
+                StandardCharsets.UTF_8);
+    }
+
+    private List<WLedHandler> resolve(String thingUID, TestWLed wled, TestGroup group) {
+        if (wled.thing.getUID().getAsString().equals(thingUID)) {
+            return Collections.singletonList(wled.handler);
+        } else if (group.bridge.getUID().getAsString().equals(thingUID)) {
+            return group.handler.getMembers();
+        }
+        return Collections.emptyList();
+    }
+
+    @Test
+    public void sendsEachStepToEveryWledOnTime() throws Exception {
+        TestWLed wled = harness().add(Map.of());
+        TestGroup group = harness().addGroup(3, Map.of());
+        Path scene = writeScene(wled.thing.getUID().getAsString(), group.bridge.getUID().getAsString(), 300);
+        WLedTimeline timeline = WLedTimeline.load(scene, thing -> resolve(thing, wled, group));
+        CompletableFuture<String> finished = timeline.play(harness().scheduler);
+        String summary = finished.get(10, TimeUnit.SECONDS);
+        assertTrue(summary.startsWith("2 steps, 5 requests, 0 failed"), summary);
+        assertEquals(1, wled.device.count(ALL_ON));
+        for (TestWLed member : group.members) {
+            assertEquals(1, member.device.count(ALL_ON));
+            assertEquals(0, member.device.count(RED));
+        }
+        // the steps are timed from the start of the scene, so a first request that had to open a connection arrives
+        // late and makes the gap shorter
+        long gap = wled.device.times(RED).get(0) - wled.device.times(ALL_ON).get(0);
+        assertTrue(gap >= 250 && gap < 400, "the second step came " + gap + " ms after the first");
+    }
+
+    @Test
+    public void stopsTheStepsThatHaveNotBeenSent() throws Exception {
+        TestWLed wled = harness().add(Map.of());
+        TestGroup group = harness().addGroup(1, Map.of());
+        Path scene = writeScene(wled.thing.getUID().getAsString(), group.bridge.getUID().getAsString(), 1000);
+        WLedTimeline timeline = WLedTimeline.load(scene, thing -> resolve(thing, wled, group));
+        CompletableFuture<String> finished = timeline.play(harness().scheduler);
+        waitFor(() -> wled.device.count(ALL_ON) == 1, "the first step is sent");
+        assertTrue(timeline.stop());
+        assertEquals("stopped after 1 of 2 steps", finished.getNow(""));
+        assertFalse(timeline.stop());
+        Thread.sleep(1300);
+        assertEquals(0, wled.device.count(RED));
+    }
+
+    @Test
+    public void failsToLoadASceneForAnUnknownThing() throws IOException {
+        TestWLed wled = harness().add(Map.of());
+        TestGroup group = harness().addGroup(1, Map.of());
+        Path scene = writeScene(wled.thing.getUID().getAsString(), "wled:wled:missing", 300);
+        assertThrows(IOException.class, () -> WLedTimeline.load(scene, thing -> resolve(thing, wled, group)));
+    }
+
+    @Test
+    public void theConsoleReturnsWhileTheScenePlays() throws Exception {
+        TestWLed wled = harness().add(Map.of());
+        TestGroup group = harness().addGroup(1, Map.of());
+        ThingRegistry thingRegistry = mock(ThingRegistry.class);
+        doAnswer(invocation -> {
+            ThingUID thingUID = invocation.getArgument(0);
+            return thingUID.equals(wled.thing.getUID()) ? wled.thing : group.bridge;
+        }).when(thingRegistry).get(any());
+        List<String> lines = new CopyOnWriteArrayList<>();
+        Console console = mock(Console.class);
+        doAnswer(invocation -> lines.add(invocation.getArgument(0))).when(console).println(any());
+        WLedConsoleCommandExtension extension = new WLedConsoleCommandExtension(thingRegistry);
+        // an absolute path is used as it is, instead of being resolved against the userdata folder
+        Path scene = writeScene(wled.thing.getUID().getAsString(), group.bridge.getUID().getAsString(), 1000);
+
+        long start = System.nanoTime();
+        extension.execute(new String[] { "play", scene.toString() }, console);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        assertEquals(0, wled.device.count(RED));
+        waitFor(() -> wled.device.count(ALL_ON) == 1, "the first step is sent");
+
+        extension.execute(new String[] { "stop" }, console);
+        assertTrue(lines.contains("stopped after 1 of 2 steps"), lines.toString());
+        extension.execute(new String[] { "stop" }, console);
+        assertTrue(lines.contains("No scene is playing"), lines.toString());
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.wled.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.openhab.binding.wled.internal.WLedBindingConstants.*;
+import static org.openhab.binding.wled.internal.WLedHandlerHarness.waitFor;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openhab.binding.wled.internal.WLedHandlerHarness.TestWLed;
+import org.openhab.core.library.types.PercentType;
+import org.openhab.core.thing.ThingUID;
+import org.openhab.core.thing.binding.builder.ThingBuilder;
+import org.openhab.core.thing.i18n.ChannelTypeI18nLocalizationService;
+
+/**
+ * Saves and restores the last known state with {@link WLedWarmStart}, in the temporary userdata folder of the
+ * {@link WLedHandlerHarness}, and checks how many WLEDs it lets warm up at once.
+ *
+ * @author agent - Initial contribution
+ */
+@NonNullByDefault
+public class WLedWarmStartTest {
+    private @Nullable WLedHandlerHarness harness;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        harness = new WLedHandlerHarness(2);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        WLedHandlerHarness localHarness = harness;
+        if (localHarness != null) {
+            localHarness.close();
+        }
+    }
+
+    private WLedHandlerHarness harness() {
+        WLedHandlerHarness localHarness = harness;
+        assertNotNull(localHarness);
+        return localHarness;
+    }
+
+    private static WLedState sampleState() {
+        WLedState state = new WLedState();
+        state.masterBrightness = 51;
+        state.primary[0] = 255;
+        state.primary[1] = 160;
+        state.secondary[2] = 40;
+        state.primaryWhite = 10;
+        state.secondaryWhite = 0;
+        state.fx = 9;
+        state.speed = 128;
+        state.intensity = 64;
+        state.palette = 6;
+        state.presetCycle = 0;
+        state.sleep = 1;
+        state.segmentCount = 2;
+        for (int i = 0; i < 2; i++) {
+            state.segmentId[i] = i * 3;
+            state.segmentColour[i] = 0xFFA000 + i;
+            state.segmentFx[i] = 20 + i;
+            state.segmentSpeed[i] = 100 + i;
+            state.segmentIntensity[i] = 50 + i;
+            state.segmentPalette[i] = i;
+        }
+        return state;
+    }
+
+    @Test
+    public void restoresTheSavedState() {
+        WLedWarmStart warmStart = new WLedWarmStart(harness().scheduler);
+        ThingUID thingUID = new ThingUID(THING_TYPE_WLED, "restored");
+        WLedState saved = sampleState();
+        warmStart.save(thingUID, saved);
+        WLedState restored = new WLedState();
+        assertTrue(warmStart.restore(thingUID, restored));
+        assertEquals(saved.masterBrightness, restored.masterBrightness);
+        assertArrayEquals(saved.primary, restored.primary);
+        assertArrayEquals(saved.secondary, restored.secondary);
+        assertEquals(saved.primaryWhite, restored.primaryWhite);
+        assertEquals(saved.secondaryWhite, restored.secondaryWhite);
+        assertEquals(saved.fx, restored.fx);
+        assertEquals(saved.speed, restored.speed);
+        assertEquals(saved.intensity, restored.intensity);
+        assertEquals(saved.palette, restored.palette);
+        assertEquals(saved.presetCycle, restored.presetCycle);
+        assertEquals(saved.sleep, restored.sleep);
+        assertEquals(2, restored.segmentCount);
+        assertTrue(saved.hasSameSegments(restored));
+        for (int i = 0; i < 2; i++) {
+            assertEquals(saved.segmentColour[i], restored.segmentColour[i]);
+            assertEquals(saved.segmentFx[i], restored.segmentFx[i]);
+            assertEquals(saved.segmentSpeed[i], restored.segmentSpeed[i]);
+            assertEquals(saved.segmentIntensity[i], restored.segmentIntensity[i]);
+            assertEquals(saved.segmentPalette[i], restored.segmentPalette[i]);
+        }
+
+        warmStart.delete(thingUID);
+        assertFalse(warmStart.restore(thingUID, new WLedState()));
+    }
+
+    @Test
+    public void ignoresAStateFileThatCanNotBeRead() throws Exception {
+        WLedWarmStart warmStart = new WLedWarmStart(harness().scheduler);
+        ThingUID thingUID = new ThingUID(THING_TYPE_WLED, "broken");
+        warmStart.save(thingUID, sampleState());
+        Path file;
+        try (Stream<Path> files = Files.list(harness().userData.resolve(BINDING_ID))) {
+            file = files.filter(path -> path.getFileName().toString().startsWith("state-")).findFirst().get();
+        }
+        Files.writeString(file, "{\"bri\":51,\"cl\":[255,", StandardCharsets.UTF_8);
+        WLedState restored = new WLedState();
+        assertFalse(warmStart.restore(thingUID, restored));
+        assertEquals(-1, restored.masterBrightness);
+        assertEquals(0, restored.segmentCount);
+    }
+
+    @Test
+    public void publishesTheSavedStateBeforeTheWledReplies() throws InterruptedException {
+        WLedEmulator.Device device = harness().emulator.addDevice();
+        new WLedWarmStart(harness().scheduler).save(new ThingUID(THING_TYPE_WLED, device.name), sampleState());
+        device.hold();
+        TestWLed wled = harness().add(device, Map.of("websocket", false));
+        assertEquals(new PercentType(20), wled.states.get(CHANNEL_MASTER_CONTROLS));
+        device.setBrightness(128);
+        device.releaseAll();
+        waitFor(() -> new PercentType(50).equals(wled.states.get(CHANNEL_MASTER_CONTROLS)),
+                "the brightness from the WLED replaces the saved one");
+    }
+
+    /**
+     * A handler that only records when its warm up starts, and never finishes it.
+     */
+    private class WarmingHandler extends WLedHandler {
+        private final Map<WLedHandler, Long> started;
+
+        WarmingHandler(String id, WLedWarmStart warmStart, Map<WLedHandler, Long> started) {
+            super(ThingBuilder.create(THING_TYPE_WLED, new ThingUID(THING_TYPE_WLED, id)).build(), new HttpClient(),
+                    new HttpClient(), new WebSocketClient(), harness().scheduler, new WLedOptionsCache(),
+                    new WLedNotifierListener(), warmStart,
+                    new WledDynamicStateDescriptionProvider(mock(ChannelTypeI18nLocalizationService.class)));
+            this.started = started;
+        }
+
+        @Override
+        void warmUp() {
+            started.put(this, System.nanoTime());
+        }
+    }
+
+    @Test
+    public void warmsUpFourWledsAtATimeForUpToFiveSeconds() throws InterruptedException {
+        WLedWarmStart warmStart = new WLedWarmStart(harness().scheduler);
+        Map<WLedHandler, Long> started = new ConcurrentHashMap<>();
+        List<WLedHandler> handlers = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            handlers.add(new WarmingHandler("warming" + i, warmStart, started));
+        }
+        long queued = System.nanoTime();
+        for (WLedHandler handler : handlers) {
+            warmStart.queue(handler);
+        }
+        waitFor(() -> started.size() == 4, "four WLEDs are warming up");
+        Thread.sleep(500);
+        assertEquals(4, started.size());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(started.containsKey(handlers.get(i)), "the WLEDs start in the order they were queued");
+        }
+
+        // the first reply from a WLED frees its slot straight away
+        warmStart.finished(handlers.get(0));
+        waitFor(() -> started.containsKey(handlers.get(4)), "the fifth WLED is warming up");
+        Thread.sleep(500);
+        assertFalse(started.containsKey(handlers.get(5)));
+
+        // the others never reply, so their slots are freed once they time out
+        waitFor(() -> started.containsKey(handlers.get(5)), "the sixth WLED is warming up", 8000);
+        long waitedMs = (started.get(handlers.get(5)) - queued) / 1_000_000;
+        assertTrue(waitedMs >= 4900 && waitedMs < 6000, "the sixth WLED started after " + waitedMs + " ms");
+    }
+}